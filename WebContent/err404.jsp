@@ -1,7 +0,0 @@
-<!DOCTYPE HTML PUBLIC "-//IETF//DTD HTML 2.0//EN">
-<html><head>
-<title>404 Not Found</title>
-</head><body>
-<h1>Not Found</h1>
-<p>The requested URL <%=request.getAttribute("originalurl")==null?"":request.getAttribute("originalurl")%> was not found on this server.</p>
-</body></html>
\ No newline at end of file
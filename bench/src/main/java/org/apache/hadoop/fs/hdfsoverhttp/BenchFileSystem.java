@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PositionedReadable;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * A read only file system in memory for the benchmarks: the directory
+ * /dir holds a number of generated entries and the file /file holds
+ * random bytes, so the measurements don't include a NameNode or a
+ * DataNode.
+ */
+public class BenchFileSystem extends FileSystem {
+
+	static final Path DIR = new Path("/dir");
+	static final Path FILE = new Path("/file");
+
+	private final FileStatus dirStatus;
+	private final FileStatus fileStatus;
+	private final FileStatus[] entries;
+	private final byte[] data;
+
+	/**
+	 * @param entries
+	 *            the number of entries of /dir, a tenth of them are
+	 *            directories
+	 * @param fileSize
+	 *            the size of /file
+	 */
+	public BenchFileSystem(int entries, int fileSize) {
+		setConf(new Configuration());
+		long now = System.currentTimeMillis();
+		dirStatus = new FileStatus(0, true, 0, 0, now, now, new FsPermission(
+				(short) 0755), "hdfs", "hdfs", DIR);
+		data = new byte[fileSize];
+		new Random(1).nextBytes(data);
+		fileStatus = new FileStatus(fileSize, false, 3, 128 * 1024 * 1024,
+				now, now, new FsPermission((short) 0644), "hdfs", "hdfs", FILE);
+		Random random = new Random(2);
+		this.entries = new FileStatus[entries];
+		for (int i = 0; i < entries; i++) {
+			boolean dir = i % 10 == 0;
+			String name = (dir ? "dir-" : "part-") + String.format("%05d", i)
+					+ (dir ? "" : i % 3 == 0 ? ".gz" : ".txt");
+			// some entries are readable by their owner only
+			short mode = (short) (i % 7 == 0 ? 0700 : dir ? 0755 : 0644);
+			this.entries[i] = new FileStatus(dir ? 0 : random.nextInt(1 << 30),
+					dir, 3, 128 * 1024 * 1024, now - random.nextInt(1 << 30)
+							* 1000L, now, new FsPermission(mode), "hdfs",
+					"hdfs", new Path(DIR, name));
+		}
+	}
+
+	FileStatus getDirStatus() {
+		return dirStatus;
+	}
+
+	FileStatus getFileStatus() {
+		return fileStatus;
+	}
+
+	FileStatus[] getEntries() {
+		return entries;
+	}
+
+	@Override
+	public URI getUri() {
+		return URI.create("bench:///");
+	}
+
+	@Override
+	public FileStatus getFileStatus(Path f) throws IOException {
+		String path = f.toUri().getPath();
+		if (path.equals(DIR.toString())) {
+			return dirStatus;
+		}
+		if (path.equals(FILE.toString())) {
+			return fileStatus;
+		}
+		throw new FileNotFoundException(path);
+	}
+
+	@Override
+	public FileStatus[] listStatus(Path f) throws IOException {
+		getFileStatus(f);
+		return entries;
+	}
+
+	@Override
+	public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+		getFileStatus(f);
+		return new FSDataInputStream(new MemoryInputStream(data));
+	}
+
+	@Override
+	public FSDataOutputStream create(Path f, FsPermission permission,
+			boolean overwrite, int bufferSize, short replication,
+			long blockSize, Progressable progress) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public FSDataOutputStream append(Path f, int bufferSize,
+			Progressable progress) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public boolean rename(Path src, Path dst) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public boolean delete(Path f, boolean recursive) throws IOException {
+		throw new IOException("read only");
+	}
+
+	@Override
+	public void setWorkingDirectory(Path dir) {
+	}
+
+	@Override
+	public Path getWorkingDirectory() {
+		return new Path("/");
+	}
+
+	@Override
+	public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+		throw new IOException("read only");
+	}
+
+	/**
+	 * a seekable stream of a byte array
+	 */
+	static class MemoryInputStream extends ByteArrayInputStream implements
+			Seekable, PositionedReadable {
+
+		MemoryInputStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public synchronized void seek(long position) throws IOException {
+			if (position < 0 || position > count) {
+				throw new EOFException("seek to " + position);
+			}
+			pos = (int) position;
+		}
+
+		@Override
+		public synchronized long getPos() {
+			return pos;
+		}
+
+		@Override
+		public boolean seekToNewSource(long targetPos) {
+			return false;
+		}
+
+		@Override
+		public int read(long position, byte[] buffer, int offset, int length) {
+			if (position >= count) {
+				return -1;
+			}
+			int n = (int) Math.min(length, count - position);
+			System.arraycopy(buf, (int) position, buffer, offset, n);
+			return n;
+		}
+
+		@Override
+		public void readFully(long position, byte[] buffer, int offset,
+				int length) throws IOException {
+			if (read(position, buffer, offset, length) < length) {
+				throw new EOFException("read " + length + " at " + position);
+			}
+		}
+
+		@Override
+		public void readFully(long position, byte[] buffer) throws IOException {
+			readFully(position, buffer, 0, buffer.length);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The servlet objects the benchmarks need, the request and the response
+ * are proxies which only answer the calls of the measured code.
+ */
+class BenchServlets {
+
+	/**
+	 * the directory of the web application, set by -Dbench.webapp
+	 */
+	static final String WEBAPP = System.getProperty("bench.webapp",
+			"../WebContent");
+
+	private static boolean configured = false;
+
+	/**
+	 * read hdfs-over-http.conf of the web application into SysConfig
+	 */
+	static synchronized void configure() {
+		if (!configured) {
+			configured = true;
+			SysConfig.init(context());
+		}
+	}
+
+	/**
+	 * @return a context serving the resources of the web application
+	 */
+	static ServletContext context() {
+		return (ServletContext) Proxy.newProxyInstance(
+				BenchServlets.class.getClassLoader(),
+				new Class<?>[] { ServletContext.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("getResourceAsStream")) {
+							try {
+								return new FileInputStream(new File(WEBAPP,
+										(String) args[0]));
+							} catch (FileNotFoundException e) {
+								return null;
+							}
+						} else if (name.equals("getResourcePaths")) {
+							String path = (String) args[0];
+							String[] names = new File(WEBAPP, path).list();
+							if (names == null) {
+								return null;
+							}
+							HashSet<String> paths = new HashSet<String>();
+							for (String n : names) {
+								paths.add(path + n);
+							}
+							return paths;
+						}
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * @param headers
+	 *            the headers by name
+	 * @return a GET request with the headers
+	 */
+	static HttpServletRequest request(final HashMap<String, String> headers) {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				BenchServlets.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						String name = method.getName();
+						if (name.equals("getHeader")) {
+							return headers.get(args[0]);
+						} else if (name.equals("getDateHeader")) {
+							return dateHeader(headers.get(args[0]));
+						} else if (name.equals("getMethod")) {
+							return "GET";
+						}
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * parse a date header like the container
+	 */
+	private static long dateHeader(String value) {
+		if (value == null) {
+			return -1L;
+		}
+		SimpleDateFormat format = new SimpleDateFormat(
+				"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value).getTime();
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(value);
+		}
+	}
+
+	/**
+	 * @return a response which drops the headers and the errors
+	 */
+	static HttpServletResponse response() {
+		return (HttpServletResponse) Proxy.newProxyInstance(
+				BenchServlets.class.getClassLoader(),
+				new Class<?>[] { HttpServletResponse.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getReturnType() == boolean.class) {
+							return false;
+						} else if (method.getReturnType() == int.class) {
+							return 0;
+						}
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * a client which reads everything as fast as it is written
+	 */
+	static class NullOutputStream extends ServletOutputStream {
+		long bytes = 0;
+
+		@Override
+		public void write(int b) {
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The copy loops of HdfsTool from a stream in memory to a client which
+ * reads as fast as it is written, so the cost of the loop itself is left:
+ * the buffer, the read tracking, the parking checks and the timing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+	@Param({ "4096", "1048576", "67108864" })
+	public int size;
+
+	private HdfsTool tool;
+	private FileStatus status;
+	private Range range;
+	private final BenchServlets.NullOutputStream out = new BenchServlets.NullOutputStream();
+
+	@Setup
+	public void setup() {
+		BenchFileSystem fs = new BenchFileSystem(0, size);
+		tool = new HdfsTool(ListingBenchmark.mount(), fs);
+		status = fs.getFileStatus();
+		// the second half of the file
+		range = new Range();
+		range.start = size / 2;
+		range.end = size - 1;
+		range.length = size;
+	}
+
+	@Benchmark
+	public long copyFull() {
+		tool.copyFull(status, out);
+		return out.bytes;
+	}
+
+	@Benchmark
+	public long copyRange() {
+		tool.copyRange(status, out, range);
+		return out.bytes;
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The formatting of the sizes and the dates of a listing and of the
+ * response headers, by one thread and by 64 threads sharing the caches of
+ * Formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+	private static final int MASK = 1023;
+
+	private final long[] sizes = new long[MASK + 1];
+	private final double[] decimals = new double[MASK + 1];
+	private FileStatus[] statuses;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(3);
+		for (int i = 0; i <= MASK; i++) {
+			// sizes of every unit, from bytes to petabytes
+			sizes[i] = (long) Math.pow(2, random.nextInt(55))
+					+ random.nextInt(1 << 20);
+			decimals[i] = random.nextDouble() * 1024;
+		}
+		statuses = new BenchFileSystem(MASK + 1, 0).getEntries();
+	}
+
+	@Benchmark
+	public String byteDesc() {
+		return Formats.byteDesc(sizes[next++ & MASK]);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public String byteDescContended() {
+		return Formats.byteDesc(sizes[next++ & MASK]);
+	}
+
+	@Benchmark
+	public String limitDecimalTo2() {
+		return Formats.limitDecimalTo2(decimals[next++ & MASK]);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public String limitDecimalTo2Contended() {
+		return Formats.limitDecimalTo2(decimals[next++ & MASK]);
+	}
+
+	@Benchmark
+	public String lastModifiedHttp() {
+		return Range.getLastModifiedHttp(statuses[next++ & MASK]);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public String lastModifiedHttpContended() {
+		return Range.getLastModifiedHttp(statuses[next++ & MASK]);
+	}
+
+	@Benchmark
+	public String listingDate() {
+		return Formats.listingDate(statuses[next++ & MASK]
+				.getModificationTime());
+	}
+
+	@Benchmark
+	@Threads(64)
+	public String listingDateContended() {
+		return Formats.listingDate(statuses[next++ & MASK]
+				.getModificationTime());
+	}
+
+	@Benchmark
+	public String eTag() {
+		return Range.getETag(statuses[next++ & MASK]);
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HdfsTool.listFiles building the rows of a listing from the statuses of a
+ * directory, the file system is in memory so only the construction of the
+ * rows is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ListingBenchmark {
+
+	@Param({ "100", "10000", "1000000" })
+	public int entries;
+
+	private HdfsTool tool;
+
+	/**
+	 * @return a mount of the whole file system which isn't connected
+	 */
+	static Mount mount() {
+		BenchServlets.configure();
+		return new Mount("bench", "", "file:///", null, "", 256, 100);
+	}
+
+	@Setup
+	public void setup() {
+		tool = new HdfsTool(mount(), new BenchFileSystem(entries, 0));
+	}
+
+	@Benchmark
+	public ArrayList<String[]> listFiles() throws IOException {
+		ArrayList<String[]> dirList = new ArrayList<String[]>();
+		ArrayList<String[]> fileList = new ArrayList<String[]>();
+		tool.listFiles(BenchFileSystem.DIR.toString(), dirList, fileList,
+				new DirectoryMetaInfo());
+		return fileList;
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Range.parseRange with the Range headers of download managers and video
+ * players, and with headers built to make the parsing slow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeBenchmark {
+
+	@Param({ "none", "first", "open", "suffix", "if-range-etag",
+			"if-range-date", "multi", "many", "overlapping", "long-numbers",
+			"invalid" })
+	public String header;
+
+	private final Range parser = new Range();
+	private FileStatus status;
+	private HttpServletRequest request;
+	private HttpServletResponse response;
+
+	@Setup
+	public void setup() {
+		status = new BenchFileSystem(0, 1024 * 1024).getFileStatus();
+		HashMap<String, String> headers = new HashMap<String, String>();
+		if (header.equals("first")) {
+			headers.put("Range", "bytes=0-1023");
+		} else if (header.equals("open")) {
+			headers.put("Range", "bytes=524288-");
+		} else if (header.equals("suffix")) {
+			headers.put("Range", "bytes=-500");
+		} else if (header.equals("if-range-etag")) {
+			headers.put("If-Range", Range.getETag(status));
+			headers.put("Range", "bytes=524288-");
+		} else if (header.equals("if-range-date")) {
+			headers.put("If-Range", Range.getLastModifiedHttp(status));
+			headers.put("Range", "bytes=524288-");
+		} else if (header.equals("multi")) {
+			headers.put("Range", "bytes=0-99,200-299,-100");
+		} else if (header.equals("many")) {
+			headers.put("Range", ranges(1000, 0));
+		} else if (header.equals("overlapping")) {
+			headers.put("Range", ranges(1000, 1));
+		} else if (header.equals("long-numbers")) {
+			headers.put("Range", "bytes=0000000000000000000000000000000001-"
+					+ "0000000000000000000000000000001023");
+		} else if (header.equals("invalid")) {
+			headers.put("Range", ranges(1000, 0) + ",x");
+		}
+		request = BenchServlets.request(headers);
+		response = BenchServlets.response();
+	}
+
+	/**
+	 * @param count
+	 *            the number of ranges
+	 * @param step
+	 *            the distance of their starts, the ranges overlap if it is
+	 *            smaller than their length
+	 */
+	private static String ranges(int count, int step) {
+		StringBuilder value = new StringBuilder("bytes=");
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				value.append(", ");
+			}
+			long start = step == 0 ? i * 2 : i * step;
+			value.append(start).append('-').append(start + (step == 0 ? 0 : 99));
+		}
+		return value.toString();
+	}
+
+	@Benchmark
+	public ArrayList<Range> parseRange() throws IOException {
+		return parser.parseRange(request, response, status,
+				Range.getETag(status));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The rows of a listing rendered by FileListPage, with the icon lookup,
+ * the URL encoding and the padding of every row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RenderBenchmark {
+
+	private static final String CONTEXT = "/hdfs";
+
+	@Param({ "100", "10000" })
+	public int entries;
+
+	private ServletContext context;
+	private String targetDir;
+	private ArrayList<String[]> dirList;
+	private ArrayList<String[]> fileList;
+	private DirectoryMetaInfo metaInfo;
+
+	@Setup
+	public void setup() throws IOException {
+		HdfsTool tool = new HdfsTool(ListingBenchmark.mount(),
+				new BenchFileSystem(entries, 0));
+		context = BenchServlets.context();
+		targetDir = BenchFileSystem.DIR.toString() + "/";
+		dirList = new ArrayList<String[]>();
+		fileList = new ArrayList<String[]>();
+		metaInfo = new DirectoryMetaInfo();
+		tool.listFiles(targetDir, dirList, fileList, metaInfo);
+	}
+
+	@Benchmark
+	public int render() throws IOException {
+		StringWriter out = new StringWriter(entries * 256);
+		FileListPage.writeRows(context, out, CONTEXT, targetDir, dirList,
+				fileList, metaInfo.getFileNameMaxLength() + 2);
+		return out.getBuffer().length();
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HdfsTool.sortFileList by each column of the files of a listing of 10k
+ * and 1M entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SortBenchmark {
+
+	@Param({ "10000", "1000000" })
+	public int entries;
+
+	@Param({ "N", "M", "S" })
+	public String column;
+
+	@Param({ "A", "D" })
+	public String order;
+
+	private HdfsTool tool;
+	private ArrayList<String[]> fileList;
+
+	@Setup
+	public void setup() throws IOException {
+		BenchServlets.configure();
+		BenchFileSystem fs = new BenchFileSystem(entries, 0);
+		tool = new HdfsTool(ListingBenchmark.mount(), fs);
+		ArrayList<String[]> dirList = new ArrayList<String[]>();
+		fileList = new ArrayList<String[]>();
+		tool.listFiles(BenchFileSystem.DIR.toString(), dirList, fileList,
+				new DirectoryMetaInfo());
+	}
+
+	@Benchmark
+	public ArrayList<String[]> sortFileList() {
+		ArrayList<String[]> sorted = new ArrayList<String[]>(fileList.size());
+		tool.sortFileList(fileList, column, order, sorted);
+		return sorted;
+	}
+}
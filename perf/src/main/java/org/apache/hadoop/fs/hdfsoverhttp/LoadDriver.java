@@ -0,0 +1,313 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Sends the requests of the load test. concurrency clients each send a
+ * request as soon as their last one is done, the kind of every request is
+ * picked by the weights of the mix. The requests of the warmup aren't
+ * recorded, nor the ones still running at the end.
+ */
+public class LoadDriver {
+
+	static final List<String> KINDS = Arrays.asList("full", "big", "range",
+			"multipart", "listing", "sorted-listing");
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final String url;
+	private final TreeGenerator tree;
+	private final String[] kinds;
+	private final int[] weights;
+	private final int totalWeight;
+	private final int concurrency;
+	private final long warmupMs;
+	private final long durationMs;
+	private final long rangeSize;
+	private final int multipartRanges;
+
+	private volatile long measureStart;
+	private volatile long measureEnd;
+
+	/**
+	 * @param config
+	 * @param url
+	 *            the URL of the webapp
+	 * @param tree
+	 */
+	public LoadDriver(PerfConfig config, String url, TreeGenerator tree) {
+		this.url = url;
+		this.tree = tree;
+		LinkedHashMap<String, Integer> mix = config.getMix();
+		kinds = mix.keySet().toArray(new String[mix.size()]);
+		weights = new int[kinds.length];
+		int total = 0;
+		for (int i = 0; i < kinds.length; i++) {
+			total += mix.get(kinds[i]);
+			weights[i] = total;
+		}
+		totalWeight = total;
+		concurrency = config.getInt("concurrency");
+		warmupMs = config.getInt("warmup-seconds") * 1000L;
+		durationMs = config.getInt("duration-seconds") * 1000L;
+		rangeSize = config.getSize("range-size");
+		multipartRanges = config.getInt("multipart-ranges");
+		for (String kind : kinds) {
+			if ((kind.equals("big") || kind.equals("range") || kind
+					.equals("multipart"))
+					&& (tree.getBigFiles().isEmpty() || tree.getBigFileSize() < rangeSize)) {
+				throw new IllegalArgumentException(kind
+						+ " needs big files larger than range-size");
+			}
+			if (kind.equals("full") && tree.getSmallFiles().isEmpty()) {
+				throw new IllegalArgumentException(kind + " needs small files");
+			}
+		}
+	}
+
+	static boolean isKind(String kind) {
+		return KINDS.contains(kind);
+	}
+
+	/**
+	 * run the warmup and the measurement
+	 *
+	 * @return the report of the measurement
+	 * @throws InterruptedException
+	 */
+	LoadReport run() throws InterruptedException {
+		long now = System.currentTimeMillis();
+		measureStart = now + warmupMs;
+		measureEnd = measureStart + durationMs;
+		ArrayList<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < concurrency; i++) {
+			Worker worker = new Worker(i);
+			workers.add(worker);
+			worker.start();
+		}
+		Thread.sleep(Math.max(0, measureStart - System.currentTimeMillis()));
+		long allocated = serverAllocatedBytes();
+		long[] gc = LoadReport.gc();
+		Thread.sleep(Math.max(0, measureEnd - System.currentTimeMillis()));
+		allocated = serverAllocatedBytes() - allocated;
+		long[] gcEnd = LoadReport.gc();
+
+		LoadReport report = new LoadReport(KINDS, durationMs, concurrency);
+		for (Worker worker : workers) {
+			worker.join();
+			report.add(worker.recorders);
+		}
+		report.setServerAllocation(allocated);
+		report.setGc(gcEnd[0] - gc[0], gcEnd[1] - gc[1]);
+		return report;
+	}
+
+	/**
+	 * @return the bytes allocated so far by the live threads of the server:
+	 *         the request threads and the pools of the gateway
+	 */
+	private static long serverAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			return -1;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long total = 0;
+		for (ThreadInfo info : threads.getThreadInfo(threads
+				.getAllThreadIds())) {
+			if (info != null
+					&& (info.getThreadName().startsWith(
+							PerfServer.THREAD_NAME + "-") || info
+							.getThreadName().startsWith("hdfsoverhttp-"))) {
+				total += Math.max(0,
+						threads.getThreadAllocatedBytes(info.getThreadId()));
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * the latencies, bytes and errors of one kind of request of a client
+	 */
+	static class Recorder {
+		long[] latencies = new long[1024];
+		int count = 0;
+		long bytes = 0;
+		long errors = 0;
+
+		void add(long nanos, long n) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+			bytes += n;
+		}
+	}
+
+	/**
+	 * a client sending requests back to back
+	 */
+	private class Worker extends Thread {
+		private final Random random;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private final Map<String, Recorder> recorders = new LinkedHashMap<String, Recorder>();
+
+		Worker(int id) {
+			super("load-" + id);
+			setDaemon(true);
+			random = new Random(id);
+			for (String kind : KINDS) {
+				recorders.put(kind, new Recorder());
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				long start = System.currentTimeMillis();
+				if (start >= measureEnd) {
+					return;
+				}
+				String kind = pick();
+				long startNanos = System.nanoTime();
+				long n = -1;
+				try {
+					n = send(kind);
+				} catch (IOException e) {
+					n = -1;
+				}
+				long elapsed = System.nanoTime() - startNanos;
+				if (start >= measureStart
+						&& System.currentTimeMillis() <= measureEnd) {
+					Recorder recorder = recorders.get(kind);
+					if (n < 0) {
+						recorder.errors++;
+					} else {
+						recorder.add(elapsed, n);
+					}
+				}
+			}
+		}
+
+		private String pick() {
+			int r = random.nextInt(totalWeight);
+			for (int i = 0; i < weights.length; i++) {
+				if (r < weights[i]) {
+					return kinds[i];
+				}
+			}
+			return kinds[kinds.length - 1];
+		}
+
+		/**
+		 * @return the bytes of the body, -1 if the status isn't the expected
+		 *         one
+		 */
+		private long send(String kind) throws IOException {
+			String path;
+			String range = null;
+			int expected = HttpURLConnection.HTTP_OK;
+			if (kind.equals("full")) {
+				path = pickFrom(tree.getSmallFiles());
+			} else if (kind.equals("big")) {
+				path = pickFrom(tree.getBigFiles());
+			} else if (kind.equals("range")) {
+				path = pickFrom(tree.getBigFiles());
+				long start = randomOffset(tree.getBigFileSize() - rangeSize);
+				range = "bytes=" + start + "-" + (start + rangeSize - 1);
+				expected = HttpURLConnection.HTTP_PARTIAL;
+			} else if (kind.equals("multipart")) {
+				path = pickFrom(tree.getBigFiles());
+				range = multipartRange();
+				expected = HttpURLConnection.HTTP_PARTIAL;
+			} else if (kind.equals("listing")) {
+				path = TreeGenerator.HUGE_DIR + "/";
+			} else {
+				path = TreeGenerator.HUGE_DIR + "/?C=S&O=D";
+			}
+			HttpURLConnection connection = (HttpURLConnection) new URL(url
+					+ path).openConnection();
+			if (range != null) {
+				connection.setRequestProperty("Range", range);
+			}
+			int status = connection.getResponseCode();
+			InputStream in = status >= 400 ? connection.getErrorStream()
+					: connection.getInputStream();
+			long n = 0;
+			if (in != null) {
+				try {
+					// read all of it, so the connection is kept alive
+					int read;
+					while ((read = in.read(buffer)) != -1) {
+						n += read;
+					}
+				} finally {
+					in.close();
+				}
+			}
+			return status == expected ? n : -1;
+		}
+
+		private String pickFrom(List<String> paths) {
+			return paths.get(random.nextInt(paths.size()));
+		}
+
+		private long randomOffset(long max) {
+			return max <= 0 ? 0 : (random.nextLong() & Long.MAX_VALUE)
+					% (max + 1);
+		}
+
+		/**
+		 * @return multipart-ranges ranges of range-size in total, one in
+		 *         each equal part of the file
+		 */
+		private String multipartRange() {
+			long part = tree.getBigFileSize() / multipartRanges;
+			long length = Math.max(1, rangeSize / multipartRanges);
+			StringBuilder value = new StringBuilder("bytes=");
+			for (int i = 0; i < multipartRanges; i++) {
+				long start = i * part
+						+ randomOffset(Math.max(0, part - length));
+				if (i > 0) {
+					value.append(',');
+				}
+				value.append(start).append('-').append(start + length - 1);
+			}
+			return value.toString();
+		}
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The results of a load test per kind of request: the throughput, the
+ * p50 and p99 latency, and the allocation rate of the server and the
+ * time of the garbage collections during the measurement.
+ */
+public class LoadReport {
+
+	private final long durationMs;
+	private final int concurrency;
+	private final Map<String, Kind> kinds = new LinkedHashMap<String, Kind>();
+	private long serverAllocated = -1;
+	private long gcCount = 0;
+	private long gcMs = 0;
+
+	LoadReport(List<String> names, long durationMs, int concurrency) {
+		this.durationMs = durationMs;
+		this.concurrency = concurrency;
+		for (String name : names) {
+			kinds.put(name, new Kind());
+		}
+	}
+
+	/**
+	 * add the recorders of a client
+	 */
+	void add(Map<String, LoadDriver.Recorder> recorders) {
+		for (Map.Entry<String, LoadDriver.Recorder> e : recorders.entrySet()) {
+			kinds.get(e.getKey()).add(e.getValue());
+		}
+	}
+
+	void setServerAllocation(long bytes) {
+		serverAllocated = bytes;
+	}
+
+	void setGc(long count, long ms) {
+		gcCount = count;
+		gcMs = ms;
+	}
+
+	/**
+	 * @return the collections and their time in ms so far
+	 */
+	static long[] gc() {
+		long[] total = new long[2];
+		for (GarbageCollectorMXBean bean : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total[0] += Math.max(0, bean.getCollectionCount());
+			total[1] += Math.max(0, bean.getCollectionTime());
+		}
+		return total;
+	}
+
+	private long requests() {
+		long n = 0;
+		for (Kind kind : kinds.values()) {
+			n += kind.count;
+		}
+		return n;
+	}
+
+	/**
+	 * print the report as a table
+	 */
+	void print(PrintStream out) {
+		double seconds = durationMs / 1000.0;
+		out.println(String.format("%-15s %9s %7s %9s %9s %9s %9s %9s",
+				"request", "count", "errors", "req/s", "MB/s", "p50 ms",
+				"p99 ms", "max ms"));
+		Kind all = new Kind();
+		for (Map.Entry<String, Kind> e : kinds.entrySet()) {
+			Kind kind = e.getValue();
+			if (kind.count + kind.errors == 0) {
+				continue;
+			}
+			printRow(out, e.getKey(), kind, seconds);
+			all.merge(kind);
+		}
+		printRow(out, "total", all, seconds);
+		out.println(String.format("concurrency %d, %.0f s", concurrency,
+				seconds));
+		if (serverAllocated >= 0) {
+			out.println(String.format(
+					"server allocation %.1f MB/s, %d bytes/request",
+					serverAllocated / seconds / (1 << 20), serverAllocated
+							/ Math.max(1, all.count)));
+		}
+		out.println(String.format("gc %d collections, %d ms", gcCount, gcMs));
+	}
+
+	private static void printRow(PrintStream out, String name, Kind kind,
+			double seconds) {
+		kind.sort();
+		out.println(String.format(
+				"%-15s %9d %7d %9.1f %9.1f %9.2f %9.2f %9.2f", name,
+				kind.count, kind.errors, kind.count / seconds, kind.bytes
+						/ seconds / (1 << 20), kind.percentile(50) / 1e6,
+				kind.percentile(99) / 1e6, kind.percentile(100) / 1e6));
+	}
+
+	/**
+	 * write the report as JSON
+	 *
+	 * @param file
+	 * @param settings
+	 *            the settings of the test, they are written with the results
+	 * @throws IOException
+	 */
+	void write(File file, Map<String, String> settings) throws IOException {
+		double seconds = durationMs / 1000.0;
+		StringBuilder json = new StringBuilder("{\n  \"settings\": {");
+		boolean first = true;
+		for (Map.Entry<String, String> e : settings.entrySet()) {
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    \"").append(e.getKey()).append("\": \"")
+					.append(e.getValue().replace("\\", "\\\\")
+							.replace("\"", "\\\"")).append('"');
+		}
+		json.append("\n  },\n  \"requests\": {");
+		first = true;
+		for (Map.Entry<String, Kind> e : kinds.entrySet()) {
+			Kind kind = e.getValue();
+			if (kind.count + kind.errors == 0) {
+				continue;
+			}
+			kind.sort();
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    \"").append(e.getKey()).append("\": {")
+					.append("\"count\": ").append(kind.count)
+					.append(", \"errors\": ").append(kind.errors)
+					.append(", \"bytes\": ").append(kind.bytes)
+					.append(", \"per_second\": ")
+					.append(String.format("%.2f", kind.count / seconds))
+					.append(", \"p50_ms\": ")
+					.append(String.format("%.3f", kind.percentile(50) / 1e6))
+					.append(", \"p99_ms\": ")
+					.append(String.format("%.3f", kind.percentile(99) / 1e6))
+					.append(", \"max_ms\": ")
+					.append(String.format("%.3f", kind.percentile(100) / 1e6))
+					.append('}');
+		}
+		long count = requests();
+		json.append("\n  },\n  \"per_second\": ")
+				.append(String.format("%.2f", count / seconds))
+				.append(",\n  \"server_allocated_bytes_per_second\": ")
+				.append(serverAllocated < 0 ? -1 : (long) (serverAllocated / seconds))
+				.append(",\n  \"server_allocated_bytes_per_request\": ")
+				.append(serverAllocated < 0 ? -1 : serverAllocated
+						/ Math.max(1, count))
+				.append(",\n  \"gc_count\": ").append(gcCount)
+				.append(",\n  \"gc_ms\": ").append(gcMs).append("\n}\n");
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		Files.write(file.toPath(), json.toString().getBytes(Charset
+				.forName("UTF-8")));
+	}
+
+	/**
+	 * print and write the p99 latency of every kind of request of the results
+	 * of several runs side by side
+	 *
+	 * @param out
+	 * @param names
+	 *            the names of the runs
+	 * @param files
+	 *            their results in JSON
+	 * @param result
+	 *            the comparison in JSON
+	 * @throws IOException
+	 */
+	static void compare(PrintStream out, String[] names, File[] files,
+			File result) throws IOException {
+		Charset charset = Charset.forName("UTF-8");
+		String[] jsons = new String[files.length];
+		StringBuilder header = new StringBuilder(String.format("%-15s",
+				"request"));
+		for (int i = 0; i < files.length; i++) {
+			jsons[i] = new String(Files.readAllBytes(files[i].toPath()),
+					charset);
+			header.append(String.format(" %16s", names[i] + " p99"));
+		}
+		out.println(header);
+		StringBuilder json = new StringBuilder("{\n  \"p99_ms\": {");
+		boolean first = true;
+		for (String kind : LoadDriver.KINDS) {
+			Pattern pattern = Pattern.compile("\"" + Pattern.quote(kind)
+					+ "\": \\{[^}]*\"p99_ms\": ([0-9.]+)");
+			StringBuilder row = new StringBuilder(String.format("%-15s", kind));
+			StringBuilder values = new StringBuilder();
+			boolean found = false;
+			for (int i = 0; i < jsons.length; i++) {
+				Matcher matcher = pattern.matcher(jsons[i]);
+				String p99 = matcher.find() ? matcher.group(1) : "-1";
+				found |= !p99.equals("-1");
+				row.append(String.format(" %16s", p99));
+				values.append(i == 0 ? "" : ", ").append('"').append(names[i])
+						.append("\": ").append(p99);
+			}
+			if (!found) {
+				continue;
+			}
+			out.println(row);
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    \"").append(kind).append("\": {").append(values)
+					.append('}');
+		}
+		json.append("\n  },\n  \"results\": {");
+		for (int i = 0; i < files.length; i++) {
+			json.append(i == 0 ? "\n" : ",\n").append("    \"")
+					.append(names[i]).append("\": \"")
+					.append(files[i].getPath().replace("\\", "\\\\"))
+					.append('"');
+		}
+		json.append("\n  }\n}\n");
+		File dir = result.getAbsoluteFile().getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		Files.write(result.toPath(), json.toString().getBytes(charset));
+	}
+
+	/**
+	 * the merged recorders of a kind of request
+	 */
+	private static class Kind {
+		long[] latencies = new long[0];
+		int count = 0;
+		long bytes = 0;
+		long errors = 0;
+		boolean sorted = false;
+
+		void add(LoadDriver.Recorder recorder) {
+			add(recorder.latencies, recorder.count, recorder.bytes,
+					recorder.errors);
+		}
+
+		void merge(Kind kind) {
+			add(kind.latencies, kind.count, kind.bytes, kind.errors);
+		}
+
+		private void add(long[] more, int n, long moreBytes, long moreErrors) {
+			latencies = Arrays.copyOf(latencies, count + n);
+			System.arraycopy(more, 0, latencies, count, n);
+			count += n;
+			bytes += moreBytes;
+			errors += moreErrors;
+			sorted = false;
+		}
+
+		void sort() {
+			if (!sorted) {
+				Arrays.sort(latencies, 0, count);
+				sorted = true;
+			}
+		}
+
+		/**
+		 * @return the latency in nanoseconds under which p percent of the
+		 *         requests are
+		 */
+		long percentile(int p) {
+			if (count == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(count * p / 100.0) - 1;
+			return latencies[Math.max(0, Math.min(count - 1, index))];
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+
+/**
+ * The load test of the gateway on one box: it starts a MiniDFSCluster, a
+ * MemoryFileSystem or the local disk by backend, writes a tree of huge
+ * directories, big files and small files, deploys the webapp in an
+ * embedded Jetty and drives the mix of requests of perf.conf against it. The report is printed and written in JSON.
+ *
+ * The arguments are key=value settings overriding perf.conf, and
+ * conf.KEY=VALUE settings of the server. With slow-datanode-ms one of the
+ * DataNodes is slow, and with compare-hedged-reads the test is run twice in
+ * new JVMs, without and with hedged reads, and their p99 are compared.
+ */
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		PerfConfig config = new PerfConfig(args);
+		int hedgedReads = config.getInt("compare-hedged-reads");
+		if (hedgedReads > 0) {
+			compareHedgedReads(args, config, hedgedReads);
+			return;
+		}
+		// keep a connection alive for every client
+		System.setProperty("http.maxConnections", config.get("concurrency"));
+
+		File baseDir = new File(config.get("base-dir")).getAbsoluteFile();
+		String backend = config.get("backend");
+		int slowMs = config.getInt("slow-datanode-ms");
+		if (slowMs > 0
+				&& (!backend.equals("hdfs") || config.getInt("datanodes") < 2 || config
+						.getInt("replication") < 2)) {
+			throw new IllegalArgumentException(
+					"slow-datanode-ms needs the hdfs backend, 2 datanodes and replication 2 or more");
+		}
+		Configuration conf = new Configuration();
+		MiniDFSCluster cluster = null;
+		FileSystem fs;
+		URI uri;
+		String base = "";
+		long start = System.currentTimeMillis();
+		if (backend.equals("hdfs")) {
+			conf.set(MiniDFSCluster.HDFS_MINIDFS_BASEDIR, new File(baseDir,
+					"dfs").getPath());
+			int datanodes = config.getInt("datanodes");
+			cluster = new MiniDFSCluster.Builder(conf).numDataNodes(
+					slowMs > 0 ? datanodes - 1 : datanodes).build();
+			if (slowMs > 0) {
+				// the last one, its blocks have a replica on a fast one too
+				Configuration slowConf = new Configuration(conf);
+				SlowDatasetFactory.configure(slowConf, slowMs);
+				cluster.startDataNodes(slowConf, 1, true, null, null);
+			}
+			cluster.waitActive();
+			fs = cluster.getFileSystem();
+			uri = cluster.getURI();
+		} else if (backend.equals("mem")) {
+			// the servlet finds the same tree by its name
+			uri = URI.create(MemoryFileSystem.SCHEME + "://perf/");
+			conf.set("fs." + MemoryFileSystem.SCHEME + ".impl",
+					MemoryFileSystem.class.getName());
+			fs = FileSystem.newInstance(uri, conf);
+		} else if (backend.equals("file")) {
+			uri = URI.create("file:///");
+			base = new File(baseDir, "tree").getPath();
+			fs = FileSystem.getLocal(conf);
+		} else {
+			throw new IllegalArgumentException("unknown backend " + backend);
+		}
+		PerfServer server = null;
+		try {
+			System.out.println("started " + backend + " " + uri + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+
+			start = System.currentTimeMillis();
+			TreeGenerator tree = new TreeGenerator(fs, base,
+					(short) config.getInt("replication"));
+			int files = tree.generate(config);
+			System.out.println("wrote " + files + " files in "
+					+ (System.currentTimeMillis() - start) + " ms");
+
+			server = new PerfServer(config, uri, base.length() == 0 ? "/"
+					: base, baseDir);
+			server.start();
+			LoadDriver driver = new LoadDriver(config, server.getUrl(), tree);
+			System.out.println("serving " + server.getUrl() + ", warmup "
+					+ config.get("warmup-seconds") + " s, measure "
+					+ config.get("duration-seconds") + " s");
+
+			LoadReport report = driver.run();
+			report.print(System.out);
+			File result = new File(config.get("result"));
+			report.write(result, config.getSettings());
+			System.out.println("wrote " + result);
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+			if (cluster != null) {
+				cluster.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * run the test in a new JVM without hedged reads and in another one with
+	 * them, the gateway keeps its settings for the life of a JVM; the results
+	 * are written next to result with the suffixes -unhedged and -hedged,
+	 * and the comparison of their p99 to result
+	 */
+	private static void compareHedgedReads(String[] args, PerfConfig config,
+			int threads) throws Exception {
+		File result = new File(config.get("result")).getAbsoluteFile();
+		String name = result.getName().replaceFirst("\\.json$", "");
+		String[] runs = { "unhedged", "hedged" };
+		File[] results = new File[runs.length];
+		for (int i = 0; i < runs.length; i++) {
+			results[i] = new File(result.getParentFile(), name + "-" + runs[i]
+					+ ".json");
+			runJvm(args, i == 0 ? 0 : threads, results[i]);
+		}
+		LoadReport.compare(System.out, runs, results, result);
+		System.out.println("wrote " + result);
+	}
+
+	private static void runJvm(String[] args, int hedgedReadThreads,
+			File result) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+				.getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean()
+				.getInputArguments());
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(LoadTest.class.getName());
+		command.addAll(Arrays.asList(args));
+		command.add("compare-hedged-reads=0");
+		command.add("conf.hedged-read-threads=" + hedgedReadThreads);
+		command.add("result=" + result.getPath());
+		System.out.println("running with hedged-read-threads "
+				+ hedgedReadThreads);
+		int exit = new ProcessBuilder(command).inheritIO().start().waitFor();
+		if (exit != 0) {
+			throw new IOException("the run with hedged-read-threads "
+					+ hedgedReadThreads + " exited with " + exit);
+		}
+	}
+}
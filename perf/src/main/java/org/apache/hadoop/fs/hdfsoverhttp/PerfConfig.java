@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The settings of the load test: perf.conf overridden by the key=value
+ * arguments. An argument conf.KEY=VALUE is a setting of the server
+ * instead, it is added to the hdfs-over-http.conf of the deployed webapp.
+ */
+public class PerfConfig {
+
+	private static final String CONF_FILE = "perf.conf";
+	private static final String SERVER_PREFIX = "conf.";
+
+	private final Properties props = new Properties();
+	private final Properties serverProps = new Properties();
+
+	/**
+	 * @param args
+	 *            key=value arguments
+	 * @throws IOException
+	 */
+	public PerfConfig(String[] args) throws IOException {
+		InputStream inputStream = PerfConfig.class.getClassLoader()
+				.getResourceAsStream(CONF_FILE);
+		try {
+			props.load(inputStream);
+		} finally {
+			inputStream.close();
+		}
+		for (String arg : args) {
+			int eq = arg.indexOf('=');
+			if (eq <= 0) {
+				throw new IllegalArgumentException("not key=value: " + arg);
+			}
+			String key = arg.substring(0, eq).trim();
+			String value = arg.substring(eq + 1).trim();
+			if (key.startsWith(SERVER_PREFIX)) {
+				serverProps.setProperty(
+						key.substring(SERVER_PREFIX.length()), value);
+			} else if (props.getProperty(key) == null) {
+				throw new IllegalArgumentException("unknown setting " + key);
+			} else {
+				props.setProperty(key, value);
+			}
+		}
+	}
+
+	String get(String key) {
+		return props.getProperty(key).trim();
+	}
+
+	int getInt(String key) {
+		return Integer.parseInt(get(key));
+	}
+
+	/**
+	 * @param key
+	 * @return a size, with an optional suffix k, m or g
+	 */
+	long getSize(String key) {
+		String value = get(key).toLowerCase();
+		long unit = 1;
+		char suffix = value.charAt(value.length() - 1);
+		if (suffix == 'k') {
+			unit = 1L << 10;
+		} else if (suffix == 'm') {
+			unit = 1L << 20;
+		} else if (suffix == 'g') {
+			unit = 1L << 30;
+		}
+		if (unit > 1) {
+			value = value.substring(0, value.length() - 1);
+		}
+		return Long.parseLong(value.trim()) * unit;
+	}
+
+	/**
+	 * @return the weights of the kinds of request, in the order of mix
+	 */
+	LinkedHashMap<String, Integer> getMix() {
+		LinkedHashMap<String, Integer> mix = new LinkedHashMap<String, Integer>();
+		for (String part : get("mix").split(",")) {
+			String[] kv = part.split(":");
+			if (kv.length != 2) {
+				throw new IllegalArgumentException("bad mix " + part);
+			}
+			String kind = kv[0].trim();
+			if (!LoadDriver.isKind(kind)) {
+				throw new IllegalArgumentException("unknown request " + kind);
+			}
+			int weight = Integer.parseInt(kv[1].trim());
+			if (weight > 0) {
+				mix.put(kind, weight);
+			}
+		}
+		if (mix.isEmpty()) {
+			throw new IllegalArgumentException("empty mix");
+		}
+		return mix;
+	}
+
+	/**
+	 * @return all the settings, the ones of the server with their prefix
+	 */
+	Map<String, String> getSettings() {
+		Map<String, String> settings = new TreeMap<String, String>();
+		for (String key : props.stringPropertyNames()) {
+			settings.put(key, get(key));
+		}
+		for (String key : serverProps.stringPropertyNames()) {
+			settings.put(SERVER_PREFIX + key, serverProps.getProperty(key));
+		}
+		return settings;
+	}
+
+	/**
+	 * @return the settings added to the conf of the server
+	 */
+	Properties getServerProps() {
+		return serverProps;
+	}
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.webapp.Configuration;
+import org.eclipse.jetty.webapp.WebAppContext;
+
+/**
+ * The webapp in an embedded Jetty, with FileDownloadServlet and the JSPs
+ * deployed from web.xml like in a container. The webapp is copied and the
+ * copy of hdfs-over-http.conf is pointed to the cluster.
+ */
+public class PerfServer {
+
+	static final String CONTEXT = "/hdfs";
+
+	/**
+	 * the name of the request threads, their allocations are the ones of
+	 * the server
+	 */
+	static final String THREAD_NAME = "http";
+
+	private static final String CONF = "WEB-INF/conf/hdfs-over-http.conf";
+	private static final long READY_TIMEOUT_MS = 60000L;
+	private static final List<String> REPLACED = Arrays.asList("hdfs-uri",
+			"hdfs-namenodes", "root-dir", "mounts");
+
+	private final Server server;
+	private final ServerConnector connector;
+
+	/**
+	 * @param config
+	 * @param hdfsUri
+	 *            the URI of the cluster
+	 * @param rootDir
+	 *            the served directory of the cluster
+	 * @param workDir
+	 *            the directory of the copy of the webapp
+	 * @throws IOException
+	 */
+	public PerfServer(PerfConfig config, URI hdfsUri, String rootDir,
+			File workDir)
+			throws IOException {
+		File webapp = new File(workDir, "webapp");
+		copy(new File(config.get("webapp")), webapp);
+		writeConf(new File(webapp, CONF), hdfsUri, rootDir,
+				config.getServerProps());
+
+		int threads = config.getInt("server-threads");
+		QueuedThreadPool pool = new QueuedThreadPool(threads, threads);
+		pool.setName(THREAD_NAME);
+		server = new Server(pool);
+		connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		server.addConnector(connector);
+
+		// find the JSP initializer of apache-jsp on the class path
+		Configuration.ClassList classList = Configuration.ClassList
+				.setServerDefault(server);
+		classList.addBefore("org.eclipse.jetty.webapp.JettyWebXmlConfiguration",
+				"org.eclipse.jetty.annotations.AnnotationConfiguration");
+		WebAppContext context = new WebAppContext();
+		context.setContextPath(CONTEXT);
+		context.setWar(webapp.getAbsolutePath());
+		context.setParentLoaderPriority(true);
+		context.setAttribute(
+				"org.eclipse.jetty.server.webapp.ContainerIncludeJarPattern",
+				".*/[^/]*servlet-api-[^/]*\\.jar$|.*/apache-jsp-[^/]*\\.jar$");
+		server.setHandler(context);
+	}
+
+	/**
+	 * start the server and wait until its ready-path answers 200, the
+	 * clusters are connected in the background
+	 */
+	void start() throws Exception {
+		server.start();
+		URL ready = new URL(getUrl() + "/.ready");
+		long deadline = System.currentTimeMillis() + READY_TIMEOUT_MS;
+		while (true) {
+			HttpURLConnection connection = (HttpURLConnection) ready
+					.openConnection();
+			int status = connection.getResponseCode();
+			connection.disconnect();
+			if (status == HttpURLConnection.HTTP_OK) {
+				return;
+			}
+			if (System.currentTimeMillis() > deadline) {
+				throw new IOException(getUrl() + " isn't ready after "
+						+ READY_TIMEOUT_MS + " ms");
+			}
+			Thread.sleep(100);
+		}
+	}
+
+	void stop() throws Exception {
+		server.stop();
+	}
+
+	/**
+	 * @return the URL of the webapp
+	 */
+	String getUrl() {
+		return "http://127.0.0.1:" + connector.getLocalPort() + CONTEXT;
+	}
+
+	/**
+	 * copy a directory tree
+	 */
+	private static void copy(final File from, final File to)
+			throws IOException {
+		if (!new File(from, CONF).isFile()) {
+			throw new IOException(from + " isn't the webapp");
+		}
+		Files.walkFileTree(from.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(to.toPath().resolve(
+						from.toPath().relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				Files.copy(file,
+						to.toPath().resolve(from.toPath().relativize(file)),
+						StandardCopyOption.REPLACE_EXISTING);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * point the conf to the cluster and add the settings of the test
+	 */
+	private static void writeConf(File conf, URI hdfsUri, String rootDir,
+			Properties settings) throws IOException {
+		Charset charset = Charset.forName("ISO-8859-1");
+		ArrayList<String> lines = new ArrayList<String>();
+		for (String line : Files.readAllLines(conf.toPath(), charset)) {
+			String key = line.split("=", 2)[0].trim();
+			if (!REPLACED.contains(key) && settings.getProperty(key) == null) {
+				lines.add(line);
+			}
+		}
+		lines.add("hdfs-uri = " + hdfsUri);
+		lines.add("root-dir = " + rootDir);
+		for (String key : settings.stringPropertyNames()) {
+			lines.add(key + " = " + settings.getProperty(key));
+		}
+		Files.write(conf.toPath(), lines, charset);
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataStorage;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetFactory;
+
+/**
+ * The storage of a slow DataNode: the blocks are the ones of the default
+ * storage, but every read of a block waits DELAY_KEY ms before it starts,
+ * like a DataNode with a busy disk. It is set on the configuration of one
+ * DataNode of the MiniDFSCluster only.
+ */
+public class SlowDatasetFactory extends FsDatasetSpi.Factory<FsDatasetSpi<?>> {
+
+	static final String DELAY_KEY = "perf.slow-datanode.delay-ms";
+
+	/**
+	 * make a DataNode started with the configuration slow
+	 *
+	 * @param conf
+	 * @param delayMs
+	 *            the wait before every read of a block
+	 */
+	static void configure(Configuration conf, long delayMs) {
+		conf.setClass(DFSConfigKeys.DFS_DATANODE_FSDATASET_FACTORY_KEY,
+				SlowDatasetFactory.class, FsDatasetSpi.Factory.class);
+		conf.setLong(DELAY_KEY, delayMs);
+	}
+
+	@Override
+	public FsDatasetSpi<?> newInstance(DataNode datanode, DataStorage storage,
+			Configuration conf) throws IOException {
+		final FsDatasetSpi<?> dataset = new FsDatasetFactory().newInstance(
+				datanode, storage, conf);
+		final long delayMs = conf.getLong(DELAY_KEY, 0);
+		return (FsDatasetSpi<?>) Proxy.newProxyInstance(
+				FsDatasetSpi.class.getClassLoader(),
+				new Class<?>[] { FsDatasetSpi.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("getBlockInputStream")) {
+							Thread.sleep(delayMs);
+						}
+						try {
+							return method.invoke(dataset, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+}
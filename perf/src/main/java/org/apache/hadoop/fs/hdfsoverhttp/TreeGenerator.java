@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Writes the tree the load test reads: a directory of huge-dir-entries
+ * empty files, big-files files of big-file-size and small-dirs
+ * directories of small-files files of small-file-size. The files are
+ * written by several threads, a cluster on one box is faster with them.
+ */
+public class TreeGenerator {
+
+	static final String ROOT = "/perf";
+	static final String HUGE_DIR = ROOT + "/huge";
+	static final String BIG_DIR = ROOT + "/big";
+	static final String SMALL_DIR = ROOT + "/small";
+
+	private static final int THREADS = 8;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final FileSystem fs;
+	private final String base;
+	private final short replication;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private final ArrayList<String> bigFiles = new ArrayList<String>();
+	private final ArrayList<String> smallFiles = new ArrayList<String>();
+	private long bigFileSize;
+
+	/**
+	 * @param fs
+	 * @param base
+	 *            the directory of fs the tree is written under, the served
+	 *            root-dir
+	 * @param replication
+	 */
+	public TreeGenerator(FileSystem fs, String base, short replication) {
+		this.fs = fs;
+		this.base = base;
+		this.replication = replication;
+		new Random(1).nextBytes(buffer);
+	}
+
+	/**
+	 * write the tree
+	 *
+	 * @param config
+	 * @return the number of files
+	 * @throws IOException
+	 */
+	int generate(PerfConfig config) throws IOException {
+		bigFileSize = config.getSize("big-file-size");
+		int hugeEntries = config.getInt("huge-dir-entries");
+		int bigCount = config.getInt("big-files");
+		int smallDirs = config.getInt("small-dirs");
+		int smallCount = config.getInt("small-files");
+		long smallSize = config.getSize("small-file-size");
+
+		fs.mkdirs(new Path(base + HUGE_DIR));
+		fs.mkdirs(new Path(base + BIG_DIR));
+		fs.mkdirs(new Path(base + SMALL_DIR));
+		ExecutorService pool = ThreadPools.newFixedPool("tree", THREADS);
+		ArrayList<Future<?>> writes = new ArrayList<Future<?>>();
+		for (int i = 0; i < bigCount; i++) {
+			String path = BIG_DIR + "/big-" + i + ".bin";
+			bigFiles.add(path);
+			writes.add(pool.submit(new Write(path, bigFileSize)));
+		}
+		for (int d = 0; d < smallDirs; d++) {
+			for (int i = 0; i < smallCount; i++) {
+				String path = SMALL_DIR + "/dir-" + d + "/file-" + i + ".txt";
+				smallFiles.add(path);
+				writes.add(pool.submit(new Write(path, smallSize)));
+			}
+		}
+		for (int i = 0; i < hugeEntries; i++) {
+			writes.add(pool.submit(new Write(String.format(HUGE_DIR
+					+ "/entry-%08d.log", i), 0)));
+		}
+		try {
+			for (Future<?> write : writes) {
+				write.get();
+			}
+		} catch (Exception e) {
+			throw new IOException("write the tree error", e);
+		} finally {
+			pool.shutdownNow();
+		}
+		return writes.size();
+	}
+
+	ArrayList<String> getBigFiles() {
+		return bigFiles;
+	}
+
+	long getBigFileSize() {
+		return bigFileSize;
+	}
+
+	ArrayList<String> getSmallFiles() {
+		return smallFiles;
+	}
+
+	/**
+	 * write a file of the given size from the buffer
+	 */
+	private class Write implements Callable<Void> {
+		private final String path;
+		private final long size;
+
+		Write(String path, long size) {
+			this.path = path;
+			this.size = size;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			Path file = new Path(base + path);
+			FSDataOutputStream out = fs.create(file, true, BUFFER_SIZE,
+					replication, fs.getDefaultBlockSize(file));
+			try {
+				long left = size;
+				while (left > 0) {
+					int n = (int) Math.min(left, BUFFER_SIZE);
+					out.write(buffer, 0, n);
+					left -= n;
+				}
+			} finally {
+				out.close();
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The access log, one JSON object per request with its status, size and
+ * the timing of its phases.
+ *
+ * A request thread builds its line in a reused buffer and only offers it
+ * to a bounded queue, a single writer thread appends the lines to
+ * access-log and flushes when the queue is empty. A line is dropped and
+ * counted when the queue is full, so a slow disk never holds a request.
+ * After a write error the file is opened again every second and the
+ * lines not written are kept, the new ones wait in the queue meanwhile.
+ */
+public class AccessLog implements Runnable {
+
+	static Logger log = Logger.getLogger(AccessLog.class);
+
+	private static final int QUEUE_SIZE = 8192;
+	private static final int MAX_BUFFER = 16 * 1024;
+	private static final long RETRY_MS = 1000L;
+
+	private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(512);
+		}
+	};
+	private static final AtomicLong dropped = Metrics.counter(
+			"hdfsoverhttp_access_log_dropped_total", null);
+	private static ArrayBlockingQueue<String> queue = null;
+
+	private final String file;
+
+	private AccessLog(String file) {
+		this.file = file;
+	}
+
+	private static synchronized ArrayBlockingQueue<String> getQueue() {
+		if (queue == null) {
+			queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+			ThreadPools.newThreadFactory("access-log")
+					.newThread(new AccessLog(SysConfig.ACCESS_LOG)).start();
+		}
+		return queue;
+	}
+
+	/**
+	 * log a finished request
+	 *
+	 * @param method
+	 * @param uri
+	 * @param remoteAddr
+	 * @param endpoint
+	 * @param status
+	 * @param bytes
+	 *            the bytes of the body
+	 * @param firstByteNanos
+	 *            the time to the first byte of the body, -1 if none was
+	 *            sent
+	 * @param elapsedNanos
+	 *            the time to serve the request
+	 * @param timing
+	 */
+	static void log(String method, String uri, String remoteAddr,
+			String endpoint, int status, long bytes, long firstByteNanos,
+			long elapsedNanos, RequestTiming timing) {
+		if (SysConfig.ACCESS_LOG.length() == 0) {
+			return;
+		}
+		StringBuilder line = buffers.get();
+		line.setLength(0);
+		line.append("{\"time\":").append(System.currentTimeMillis());
+		line.append(",\"method\":\"").append(method).append('"');
+		line.append(",\"uri\":");
+		appendString(line, uri);
+		line.append(",\"remote\":\"").append(remoteAddr).append('"');
+		line.append(",\"endpoint\":\"").append(endpoint).append('"');
+		line.append(",\"status\":").append(status);
+		line.append(",\"bytes\":").append(bytes);
+		line.append(",\"ttfb\":").append(
+				firstByteNanos < 0 ? -1 : firstByteNanos / 1000000);
+		line.append(",\"total\":").append(elapsedNanos / 1000000);
+		timing.appendJson(line);
+		line.append("}\n");
+		if (!getQueue().offer(line.toString())) {
+			dropped.incrementAndGet();
+		}
+		if (line.capacity() > MAX_BUFFER) {
+			// don't keep the buffer of a huge line
+			buffers.remove();
+		}
+	}
+
+	/**
+	 * append a JSON string
+	 */
+	private static void appendString(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	@Override
+	public void run() {
+		// the lines taken from the queue and not written yet, they are
+		// written again after an error
+		StringBuilder batch = new StringBuilder();
+		Writer out = null;
+		boolean failing = false;
+		while (true) {
+			try {
+				if (batch.length() == 0) {
+					batch.append(queue.take());
+					String line;
+					while ((line = queue.poll()) != null) {
+						batch.append(line);
+					}
+				}
+				if (out == null) {
+					out = new BufferedWriter(new OutputStreamWriter(
+							new FileOutputStream(file, true), "UTF-8"),
+							64 * 1024);
+				}
+				out.append(batch);
+				out.flush();
+				batch.setLength(0);
+				if (failing) {
+					failing = false;
+					log.info("access log " + file + " is written again");
+				}
+			} catch (IOException e) {
+				if (!failing) {
+					failing = true;
+					log.error("write access log " + file
+							+ " error, retry every " + RETRY_MS + " ms", e);
+				}
+				close(out);
+				out = null;
+				try {
+					Thread.sleep(RETRY_MS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close(out);
+				return;
+			}
+		}
+	}
+
+	private void close(Writer out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				log.warn("close access log " + file + " error", e);
+			}
+		}
+	}
+}
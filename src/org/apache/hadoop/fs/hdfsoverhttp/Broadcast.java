@@ -0,0 +1,401 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.log4j.Logger;
+
+/**
+ * One HDFS reader shared by the concurrent downloads of the same file.
+ *
+ * The first download of a file version starts a reader which fills a ring
+ * of chunks, the downloads starting while the first chunk is still in the
+ * ring attach to it. The reader runs at most a ring ahead of the fastest
+ * download; a download falling more than a ring behind, or joining too
+ * late, continues with its own reader from its offset, so a slow client
+ * never holds back the others.
+ *
+ * The downloads and the reader wait on a lock rather than a monitor, a
+ * virtual thread waiting in Object.wait() would stay pinned to its
+ * carrier.
+ */
+public class Broadcast implements Runnable {
+
+	static Logger log = Logger.getLogger(Broadcast.class);
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static ExecutorService readers = null;
+	private static final HashMap<String, Broadcast> running = new HashMap<String, Broadcast>();
+	private static final AtomicLong attached = new AtomicLong();
+	private static final AtomicLong fallbacks = new AtomicLong();
+
+	private final FileSystem dfs;
+	private final FileStatus fileStatus;
+	private final String key;
+	private final long chunks;
+	private final byte[][] ring;
+	// the number of chunks read into the ring
+	private long produced = 0;
+	// the reader has stopped before the end of the file
+	private boolean stopped = false;
+	private boolean finished = false;
+	private final List<Consumer> consumers = new ArrayList<Consumer>();
+	private final ReentrantLock lock = new ReentrantLock();
+	// signalled when a chunk is produced, a download advances or leaves
+	private final Condition changed = lock.newCondition();
+
+	/**
+	 * a download reading from the ring
+	 */
+	private static class Consumer {
+		// the next chunk to send
+		private long pos = 0;
+	}
+
+	private Broadcast(FileSystem dfs, FileStatus fileStatus, String key) {
+		this.dfs = dfs;
+		this.fileStatus = fileStatus;
+		this.key = key;
+		this.chunks = (fileStatus.getLen() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		this.ring = new byte[Math.max(1, Tunables.get().broadcastRingChunks)][];
+	}
+
+	private static synchronized ExecutorService getReaders() {
+		if (readers == null) {
+			readers = ThreadPools.newFixedPool("broadcast",
+					Tunables.get().broadcastMax);
+		}
+		return readers;
+	}
+
+	/**
+	 * apply the number of broadcasts of changed tunables, the running
+	 * broadcasts finish with their ring
+	 */
+	static synchronized void tune(Tunables tunables) {
+		if (readers != null) {
+			ThreadPools.resize(readers, tunables.broadcastMax);
+		}
+	}
+
+	/**
+	 * send a file, sharing the reader with the other downloads of the same
+	 * version of the file
+	 *
+	 * @param dfs
+	 * @param fileStatus
+	 * @param ostream
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	static void copy(FileSystem dfs, FileStatus fileStatus,
+			OutputStream ostream) throws IOException {
+		Consumer consumer = new Consumer();
+		Broadcast broadcast = attach(dfs, fileStatus, consumer);
+		if (broadcast == null) {
+			fallbacks.incrementAndGet();
+			copyFrom(dfs, fileStatus, ostream, 0);
+			return;
+		}
+		attached.incrementAndGet();
+		try {
+			while (consumer.pos < broadcast.chunks) {
+				byte[] chunk = broadcast.take(consumer);
+				if (chunk == null) {
+					// overtaken by the reader, continue alone
+					fallbacks.incrementAndGet();
+					long offset = consumer.pos * CHUNK_SIZE;
+					broadcast.detach(consumer);
+					copyFrom(dfs, fileStatus, ostream, offset);
+					return;
+				}
+				try {
+					ostream.write(chunk);
+				} catch (IOException e) {
+					Metrics.CLIENT_ABORTS.incrementAndGet();
+					log.warn("write file " + fileStatus.getPath()
+							+ " be aborted \n"
+							+ "ClientAbortException:  java.net.SocketException: ",
+							e);
+					return;
+				}
+				broadcast.advance(consumer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			broadcast.detach(consumer);
+		}
+	}
+
+	/**
+	 * attach to the broadcast of a file version, it is started if there is
+	 * none
+	 *
+	 * @return the broadcast or null if it can't be joined from the start
+	 *         and too many broadcasts are running
+	 */
+	private static Broadcast attach(FileSystem dfs, FileStatus fileStatus,
+			Consumer consumer) {
+		String key = fileStatus.getPath().toString() + "|"
+				+ Range.getETag(fileStatus);
+		synchronized (running) {
+			Broadcast broadcast = running.get(key);
+			if (broadcast != null && broadcast.join(consumer)) {
+				return broadcast;
+			}
+			if (broadcast != null
+					|| running.size() >= Tunables.get().broadcastMax) {
+				return null;
+			}
+			broadcast = new Broadcast(dfs, fileStatus, key);
+			broadcast.join(consumer);
+			running.put(key, broadcast);
+			getReaders().execute(broadcast);
+			return broadcast;
+		}
+	}
+
+	/**
+	 * join a download if the first chunk is still in the ring
+	 */
+	private boolean join(Consumer consumer) {
+		lock.lock();
+		try {
+			if (stopped || produced > ring.length) {
+				return false;
+			}
+			consumers.add(consumer);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void detach(Consumer consumer) {
+		lock.lock();
+		try {
+			if (consumers.remove(consumer)) {
+				changed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * wait for the next chunk of a download
+	 *
+	 * @return the chunk or null if it was overwritten or can't be read
+	 */
+	private byte[] take(Consumer consumer) throws InterruptedException {
+		lock.lock();
+		try {
+			while (consumer.pos >= produced && !stopped) {
+				changed.await();
+			}
+			if (consumer.pos >= produced
+					|| consumer.pos < produced - ring.length) {
+				return null;
+			}
+			return ring[(int) (consumer.pos % ring.length)];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void advance(Consumer consumer) {
+		lock.lock();
+		try {
+			consumer.pos++;
+			// the reader waits for the fastest download
+			if (produced - consumer.pos < ring.length) {
+				changed.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the next chunk of the fastest download, -1 if no download is
+	 *         attached
+	 */
+	private long fastest() {
+		long max = -1;
+		for (Consumer consumer : consumers) {
+			max = Math.max(max, consumer.pos);
+		}
+		return max;
+	}
+
+	@Override
+	public void run() {
+		FSDataInputStream is = null;
+		try {
+			Metrics.OPEN.incrementAndGet();
+			is = dfs.open(fileStatus.getPath());
+			long remaining = fileStatus.getLen();
+			while (remaining > 0) {
+				lock.lock();
+				try {
+					long fastest;
+					while ((fastest = fastest()) >= 0
+							&& produced - fastest >= ring.length) {
+						changed.await();
+					}
+					if (fastest < 0) {
+						// all downloads are gone
+						stopped = true;
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+				byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, remaining)];
+				is.readFully(chunk);
+				remaining -= chunk.length;
+				lock.lock();
+				try {
+					ring[(int) (produced % ring.length)] = chunk;
+					produced++;
+					changed.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+			lock.lock();
+			try {
+				finished = true;
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException e) {
+			log.error("broadcast of " + fileStatus.getPath() + " error ", e);
+			fail();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fail();
+		} finally {
+			synchronized (running) {
+				running.remove(key);
+			}
+			if (is != null) {
+				try {
+					is.close();
+				} catch (IOException e) {
+					log.warn("close " + fileStatus.getPath() + " error", e);
+				}
+			}
+			log.debug("broadcast of " + fileStatus.getPath() + " ends after "
+					+ produced + " of " + chunks + " chunks, finished "
+					+ finished);
+		}
+	}
+
+	private void fail() {
+		lock.lock();
+		try {
+			stopped = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * send a file from an offset with an own reader
+	 *
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private static void copyFrom(FileSystem dfs, FileStatus fileStatus,
+			OutputStream ostream, long offset) throws IOException {
+		Metrics.OPEN.incrementAndGet();
+		FSDataInputStream is = dfs.open(fileStatus.getPath());
+		StreamParking parking = new StreamParking();
+		try {
+			is.seek(offset);
+			byte[] buffer = new byte[CHUNK_SIZE];
+			long remaining = fileStatus.getLen() - offset;
+			int bytesToRead;
+			while (remaining > 0) {
+				long start = System.nanoTime();
+				bytesToRead = is.read(buffer, 0,
+						(int) Math.min(buffer.length, remaining));
+				parking.read(System.nanoTime() - start);
+				if (bytesToRead == -1) {
+					break;
+				}
+				remaining -= bytesToRead;
+				start = System.nanoTime();
+				try {
+					ostream.write(buffer, 0, bytesToRead);
+				} catch (IOException e) {
+					Metrics.CLIENT_ABORTS.incrementAndGet();
+					log.warn("write file " + fileStatus.getPath()
+							+ " be aborted \n"
+							+ "ClientAbortException:  java.net.SocketException: ",
+							e);
+					return;
+				}
+				parking.wrote(System.nanoTime() - start);
+				if (parking.shouldPark()) {
+					is.close();
+					is = null;
+					StreamParking.copyParked(dfs, fileStatus, ostream,
+							fileStatus.getLen() - remaining, remaining);
+					return;
+				}
+			}
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of downloads which were served from a shared ring
+	 */
+	static long getAttached() {
+		return attached.get();
+	}
+
+	/**
+	 * @return the number of downloads which used their own reader
+	 */
+	static long getFallbacks() {
+		return fallbacks.get();
+	}
+}
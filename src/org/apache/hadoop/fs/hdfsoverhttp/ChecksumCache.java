@@ -0,0 +1,112 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+
+/**
+ * LRU cache of file checksums. Entries are keyed by path and ETag so a
+ * rewritten file never returns the checksum of its previous version. A
+ * full cache admits a checksum only if its file is requested more often
+ * than the least recently used one, by HotPaths.
+ */
+public class ChecksumCache {
+
+	private final LinkedHashMap<String, Entry> cache;
+	private int capacity;
+
+	private static class Entry {
+		final String target;
+		final FileChecksum checksum;
+
+		Entry(String target, FileChecksum checksum) {
+			this.target = target;
+			this.checksum = checksum;
+		}
+	}
+
+	public ChecksumCache(int capacity) {
+		this.capacity = capacity;
+		cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > ChecksumCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * change the number of cached checksums, the least recently used ones
+	 * are dropped when it is lowered
+	 *
+	 * @param capacity
+	 */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = capacity;
+		Iterator<String> keys = cache.keySet().iterator();
+		while (cache.size() > capacity && keys.hasNext()) {
+			keys.next();
+			keys.remove();
+		}
+	}
+
+	/**
+	 * get the cached checksum of a file
+	 *
+	 * @param fileStatus
+	 * @return checksum or null if it is not cached
+	 */
+	public synchronized FileChecksum get(FileStatus fileStatus) {
+		Entry entry = cache.get(key(fileStatus));
+		return entry == null ? null : entry.checksum;
+	}
+
+	/**
+	 * cache the checksum of a file
+	 *
+	 * @param target
+	 *            the URL path of the file
+	 * @param fileStatus
+	 * @param checksum
+	 */
+	public synchronized void put(String target, FileStatus fileStatus,
+			FileChecksum checksum) {
+		String key = key(fileStatus);
+		if (cache.size() >= capacity && !cache.containsKey(key)
+				&& !cache.isEmpty()) {
+			Entry victim = cache.values().iterator().next();
+			if (!HotPaths.admit(target, victim.target)) {
+				return;
+			}
+		}
+		cache.put(key, new Entry(target, checksum));
+	}
+
+	private static String key(FileStatus fileStatus) {
+		return fileStatus.getPath().toUri().getPath() + "|"
+				+ Range.getETag(fileStatus);
+	}
+}
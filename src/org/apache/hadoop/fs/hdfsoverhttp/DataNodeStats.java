@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSHedgedReadMetrics;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.log4j.Logger;
+
+/**
+ * Read latency of the DataNodes as seen by the copy loops, and the
+ * counters of the hedged reads of the DFS client.
+ *
+ * A copy times every read of its stream and charges it to the DataNode
+ * the stream is reading from. A positional read, of the hedged read and
+ * the virtual thread modes, doesn't move the stream, it is charged to the
+ * first DataNode of the block at its position, the one the DFS client
+ * tries first; a hedged read which was answered by another replica is
+ * still charged to it, so a slow DataNode shows up. The block is looked
+ * up in the locations the DFS client fetched for the read, without a
+ * call to the NameNode. A read slower than slow-read-threshold is logged
+ * with its request and DataNode, and the DataNodes with recent slow reads
+ * are listed as slow nodes.
+ */
+public class DataNodeStats implements DataNodeStatsMBean {
+
+	static Logger log = Logger.getLogger(DataNodeStats.class);
+
+	/**
+	 * a DataNode stays in the slow list this long after its last slow read
+	 */
+	private static final long SLOW_NODE_WINDOW_MS = 10 * 60 * 1000L;
+	private static final double EWMA_WEIGHT = 0.2;
+
+	private static final DataNodeStats instance = new DataNodeStats();
+	private static volatile DFSHedgedReadMetrics hedgedReadMetrics = null;
+	// the block locations cached by a DFS stream, private in Hadoop 2.6
+	private static final Field LOCATED_BLOCKS = getLocatedBlocksField();
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+					new ObjectName("hdfsoverhttp:type=DataNodeStats"));
+		} catch (Exception e) {
+			log.warn("register mbean of datanode stats error", e);
+		}
+	}
+
+	private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<String, Node>();
+
+	/**
+	 * the reads of a DataNode
+	 */
+	private static class Node {
+		private final String name;
+		private long reads = 0;
+		private long bytes = 0;
+		private long nanos = 0;
+		private long slowReads = 0;
+		private long maxReadMillis = 0;
+		private long lastSlowMillis = 0;
+		private double ewmaMBps = -1;
+
+		Node(String name) {
+			this.name = name;
+		}
+
+		synchronized void add(long reads, long bytes, long nanos,
+				long slowReads, long maxReadMillis) {
+			this.reads += reads;
+			this.bytes += bytes;
+			this.nanos += nanos;
+			if (slowReads > 0) {
+				this.slowReads += slowReads;
+				this.lastSlowMillis = System.currentTimeMillis();
+			}
+			this.maxReadMillis = Math.max(this.maxReadMillis, maxReadMillis);
+			if (nanos > 0) {
+				double mbps = bytes * 1000.0 / nanos;
+				ewmaMBps = ewmaMBps < 0 ? mbps : ewmaMBps * (1 - EWMA_WEIGHT)
+						+ mbps * EWMA_WEIGHT;
+			}
+		}
+
+		synchronized String describe() {
+			return name + " reads=" + reads + " bytes=" + bytes
+					+ " MB/s=" + String.format("%.1f", ewmaMBps)
+					+ " slowReads=" + slowReads + " maxReadMs="
+					+ maxReadMillis;
+		}
+
+		synchronized boolean isSlow(long now) {
+			return lastSlowMillis > 0
+					&& now - lastSlowMillis < SLOW_NODE_WINDOW_MS;
+		}
+
+		synchronized long getSlowReads() {
+			return slowReads;
+		}
+	}
+
+	private DataNodeStats() {
+	}
+
+	static DataNodeStats getInstance() {
+		return instance;
+	}
+
+	private static Field getLocatedBlocksField() {
+		try {
+			Field field = DFSInputStream.class
+					.getDeclaredField("locatedBlocks");
+			field.setAccessible(true);
+			return field;
+		} catch (Exception e) {
+			log.warn("positional reads are charged to an unknown DataNode: "
+					+ e);
+			return null;
+		}
+	}
+
+	/**
+	 * get the hedged read counters of the DFS client of a file system. They
+	 * are shared by all DFS clients of the JVM and their getter isn't
+	 * public in Hadoop 2.6, so it is called by reflection.
+	 *
+	 * @param fs
+	 */
+	static void register(FileSystem fs) {
+		if (hedgedReadMetrics != null
+				|| !(fs instanceof DistributedFileSystem)) {
+			return;
+		}
+		try {
+			Method getter = DFSClient.class
+					.getDeclaredMethod("getHedgedReadMetrics");
+			getter.setAccessible(true);
+			hedgedReadMetrics = (DFSHedgedReadMetrics) getter
+					.invoke(((DistributedFileSystem) fs).getClient());
+		} catch (Exception e) {
+			log.warn("can't get hedged read metrics", e);
+		}
+	}
+
+	/**
+	 * start timing the reads of a stream
+	 *
+	 * @param is
+	 * @param path
+	 *            the file, for the log
+	 * @return timer of the reads
+	 */
+	static Tracker track(FSDataInputStream is, Path path) {
+		return new Tracker(is, path);
+	}
+
+	/**
+	 * times the reads of one stream, the reads are summed per DataNode and
+	 * added to the stats when the DataNode changes or the copy ends
+	 */
+	static class Tracker {
+		private final HdfsDataInputStream is;
+		private final Path path;
+		private final long slowMs = Tunables.get().slowReadThresholdMs;
+		private final long slowNanos = slowMs * 1000000L;
+		private String node = null;
+		private long reads = 0;
+		private long bytes = 0;
+		private long nanos = 0;
+		private long slowReads = 0;
+		private long maxNanos = 0;
+		private String slowestNode = null;
+		private long slowestNanos = 0;
+		private long totalSlowReads = 0;
+		private final long[] latency = Metrics.Histogram.newLocal();
+		private long latencyNanos = 0;
+		private boolean first = true;
+		private long start;
+
+		Tracker(FSDataInputStream is, Path path) {
+			this.is = is instanceof HdfsDataInputStream ? (HdfsDataInputStream) is
+					: null;
+			this.path = path;
+		}
+
+		void start() {
+			start = System.nanoTime();
+		}
+
+		/**
+		 * @param n
+		 *            the result of the read
+		 * @param position
+		 *            the position of a positional read, -1 for a read of
+		 *            the stream
+		 * @return the time of the read in nanoseconds
+		 */
+		long stop(int n, long position) {
+			long elapsed = System.nanoTime() - start;
+			latency[Metrics.Histogram.bucket(elapsed)]++;
+			latencyNanos += elapsed;
+			if (first) {
+				first = false;
+				RequestTiming.firstRead(elapsed);
+			}
+			if (is == null) {
+				return elapsed;
+			}
+			// a positional read doesn't move the current DataNode
+			DatanodeInfo current = position < 0 ? is.getCurrentDatanode()
+					: getDatanode(position);
+			String name = current == null ? "unknown" : current.getXferAddr();
+			if (!name.equals(node)) {
+				flush();
+				node = name;
+			}
+			reads++;
+			bytes += Math.max(n, 0);
+			nanos += elapsed;
+			maxNanos = Math.max(maxNanos, elapsed);
+			if (elapsed > slowNanos) {
+				slowReads++;
+				totalSlowReads++;
+				if (elapsed > slowestNanos) {
+					slowestNanos = elapsed;
+					slowestNode = name;
+				}
+			}
+			return elapsed;
+		}
+
+		/**
+		 * @return the first location of the block at a position, from the
+		 *         locations the stream fetched for the read, or null
+		 */
+		private DatanodeInfo getDatanode(long position) {
+			Object stream = is.getWrappedStream();
+			if (LOCATED_BLOCKS == null || !(stream instanceof DFSInputStream)) {
+				return null;
+			}
+			try {
+				// the stream updates its locations under its own lock
+				synchronized (stream) {
+					LocatedBlocks blocks = (LocatedBlocks) LOCATED_BLOCKS
+							.get(stream);
+					int index = blocks == null ? -1 : blocks
+							.findBlock(position);
+					if (index < 0) {
+						return null;
+					}
+					DatanodeInfo[] locations = blocks.get(index)
+							.getLocations();
+					return locations.length > 0 ? locations[0] : null;
+				}
+			} catch (IllegalAccessException e) {
+				return null;
+			}
+		}
+
+		private void flush() {
+			if (node != null && reads > 0) {
+				Node stats = instance.nodes.get(node);
+				if (stats == null) {
+					Node created = new Node(node);
+					stats = instance.nodes.putIfAbsent(node, created);
+					if (stats == null) {
+						stats = created;
+					}
+				}
+				stats.add(reads, bytes, nanos, slowReads, maxNanos / 1000000);
+			}
+			reads = 0;
+			bytes = 0;
+			nanos = 0;
+			slowReads = 0;
+			maxNanos = 0;
+		}
+
+		/**
+		 * add the last reads to the stats and the read latency histogram,
+		 * and log the slow reads of the request
+		 */
+		void close() {
+			flush();
+			Metrics.HDFS_READ.add(latency, latencyNanos);
+			if (totalSlowReads > 0) {
+				log.warn("slow read of " + path + ": " + totalSlowReads
+						+ " reads over " + slowMs
+						+ " ms, the slowest took " + slowestNanos / 1000000
+						+ " ms from " + slowestNode);
+			}
+		}
+	}
+
+	@Override
+	public long getHedgedReadOps() {
+		DFSHedgedReadMetrics metrics = hedgedReadMetrics;
+		return metrics == null ? 0 : metrics.getHedgedReadOps();
+	}
+
+	@Override
+	public long getHedgedReadWins() {
+		DFSHedgedReadMetrics metrics = hedgedReadMetrics;
+		return metrics == null ? 0 : metrics.getHedgedReadWins();
+	}
+
+	@Override
+	public long getHedgedReadOpsInCurThread() {
+		DFSHedgedReadMetrics metrics = hedgedReadMetrics;
+		return metrics == null ? 0 : metrics.getHedgedReadOpsInCurThread();
+	}
+
+	@Override
+	public String[] getSlowNodes() {
+		long now = System.currentTimeMillis();
+		List<Node> slow = new ArrayList<Node>();
+		for (Node node : nodes.values()) {
+			if (node.isSlow(now)) {
+				slow.add(node);
+			}
+		}
+		Collections.sort(slow, new Comparator<Node>() {
+			@Override
+			public int compare(Node a, Node b) {
+				long x = a.getSlowReads();
+				long y = b.getSlowReads();
+				return x > y ? -1 : x < y ? 1 : 0;
+			}
+		});
+		String[] result = new String[slow.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = slow.get(i).describe();
+		}
+		return result;
+	}
+
+	@Override
+	public String[] getNodes() {
+		List<String> result = new ArrayList<String>();
+		for (Node node : nodes.values()) {
+			result.add(node.describe());
+		}
+		Collections.sort(result);
+		return result.toArray(new String[result.size()]);
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The pages of the 404 and 500 errors, the pages err404.jsp and err500.jsp
+ * used to render.
+ */
+public class ErrorPageServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected void service(HttpServletRequest request,
+			HttpServletResponse response) throws ServletException, IOException {
+		Object status = request
+				.getAttribute(RequestDispatcher.ERROR_STATUS_CODE);
+		response.setContentType("text/html;charset=ISO-8859-1");
+		PrintWriter out = response.getWriter();
+		out.print("<!DOCTYPE HTML PUBLIC \"-//IETF//DTD HTML 2.0//EN\">\n<html><head>\n");
+		if (Integer.valueOf(HttpServletResponse.SC_NOT_FOUND).equals(status)) {
+			Object url = request.getAttribute("originalurl");
+			out.print("<title>404 Not Found</title>\n</head><body>\n<h1>Not Found</h1>\n<p>The requested URL ");
+			out.print(url == null ? "" : url);
+			out.print(" was not found on this server.</p>\n</body></html>");
+		} else {
+			out.print("<title>500 Internal Server Error</title>\n</head><body>\n<h1>Internal Server Error</h1>\n<p>\n    The server encountered an internal error and was \n    unable to complete your request.\n</p>\n</body>\n</html>");
+		}
+	}
+}
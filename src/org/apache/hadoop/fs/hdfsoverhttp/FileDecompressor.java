@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.log4j.Logger;
+
+/**
+ * Streams the decoded contents of a file compressed by a Hadoop codec.
+ *
+ * The decompressors are borrowed from CodecPool. A large file of a
+ * splittable codec (bzip2) is split at block boundaries and the parts are
+ * decoded in parallel. Like LineRecordReader, a part decodes the compressed
+ * blocks whose advertised position is not beyond its end, so every block is
+ * decoded by exactly one part; the output of the parts is queued in bounded
+ * queues and sent in file order.
+ */
+public class FileDecompressor {
+
+	static Logger log = Logger.getLogger(FileDecompressor.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int QUEUE_CHUNKS = 16;
+	private static final byte[] END = new byte[0];
+
+	private static ExecutorService decoders = null;
+
+	private final FileSystem dfs;
+	private final FileStatus fileStatus;
+	private final CompressionCodec codec;
+	private volatile boolean cancelled = false;
+
+	private FileDecompressor(FileSystem dfs, FileStatus fileStatus,
+			CompressionCodec codec) {
+		this.dfs = dfs;
+		this.fileStatus = fileStatus;
+		this.codec = codec;
+	}
+
+	private static synchronized ExecutorService getDecoders() {
+		if (decoders == null) {
+			decoders = ThreadPools.newFixedPool("decompress",
+					SysConfig.DECOMPRESS_THREADS);
+		}
+		return decoders;
+	}
+
+	/**
+	 * send the decoded contents of a file
+	 *
+	 * @param dfs
+	 * @param fileStatus
+	 * @param codec
+	 * @param ostream
+	 * @throws IOException
+	 *             if the file can't be read or decoded
+	 */
+	static void decompress(FileSystem dfs, FileStatus fileStatus,
+			CompressionCodec codec, OutputStream ostream) throws IOException {
+		FileDecompressor decompressor = new FileDecompressor(dfs, fileStatus,
+				codec);
+		if (codec instanceof SplittableCompressionCodec
+				&& fileStatus.getLen() >= SysConfig.DECOMPRESS_PARALLEL_MIN_SIZE) {
+			decompressor.decodeParallel(ostream);
+		} else {
+			decompressor.decode(ostream);
+		}
+	}
+
+	/**
+	 * @param factory
+	 * @param fileStatus
+	 * @return codec of the file or null if it isn't compressed
+	 */
+	static CompressionCodec getCodec(CompressionCodecFactory factory,
+			FileStatus fileStatus) {
+		return factory.getCodec(fileStatus.getPath());
+	}
+
+	/**
+	 * @param fileName
+	 * @param codec
+	 * @return the file name without the extension of the codec
+	 */
+	static String getDecodedName(String fileName, CompressionCodec codec) {
+		return CompressionCodecFactory.removeSuffix(fileName,
+				codec.getDefaultExtension());
+	}
+
+	private void decode(OutputStream ostream) throws IOException {
+		Decompressor decompressor = CodecPool.getDecompressor(codec);
+		InputStream is = null;
+		try {
+			Metrics.OPEN.incrementAndGet();
+			FSDataInputStream fsin = dfs.open(fileStatus.getPath());
+			try {
+				is = codec.createInputStream(fsin, decompressor);
+			} finally {
+				if (is == null) {
+					fsin.close();
+				}
+			}
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int bytesToRead;
+			while ((bytesToRead = is.read(buffer)) != -1) {
+				if (!write(ostream, buffer, bytesToRead)) {
+					return;
+				}
+			}
+		} finally {
+			if (is != null) {
+				is.close();
+			}
+			CodecPool.returnDecompressor(decompressor);
+		}
+	}
+
+	private void decodeParallel(OutputStream ostream) throws IOException {
+		long length = fileStatus.getLen();
+		long partSize = Math.max(fileStatus.getBlockSize(), 1);
+		int parts = (int) ((length + partSize - 1) / partSize);
+		int window = Math.max(1, SysConfig.DECOMPRESS_THREADS);
+		Part[] decoding = new Part[parts];
+		int submitted = 0;
+		try {
+			for (int k = 0; k < parts; k++) {
+				// keep at most window parts decoding ahead of the writer
+				while (submitted < parts && submitted < k + window) {
+					long start = submitted * partSize;
+					decoding[submitted] = new Part(start, Math.min(length,
+							start + partSize));
+					getDecoders().execute(decoding[submitted]);
+					submitted++;
+				}
+				Part part = decoding[k];
+				byte[] chunk;
+				while ((chunk = part.queue.take()) != END) {
+					if (!write(ostream, chunk, chunk.length)) {
+						return;
+					}
+				}
+				if (part.error != null) {
+					throw part.error;
+				}
+				decoding[k] = null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			cancelled = true;
+		}
+	}
+
+	private boolean write(OutputStream ostream, byte[] b, int len) {
+		try {
+			ostream.write(b, 0, len);
+			return true;
+		} catch (IOException e) {
+			Metrics.CLIENT_ABORTS.incrementAndGet();
+			log.info("write file " + fileStatus.getPath() + " be aborted \n"
+					+ "ClientAbortException:  java.net.SocketException: ", e);
+			return false;
+		}
+	}
+
+	/**
+	 * a part of a splittable file decoded by a thread of the pool
+	 */
+	private class Part implements Runnable {
+		private final long start;
+		private final long end;
+		private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(
+				QUEUE_CHUNKS);
+		private volatile IOException error;
+
+		Part(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void run() {
+			try {
+				decode();
+			} catch (IOException e) {
+				error = e;
+			} catch (InterruptedException e) {
+				error = new InterruptedIOException("decoding of the part at "
+						+ start + " is interrupted");
+				Thread.currentThread().interrupt();
+			} catch (Throwable e) {
+				// a codec throws runtime exceptions on corrupt data, the
+				// writer must not go on with the next part
+				error = new IOException("decode the part at " + start
+						+ " error", e);
+			} finally {
+				try {
+					put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private void decode() throws IOException, InterruptedException {
+			Decompressor decompressor = CodecPool.getDecompressor(codec);
+			Metrics.OPEN.incrementAndGet();
+			FSDataInputStream fsin = dfs.open(fileStatus.getPath());
+			SplitCompressionInputStream is = null;
+			try {
+				is = ((SplittableCompressionCodec) codec).createInputStream(
+						fsin, decompressor, start, end,
+						SplittableCompressionCodec.READ_MODE.BYBLOCK);
+				long pos = is.getPos();
+				if (start > 0 && pos > end) {
+					// no block starts in this part
+					return;
+				}
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int bytesToRead;
+				while (!cancelled
+						&& (bytesToRead = is.read(buffer, 0, buffer.length)) != -1) {
+					// the position moves only when a new block is entered
+					// and the bytes just read are the start of that block
+					if (is.getPos() != pos) {
+						pos = is.getPos();
+						if (pos > end) {
+							break;
+						}
+					}
+					if (bytesToRead > 0) {
+						put(Arrays.copyOf(buffer, bytesToRead));
+					}
+				}
+			} finally {
+				if (is != null) {
+					is.close();
+				} else {
+					fsin.close();
+				}
+				CodecPool.returnDecompressor(decompressor);
+			}
+		}
+
+		private void put(byte[] b) throws InterruptedException {
+			while (!queue.offer(b, 100, TimeUnit.MILLISECONDS)) {
+				if (cancelled) {
+					return;
+				}
+			}
+		}
+	}
+}
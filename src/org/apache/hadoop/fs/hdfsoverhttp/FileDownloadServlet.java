@@ -18,20 +18,28 @@
 
 package org.apache.hadoop.fs.hdfsoverhttp;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
-import javax.servlet.RequestDispatcher;
-import javax.servlet.ServletContext;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.util.StringUtils;
 import org.apache.log4j.Logger;
 
 public class FileDownloadServlet extends HttpServlet {
@@ -49,6 +57,21 @@ public class FileDownloadServlet extends HttpServlet {
 	 */
 	protected static final String mimeSeparation = "CATALINA_MIME_BOUNDARY";
 
+	/**
+	 * the request attributes of the sendfile of the container, the ones of
+	 * Tomcat's NIO connector which the standalone launcher also honours
+	 */
+	static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+	/**
+	 * the algorithm of the Digest header, the HDFS file checksum of
+	 * ?checksum which isn't a registered digest algorithm
+	 */
+	static final String DIGEST_ALGORITHM = "hdfs-checksum";
+
 	/**
 	 * @see HttpServlet#HttpServlet()
 	 */
@@ -56,6 +79,52 @@ public class FileDownloadServlet extends HttpServlet {
 		super();
 	}
 
+	/**
+	 * Serve a request, add it to the metrics and the access log.
+	 * 
+	 * @param request
+	 *            The servlet request we are processing
+	 * @param response
+	 *            The servlet response we are creating
+	 * 
+	 * @exception IOException
+	 *                if an input/output error occurs
+	 * @exception ServletException
+	 *                if a servlet-specified error occurs
+	 */
+	protected void service(HttpServletRequest request,
+			HttpServletResponse response) throws ServletException, IOException {
+		if (!SysConfig.isInitialized()) {
+			SysConfig.init(getServletContext());
+		}
+		// the probes don't wait for the mounts and aren't metered
+		String target = request.getPathInfo();
+		if (target != null && target.equals(SysConfig.LIVE_PATH)) {
+			sendProbe(request, response, true, "live");
+			return;
+		}
+		if (target != null && target.equals(SysConfig.READY_PATH)) {
+			boolean ready = GatewayStartup.isReady();
+			sendProbe(request, response, ready, ready ? "ready" : "not ready");
+			return;
+		}
+		if (!Mount.isInitialized()) {
+			Mount.init(getServletContext());
+		}
+		MeteredResponse metered = new MeteredResponse(response);
+		boolean failed = true;
+		try {
+			super.service(request, metered);
+			failed = false;
+		} finally {
+			if (!failed && request.isAsyncStarted()) {
+				metered.finishOnComplete(request);
+			} else {
+				metered.finish(request, failed);
+			}
+		}
+	}
+
 	/**
 	 * Process a HEAD request for the specified file or directory on hdfs.
 	 * 
@@ -143,14 +212,53 @@ public class FileDownloadServlet extends HttpServlet {
 		if (decodeTarget.equals(""))
 			decodeTarget = "/";
 		request.setAttribute("contextandservletpath", contextPath + servletPath);
-		if (decodeTarget.endsWith("/")) { // if it is directory
-			String orderCol = request.getParameter("C");
-			String orderType = request.getParameter("O");
-			if (orderType == null)
-				orderType = "";
-			showDirList(request, response, decodeTarget, orderCol, orderType);
-		} else { // if it is file
-			fileDownload(request, response, decodeTarget, content);
+
+		if (SysConfig.METRICS_PATH.length() > 0
+				&& decodeTarget.equals(SysConfig.METRICS_PATH)) {
+			request.setAttribute(Metrics.ENDPOINT, "metrics");
+			sendMetrics(response, content);
+			return;
+		}
+		if (SysConfig.HOT_PATHS_PATH.length() > 0
+				&& decodeTarget.equals(SysConfig.HOT_PATHS_PATH)) {
+			request.setAttribute(Metrics.ENDPOINT, "hot-paths");
+			sendHotPaths(response, content);
+			return;
+		}
+		Mount mount = Mount.resolve(decodeTarget);
+		if (mount != null && decodeTarget.equals(mount.getPrefix())) {
+			// the top directory of a mount
+			response.sendRedirect(uri + "/");
+			return;
+		}
+		if (mount != null && !mount.acquire()) {
+			log.warn("too many requests to mount " + mount.getName());
+			response.setHeader("Retry-After", "1");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"too many requests to " + mount.getName());
+			return;
+		}
+		request.setAttribute(Metrics.ENDPOINT,
+				decodeTarget.endsWith("/") ? "list" : "download");
+		try {
+			if (decodeTarget.endsWith("/")) { // if it is directory
+				String orderCol = request.getParameter("C");
+				String orderType = request.getParameter("O");
+				if (orderType == null)
+					orderType = "";
+				showDirList(request, response, decodeTarget, orderCol,
+						orderType);
+			} else { // if it is file
+				fileDownload(request, response, decodeTarget, content);
+			}
+		} finally {
+			if (mount != null) {
+				mount.release();
+			}
+			// the misses of crawlers aren't hot
+			if (response.getStatus() < HttpServletResponse.SC_BAD_REQUEST) {
+				HotPaths.record(decodeTarget);
+			}
 		}
 
 	}
@@ -170,10 +278,10 @@ public class FileDownloadServlet extends HttpServlet {
 
 		HdfsTool hdfsTool = null;
 		try {
-			hdfsTool = new HdfsTool(getServletContext());
+			hdfsTool = new HdfsTool(getServletContext(), targetDir,
+					getEndUser(request));
 		} catch (HdfsException e) {
-			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
-					"can't connect to hdfs");
+			sendUnavailable(response, e);
 			return;
 		}
 
@@ -191,7 +299,6 @@ public class FileDownloadServlet extends HttpServlet {
 			return;
 		}
 
-		request.setAttribute("target", targetDir);
 		ArrayList<String[]> fileList = new ArrayList<String[]>();
 		ArrayList<String[]> dirList = new ArrayList<String[]>();
 		DirectoryMetaInfo dirMetaInfo = new DirectoryMetaInfo();
@@ -212,31 +319,157 @@ public class FileDownloadServlet extends HttpServlet {
 			}
 			return;
 		} else {
-			if (orderCol == null) {
-				request.setAttribute("dirList", dirList);
-				request.setAttribute("fileList", fileList);
-			} else {
+			if (orderCol != null) {
 				ArrayList<String[]> sortedDirList = new ArrayList<String[]>();
 				hdfsTool.sortFileList(dirList, orderCol, orderType,
 						sortedDirList);
 				ArrayList<String[]> sortedFileList = new ArrayList<String[]>();
 				hdfsTool.sortFileList(fileList, orderCol, orderType,
 						sortedFileList);
-				request.setAttribute("dirList", sortedDirList);
-				request.setAttribute("fileList", sortedFileList);
+				dirList = sortedDirList;
+				fileList = sortedFileList;
 			}
-			request.setAttribute("parentdir", hdfsTool.getParentDir());
-			request.setAttribute("dirMetaInfo", dirMetaInfo);
-			request.setAttribute("orderType", orderType.equals("D") ? "A" : "D");
-
-			// redirect to file list page
-			ServletContext sc = getServletContext();
-			RequestDispatcher rd = sc.getRequestDispatcher("/fileList.jsp");
-			rd.forward(request, response);
+
+			// render the file list page
+			FileListPage.render(getServletContext(), response, hdfsTool,
+					(String) request.getAttribute("contextandservletpath"),
+					targetDir, dirList, fileList, dirMetaInfo,
+					hdfsTool.getParentDir(), orderType.equals("D") ? "A" : "D");
 			return;
 		}
 	}
 
+	/**
+	 * send the metrics in the Prometheus text format
+	 * 
+	 * @param response
+	 * @param content
+	 * @throws IOException
+	 */
+	private void sendMetrics(HttpServletResponse response, boolean content)
+			throws IOException {
+		StringBuilder text = new StringBuilder();
+		Metrics.write(text);
+		byte[] body = text.toString().getBytes("UTF-8");
+		response.setContentType("text/plain; version=0.0.4");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setContentLength(body.length);
+		if (content) {
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * @return true if Want-Digest lists the algorithm of the Digest header
+	 */
+	private static boolean wantsDigest(HttpServletRequest request) {
+		String want = request.getHeader("Want-Digest");
+		if (want == null) {
+			return false;
+		}
+		for (String item : want.split(",")) {
+			String[] parts = item.split(";");
+			if (!parts[0].trim().equalsIgnoreCase(DIGEST_ALGORITHM)) {
+				continue;
+			}
+			// q=0 declines the algorithm
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim().replace(" ", "");
+				if (param.startsWith("q=")
+						&& param.substring(2).matches("0(\\.0*)?")) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * send the most frequently requested paths as JSON
+	 * 
+	 * @param response
+	 * @param content
+	 * @throws IOException
+	 */
+	private void sendHotPaths(HttpServletResponse response, boolean content)
+			throws IOException {
+		StringBuilder text = new StringBuilder();
+		HotPaths.write(text);
+		byte[] body = text.toString().getBytes("UTF-8");
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setContentLength(body.length);
+		if (content) {
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * answer a probe of a load balancer
+	 * 
+	 * @param request
+	 * @param response
+	 * @param ok
+	 *            200 if true, else 503
+	 * @param text
+	 *            the body
+	 * @throws IOException
+	 */
+	private void sendProbe(HttpServletRequest request,
+			HttpServletResponse response, boolean ok, String text)
+			throws IOException {
+		byte[] body = (text + "\n").getBytes("UTF-8");
+		response.setStatus(ok ? HttpServletResponse.SC_OK
+				: HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setContentType("text/plain");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setContentLength(body.length);
+		if (!request.getMethod().equals("HEAD")) {
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * the user the gateway acts for, it is taken from user-header when it is
+	 * set and from the container authentication otherwise
+	 * 
+	 * @param request
+	 * @return the end user, or null to access HDFS as the gateway
+	 */
+	private String getEndUser(HttpServletRequest request) {
+		if (!SysConfig.IMPERSONATION) {
+			return null;
+		}
+		String user = SysConfig.USER_HEADER.length() > 0 ? request
+				.getHeader(SysConfig.USER_HEADER) : request.getRemoteUser();
+		if (user == null || user.trim().length() == 0) {
+			return SysConfig.ANONYMOUS_USER.length() > 0 ? SysConfig.ANONYMOUS_USER
+					: null;
+		}
+		return user.trim();
+	}
+
+	/**
+	 * answer 503 when the HDFS cluster is unavailable, the client may retry
+	 * after the next health check
+	 * 
+	 * @param response
+	 * @param e
+	 * @throws IOException
+	 */
+	private void sendUnavailable(HttpServletResponse response, HdfsException e)
+			throws IOException {
+		log.warn(e.getMessage());
+		response.setHeader("Retry-After", String.valueOf(Math.max(1,
+				SysConfig.HEALTH_CHECK_INTERVAL_MS / 1000)));
+		response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+				"can't connect to hdfs");
+	}
+
 	/**
 	 * down a file
 	 * 
@@ -256,9 +489,10 @@ public class FileDownloadServlet extends HttpServlet {
 
 		HdfsTool hdfsTool = null;
 		try {
-			hdfsTool = new HdfsTool(getServletContext());
+			hdfsTool = new HdfsTool(getServletContext(), targetFile,
+					getEndUser(request));
 		} catch (HdfsException e) {
-			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			sendUnavailable(response, e);
 			return;
 		}
 
@@ -274,6 +508,9 @@ public class FileDownloadServlet extends HttpServlet {
 					request.setAttribute("originalurl", request.getRequestURI());
 					response.sendError(HttpServletResponse.SC_NOT_FOUND);
 					break;
+				case -5:
+					response.sendError(HttpServletResponse.SC_FORBIDDEN);
+					break;
 				default:
 					response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 					break;
@@ -282,12 +519,51 @@ public class FileDownloadServlet extends HttpServlet {
 			}
 		}
 
+		if (request.getParameter("checksum") != null) {
+			request.setAttribute(Metrics.ENDPOINT, "checksum");
+			sendChecksum(response, hdfsTool, targetFileStatus, content);
+			return;
+		}
+
+		if (request.getParameter("decompress") != null) {
+			request.setAttribute(Metrics.ENDPOINT, "decompress");
+			sendDecompressed(response, hdfsTool, targetFileStatus,
+					targetFileName, content);
+			return;
+		}
+
+		// ETag header
+		String eTag = hdfsTool.getETag(targetFileStatus);
+		if (!checkIfNoneMatch(request, response, eTag)) {
+			return;
+		}
+
 		String contentType = getServletContext().getMimeType(targetFileName);
 		if (contentType == null)
 			contentType = "application/octet-stream";
 		response.setContentType(contentType);
 		response.setCharacterEncoding("UTF-8");
 
+		if (content && request.getParameter("follow") != null) {
+			request.setAttribute(Metrics.ENDPOINT, "follow");
+			followFile(request, response, hdfsTool, targetFileStatus);
+			return;
+		}
+
+		if (request.getParameter("lines") != null) {
+			request.setAttribute(Metrics.ENDPOINT, "lines");
+			sendLines(request, response, hdfsTool, targetFileStatus, content);
+			return;
+		}
+		if (request.getParameter("head") != null
+				|| request.getParameter("tail") != null
+				|| request.getParameter("grep") != null) {
+			request.setAttribute(Metrics.ENDPOINT, "filter");
+			sendFiltered(request, response, hdfsTool, targetFileStatus,
+					content);
+			return;
+		}
+
 		// Accept ranges header
 		response.setHeader("Accept-Ranges", "bytes");
 
@@ -296,12 +572,30 @@ public class FileDownloadServlet extends HttpServlet {
 		long contentLength = -1L;
 
 		ArrayList<Range> ranges = range.parseRange(request, response,
-				targetFileStatus);
-		// ETag header
-		response.setHeader("ETag", Range.getETag(targetFileStatus));
+				targetFileStatus, eTag);
+		if (content && redirectToPeer(request, response, hdfsTool,
+				targetFileStatus, ranges)) {
+			return;
+		}
+		response.setHeader("ETag", eTag);
 		// Last-Modified header
 		response.setHeader("Last-Modified",
 				Range.getLastModifiedHttp(targetFileStatus));
+		// Digest header
+		boolean full = ((ranges == null || ranges.isEmpty()) && request
+				.getHeader("Range") == null) || ranges == Range.FULL;
+		if (SysConfig.DIGEST_HEADER || wantsDigest(request)) {
+			// a range of a file doesn't make the DataNodes checksum all of
+			// it unless the operator asked for it
+			FileChecksum checksum = full || SysConfig.DIGEST_HEADER ? hdfsTool
+					.getFileChecksum(targetFileStatus) : hdfsTool
+					.getCachedFileChecksum(targetFileStatus);
+			if (checksum != null) {
+				response.setHeader("Digest", DIGEST_ALGORITHM + "="
+						+ new String(Base64.encodeBase64(checksum.getBytes()),
+								"US-ASCII"));
+			}
+		}
 		// Get content length
 		if (targetFileStatus != null)
 			contentLength = targetFileStatus.getLen();
@@ -321,7 +615,9 @@ public class FileDownloadServlet extends HttpServlet {
 				// Set the content-length as String to be able to use a long
 				response.setHeader("content-length", "" + contentLength);
 			}
-			if (content) {
+			if (content
+					&& !sendFile(request, hdfsTool, targetFileStatus, 0,
+							contentLength)) {
 				if (hdfsTool.copyFull(targetFileStatus, os) == false) {
 					response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 					return;
@@ -341,7 +637,9 @@ public class FileDownloadServlet extends HttpServlet {
 					response.setHeader("content-length", "" + length);
 				}
 
-				if (content) {
+				if (content
+						&& !sendFile(request, hdfsTool, targetFileStatus,
+								range0.start, range0.end + 1)) {
 					if (hdfsTool.copyRange(targetFileStatus, os, range0) == false) {
 						response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 						return;
@@ -378,6 +676,374 @@ public class FileDownloadServlet extends HttpServlet {
 		}
 	}
 
+	/**
+	 * leave the bytes of a file on a local file system to the sendfile of
+	 * the container, it sends them from the page cache after the request
+	 * without copying them through the servlet
+	 * 
+	 * @param request
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @param start
+	 *            the offset of the first byte
+	 * @param end
+	 *            the offset after the last byte
+	 * @return true if the container sends the bytes
+	 */
+	private boolean sendFile(HttpServletRequest request, HdfsTool hdfsTool,
+			FileStatus targetFileStatus, long start, long end) {
+		if (!SysConfig.SENDFILE
+				|| !Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			return false;
+		}
+		File file = hdfsTool.getLocalFile(targetFileStatus);
+		if (file == null) {
+			return false;
+		}
+		try {
+			// Tomcat only takes a canonical path
+			request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+		} catch (IOException e) {
+			log.warn("sendfile of " + file + " error", e);
+			return false;
+		}
+		request.setAttribute(SENDFILE_START, start);
+		request.setAttribute(SENDFILE_END, end);
+		RequestTiming.readPath("sendfile");
+		return true;
+	}
+
+	/**
+	 * stream a growing file, the response is kept open and the bytes
+	 * appended to the file are sent until it is closed or stays idle
+	 * 
+	 * @param request
+	 * @param response
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @throws IOException
+	 */
+	protected void followFile(HttpServletRequest request,
+			HttpServletResponse response, HdfsTool hdfsTool,
+			FileStatus targetFileStatus) throws IOException {
+		if (!request.isAsyncSupported()) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED,
+					"follow mode needs async support");
+			return;
+		}
+		long position = 0;
+		if ("end".equals(request.getParameter("follow"))) {
+			position = targetFileStatus.getLen();
+		} else {
+			// only the start of the first range is used
+			ArrayList<Range> ranges = new Range().parseRange(request,
+					response, targetFileStatus,
+					Range.getETag(targetFileStatus));
+			if (response.isCommitted()) {
+				return;
+			}
+			if (ranges != null && !ranges.isEmpty()) {
+				position = ranges.get(0).start;
+			}
+		}
+		response.setHeader("Cache-Control", "no-cache");
+
+		// the follower writes to the metered response
+		AsyncContext asyncContext = request.startAsync(request, response);
+		if (!hdfsTool.follow(targetFileStatus, asyncContext, position)) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"too many followers");
+			asyncContext.complete();
+		}
+	}
+
+	/**
+	 * send the lines specified by ?lines=first-last of a text file, the last
+	 * line can be omitted to send all lines from the first
+	 * 
+	 * @param request
+	 * @param response
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @param content
+	 * @throws IOException
+	 */
+	protected void sendLines(HttpServletRequest request,
+			HttpServletResponse response, HdfsTool hdfsTool,
+			FileStatus targetFileStatus, boolean content) throws IOException {
+		String lines = request.getParameter("lines").trim();
+		int dashPos = lines.indexOf('-');
+		long firstLine;
+		long lastLine;
+		try {
+			if (dashPos == -1) {
+				firstLine = Long.parseLong(lines);
+				lastLine = firstLine;
+			} else {
+				firstLine = Long.parseLong(lines.substring(0, dashPos));
+				if (dashPos < lines.length() - 1)
+					lastLine = Long.parseLong(lines.substring(dashPos + 1));
+				else
+					lastLine = Long.MAX_VALUE;
+			}
+		} catch (NumberFormatException e) {
+			firstLine = -1;
+			lastLine = -1;
+		}
+		if (firstLine < 1 || lastLine < firstLine) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"invalid lines " + lines);
+			return;
+		}
+		if (content) {
+			if (hdfsTool.copyLines(targetFileStatus,
+					response.getOutputStream(), firstLine, lastLine) == false) {
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+
+	/**
+	 * send the first lines(?head=N), the last lines(?tail=N) or the matched
+	 * lines(?grep=regex) of a text file
+	 * 
+	 * @param request
+	 * @param response
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @param content
+	 * @throws IOException
+	 */
+	protected void sendFiltered(HttpServletRequest request,
+			HttpServletResponse response, HdfsTool hdfsTool,
+			FileStatus targetFileStatus, boolean content) throws IOException {
+		String head = request.getParameter("head");
+		String tail = request.getParameter("tail");
+		String grep = request.getParameter("grep");
+		long lines = 0;
+		Pattern pattern = null;
+		try {
+			if (grep != null) {
+				pattern = Pattern.compile(grep);
+			} else {
+				lines = Long.parseLong(head != null ? head.trim() : tail
+						.trim());
+			}
+		} catch (NumberFormatException e) {
+			lines = -1;
+		} catch (PatternSyntaxException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"invalid regular expression " + grep);
+			return;
+		}
+		if (lines < 0) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"invalid number of lines");
+			return;
+		}
+		if (!content) {
+			return;
+		}
+		ServletOutputStream os = response.getOutputStream();
+		if (head != null) {
+			if (lines > 0
+					&& hdfsTool.copyLines(targetFileStatus, os, 1, lines) == false) {
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+			return;
+		}
+		if (!TextFilter.acquire()) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					"too many filters are running");
+			return;
+		}
+		try {
+			boolean result;
+			if (pattern != null) {
+				result = hdfsTool.copyGrep(targetFileStatus, os, pattern);
+			} else {
+				result = hdfsTool.copyTail(targetFileStatus, os, lines);
+			}
+			if (result == false) {
+				response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		} finally {
+			TextFilter.release();
+		}
+	}
+
+	/**
+	 * send the decoded contents of a file compressed by a Hadoop codec, the
+	 * codec is chosen by the file extension
+	 * 
+	 * @param response
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @param targetFileName
+	 * @param content
+	 * @throws IOException
+	 */
+	protected void sendDecompressed(HttpServletResponse response,
+			HdfsTool hdfsTool, FileStatus targetFileStatus,
+			String targetFileName, boolean content) throws IOException {
+		CompressionCodec codec = hdfsTool.getCodec(targetFileStatus);
+		if (codec == null) {
+			response.sendError(
+					HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+					targetFileName + " isn't compressed by a known codec");
+			return;
+		}
+		String decodedName = FileDecompressor.getDecodedName(targetFileName,
+				codec);
+		String contentType = getServletContext().getMimeType(decodedName);
+		if (contentType == null)
+			contentType = "application/octet-stream";
+		response.setContentType(contentType);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Content-Disposition", "inline; filename=\""
+				+ decodedName + "\"");
+		if (content) {
+			if (hdfsTool.copyDecompressed(targetFileStatus,
+					response.getOutputStream(), codec) == false) {
+				if (response.isCommitted()) {
+					// the container aborts the connection, a client never
+					// takes a truncated body for the whole file
+					throw new IOException("decompress " + targetFileName
+							+ " failed");
+				}
+				response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+	}
+
+	/**
+	 * send the checksum of a file as the same JSON as WebHDFS GETFILECHECKSUM
+	 * 
+	 * @param response
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @param content
+	 * @throws IOException
+	 */
+	protected void sendChecksum(HttpServletResponse response,
+			HdfsTool hdfsTool, FileStatus targetFileStatus, boolean content)
+			throws IOException {
+		FileChecksum checksum = hdfsTool.getFileChecksum(targetFileStatus);
+		if (checksum == null) {
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+					"can't get checksum");
+			return;
+		}
+		String json = "{\"FileChecksum\":{\"algorithm\":\""
+				+ checksum.getAlgorithmName() + "\",\"bytes\":\""
+				+ StringUtils.byteToHexString(checksum.getBytes())
+				+ "\",\"length\":" + checksum.getLength() + "}}";
+		byte[] body = json.getBytes("UTF-8");
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("ETag", hdfsTool.getETag(targetFileStatus));
+		response.setContentLength(body.length);
+		if (content) {
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * redirect a download to the gateway on the DataNode holding most of the
+	 * requested bytes, a redirected request has the local parameter so it
+	 * is never redirected again
+	 * 
+	 * @param request
+	 * @param response
+	 * @param hdfsTool
+	 * @param targetFileStatus
+	 * @param ranges
+	 * @return true if the request is redirected
+	 * @throws IOException
+	 */
+	private boolean redirectToPeer(HttpServletRequest request,
+			HttpServletResponse response, HdfsTool hdfsTool,
+			FileStatus targetFileStatus, ArrayList<Range> ranges)
+			throws IOException {
+		if (!SysConfig.PEER_REDIRECT || request.getParameter("local") != null
+				|| response.isCommitted()) {
+			return false;
+		}
+		long start = 0;
+		long end = targetFileStatus.getLen() - 1;
+		if (ranges != null && !ranges.isEmpty() && ranges != Range.FULL) {
+			start = Long.MAX_VALUE;
+			end = 0;
+			for (Range r : ranges) {
+				start = Math.min(start, r.start);
+				end = Math.max(end, r.end);
+			}
+		}
+		if (end - start + 1 < SysConfig.PEER_REDIRECT_MIN_SIZE) {
+			return false;
+		}
+		if (!PeerGateways.isInitialized()) {
+			PeerGateways.init(getServletContext());
+		}
+		BlockLocation[] locations = hdfsTool.getBlockLocations(
+				targetFileStatus, start, end - start + 1);
+		if (locations == null) {
+			return false;
+		}
+		String peer = PeerGateways.choose(locations, start, end);
+		if (peer == null) {
+			return false;
+		}
+		String uri = request.getRequestURI();
+		String query = request.getQueryString();
+		String location = peer + uri.substring(request.getContextPath().length())
+				+ "?" + (query == null ? "local" : query + "&local");
+		log.debug("redirect " + uri + " to " + location);
+		request.setAttribute(Metrics.ENDPOINT, "redirect");
+		response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+		response.setHeader("Location", location);
+		return true;
+	}
+
+	/**
+	 * Check if the if-none-match condition is satisfied.
+	 * 
+	 * @param request
+	 *            The servlet request we are processing
+	 * @param response
+	 *            The servlet response we are creating
+	 * @param eTag
+	 *            The ETag of the file
+	 * @return boolean true if the resource meets the specified condition, and
+	 *         false if the condition is not satisfied, in which case request
+	 *         processing is stopped
+	 */
+	protected boolean checkIfNoneMatch(HttpServletRequest request,
+			HttpServletResponse response, String eTag) {
+		String headerValue = request.getHeader("If-None-Match");
+		if (headerValue == null) {
+			return true;
+		}
+		boolean conditionSatisfied = false;
+		if (!headerValue.equals("*")) {
+			StringTokenizer commaTokenizer = new StringTokenizer(headerValue,
+					",");
+			while (!conditionSatisfied && commaTokenizer.hasMoreTokens()) {
+				String currentToken = commaTokenizer.nextToken();
+				if (currentToken.trim().equals(eTag))
+					conditionSatisfied = true;
+			}
+		} else {
+			conditionSatisfied = true;
+		}
+		if (conditionSatisfied) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			response.setHeader("ETag", eTag);
+			return false;
+		}
+		return true;
+	}
+
 	/**
 	 * if index.html exist and show it
 	 * 
@@ -0,0 +1,353 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * Streams a growing file like "tail -f". Every follower is a task on a
+ * small shared scheduler instead of a thread of its own: a task copies the
+ * bytes visible to its open stream, then reschedules itself with an
+ * exponential backoff while the file doesn't grow.
+ *
+ * The stream stays open while following. An idle poll refreshes the
+ * length the stream sees, one NameNode call, and only every few idle polls
+ * the NameNode is asked whether the file has been closed.
+ *
+ * The response is written in the non-blocking mode of Servlet 3.1: a task
+ * only writes while the stream is ready and otherwise waits for
+ * onWritePossible, so a slow client never holds a scheduler thread.
+ */
+public class FileFollower implements Runnable, AsyncListener, WriteListener {
+
+	static Logger log = Logger.getLogger(FileFollower.class);
+
+	/**
+	 * the most bytes a follower copies before it yields its thread
+	 */
+	private static final int MAX_BYTES_PER_RUN = 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**
+	 * the idle polls between two checks whether the file is closed
+	 */
+	private static final int IDLE_POLLS_PER_CLOSED_CHECK = 3;
+	private static final Method OPEN_INFO = getOpenInfoMethod();
+
+	private static ScheduledExecutorService scheduler = null;
+	private static final AtomicInteger followers = new AtomicInteger();
+
+	private final FileSystem dfs;
+	private final Path path;
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream ostream;
+	private FSDataInputStream is;
+	private long position;
+	// the poll and idle times of the follower
+	private final Tunables tunables = Tunables.get();
+	private long delay = tunables.followPollMinMs;
+	private long lastGrowth = System.currentTimeMillis();
+	private int idlePolls = 0;
+	private volatile boolean finished = false;
+	// the task waits for onWritePossible, the first run is started by it
+	private boolean waitingForWrite = true;
+
+	private FileFollower(FileSystem dfs, Path path, AsyncContext asyncContext,
+			long position) throws IOException {
+		this.dfs = dfs;
+		this.path = path;
+		this.asyncContext = asyncContext;
+		this.ostream = asyncContext.getResponse().getOutputStream();
+		this.position = position;
+	}
+
+	/**
+	 * start following a file from the specified position
+	 *
+	 * @param dfs
+	 * @param path
+	 * @param asyncContext
+	 * @param position
+	 * @return false if there are too many followers
+	 * @throws IOException
+	 */
+	static boolean follow(FileSystem dfs, Path path,
+			AsyncContext asyncContext, long position) throws IOException {
+		if (followers.incrementAndGet() > Tunables.get().followMax) {
+			followers.decrementAndGet();
+			return false;
+		}
+		FileFollower follower = new FileFollower(dfs, path, asyncContext,
+				position);
+		asyncContext.setTimeout(0);
+		asyncContext.addListener(follower);
+		// the container calls onWritePossible once the stream is ready
+		follower.ostream.setWriteListener(follower);
+		return true;
+	}
+
+	private static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = ThreadPools.newScheduledPool("follow",
+					SysConfig.FOLLOW_THREADS);
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @return the number of active followers
+	 */
+	static int getFollowerCount() {
+		return followers.get();
+	}
+
+	@Override
+	public synchronized void run() {
+		if (finished) {
+			return;
+		}
+		try {
+			if (is == null) {
+				open();
+			}
+			long visibleLength = getVisibleLength();
+			boolean closed = false;
+			if (position >= visibleLength) {
+				idlePolls++;
+				if (idlePolls % IDLE_POLLS_PER_CLOSED_CHECK == 0) {
+					// closed before the refresh, the refreshed length is
+					// the final one
+					closed = isFileClosed();
+				}
+				refresh();
+				visibleLength = getVisibleLength();
+			}
+			if (position < visibleLength) {
+				idlePolls = 0;
+				lastGrowth = System.currentTimeMillis();
+				delay = tunables.followPollMinMs;
+				if (!copy(visibleLength)) {
+					// onWritePossible resumes
+					waitingForWrite = true;
+					return;
+				}
+				getScheduler().schedule(this,
+						position < visibleLength ? 0 : delay,
+						TimeUnit.MILLISECONDS);
+				return;
+			}
+			if (closed) {
+				log.debug(path + " is closed, stop following");
+				finish();
+				return;
+			}
+			if (System.currentTimeMillis() - lastGrowth > tunables.followIdleTimeoutMs) {
+				log.debug(path + " is idle, stop following");
+				finish();
+				return;
+			}
+			delay = Math.min(delay * 2, tunables.followPollMaxMs);
+			getScheduler().schedule(this, delay, TimeUnit.MILLISECONDS);
+		} catch (IOException e) {
+			Metrics.CLIENT_ABORTS.incrementAndGet();
+			log.info("follow file " + path + " be aborted ", e);
+			finish();
+		} catch (RuntimeException e) {
+			log.error("follow file " + path + " error ", e);
+			finish();
+		}
+	}
+
+	/**
+	 * copy the visible bytes as long as the client takes them without
+	 * blocking
+	 *
+	 * @return false if the stream isn't ready
+	 */
+	private boolean copy(long visibleLength) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long end = Math.min(visibleLength, position + MAX_BYTES_PER_RUN);
+		while (position < end) {
+			if (!ostream.isReady()) {
+				return false;
+			}
+			int bytesToRead = is.read(buffer, 0,
+					(int) Math.min(buffer.length, end - position));
+			if (bytesToRead == -1) {
+				break;
+			}
+			ostream.write(buffer, 0, bytesToRead);
+			position += bytesToRead;
+		}
+		if (!ostream.isReady()) {
+			return false;
+		}
+		ostream.flush();
+		return true;
+	}
+
+	@Override
+	public synchronized void onWritePossible() {
+		if (waitingForWrite && !finished) {
+			waitingForWrite = false;
+			getScheduler().execute(this);
+		}
+	}
+
+	@Override
+	public void onError(Throwable t) {
+		Metrics.CLIENT_ABORTS.incrementAndGet();
+		log.info("follow file " + path + " be aborted: " + t);
+		finishLater();
+	}
+
+	private void open() throws IOException {
+		Metrics.OPEN.incrementAndGet();
+		is = dfs.open(path);
+		if (position > 0) {
+			is.seek(position);
+		}
+	}
+
+	/**
+	 * update the visible length of the open stream to the bytes written
+	 * since, a stream of another FileSystem asks for the length each time
+	 */
+	private void refresh() throws IOException {
+		if (!(is instanceof HdfsDataInputStream)) {
+			return;
+		}
+		InputStream stream = is.getWrappedStream();
+		if (OPEN_INFO != null && stream instanceof DFSInputStream) {
+			Metrics.GET_BLOCK_LOCATIONS.incrementAndGet();
+			try {
+				OPEN_INFO.invoke(stream);
+				return;
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				log.warn("refresh " + path + " error ", e.getCause());
+			} catch (IllegalAccessException e) {
+				log.warn("refresh " + path + " error ", e);
+			}
+		}
+		// the visible length of an open stream doesn't change otherwise
+		closeStream();
+		open();
+	}
+
+	private static Method getOpenInfoMethod() {
+		try {
+			Method method = DFSInputStream.class.getDeclaredMethod("openInfo");
+			method.setAccessible(true);
+			return method;
+		} catch (Exception e) {
+			log.warn("a followed file is reopened on every poll: " + e);
+			return null;
+		}
+	}
+
+	private long getVisibleLength() throws IOException {
+		if (is instanceof HdfsDataInputStream) {
+			return ((HdfsDataInputStream) is).getVisibleLength();
+		}
+		Metrics.GET_FILE_STATUS.incrementAndGet();
+		return dfs.getFileStatus(path).getLen();
+	}
+
+	private boolean isFileClosed() throws IOException {
+		if (dfs instanceof DistributedFileSystem) {
+			return ((DistributedFileSystem) dfs).isFileClosed(path);
+		}
+		return true;
+	}
+
+	private void closeStream() {
+		if (is != null) {
+			try {
+				is.close();
+			} catch (IOException e) {
+				log.warn("close " + path + " error ", e);
+			}
+			is = null;
+		}
+	}
+
+	private synchronized void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		followers.decrementAndGet();
+		closeStream();
+		try {
+			asyncContext.complete();
+		} catch (IllegalStateException e) {
+			// the request has been completed by the container
+		}
+	}
+
+	private void finishLater() {
+		getScheduler().execute(new Runnable() {
+			@Override
+			public void run() {
+				finish();
+			}
+		});
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) {
+		finishLater();
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		finishLater();
+	}
+
+	@Override
+	public void onError(AsyncEvent event) {
+		finishLater();
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+	}
+}
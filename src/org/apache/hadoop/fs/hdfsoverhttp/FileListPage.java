@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The index page of a directory, the page fileList.jsp used to render. It
+ * is written straight to the response, so there is no JSP to compile on
+ * the first request and no JSP engine is needed to serve the listing.
+ */
+public class FileListPage {
+
+	private static final int BUFFER_SIZE = 8192;
+	private static final char[] BLANKS = new char[256];
+
+	static {
+		Arrays.fill(BLANKS, ' ');
+	}
+
+	/**
+	 * write the page
+	 * 
+	 * @param context
+	 * @param response
+	 * @param hdfsTool
+	 * @param contextAndServletPath
+	 * @param targetDir
+	 * @param dirList
+	 * @param fileList
+	 * @param dirMetaInfo
+	 * @param parentDir
+	 *            the parent directory, empty at the top
+	 * @param orderType
+	 *            the order of the links of the column headers
+	 * @throws IOException
+	 */
+	static void render(ServletContext context, HttpServletResponse response,
+			HdfsTool hdfsTool, String contextAndServletPath,
+			String targetDir, ArrayList<String[]> dirList,
+			ArrayList<String[]> fileList, DirectoryMetaInfo dirMetaInfo,
+			String parentDir, String orderType) throws IOException {
+		int nameColMaxLength = dirMetaInfo.getFileNameMaxLength() + 2;
+		int sizeColMaxLength = dirMetaInfo.getFileSizeMaxLength() + 2;
+		response.setContentType("text/html;charset=UTF-8");
+		Writer out = new BufferedWriter(new OutputStreamWriter(
+				response.getOutputStream(), "UTF-8"), BUFFER_SIZE);
+		out.write("<html>\n <head>\n  <meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n  <title>Index of ");
+		out.write(targetDir);
+		out.write("</title>\n </head>\n<body>\n");
+
+		boolean header = SysConfig.hasHeader && dirMetaInfo.isHeaderExist();
+		if (header) {
+			if (hdfsTool.includeFile(targetDir, SysConfig.HEADER_FILE, out) == false) {
+				sendError(response, "read " + SysConfig.HEADER_FILE + " error");
+				return;
+			}
+		}
+		out.write("\n<h1>\n");
+		if (!header) {
+			out.write("Index of directory\n/");
+			String[] parts = targetDir.split(Path.SEPARATOR);
+			if (parts.length > 0) {
+				out.write(parts[parts.length - 1]);
+			}
+			out.write('\n');
+		}
+		out.write("</h1>\n<pre>\n<img src=\"");
+		out.write(contextAndServletPath);
+		out.write("/.icons/blank.gif\" alt=\"[Icon]\"><a href=\"?C=N&O=");
+		out.write(orderType);
+		out.write("\">Name</a>");
+		blank(out, nameColMaxLength - 4);
+		out.write("<a href=\"?C=M&O=");
+		out.write(orderType);
+		out.write("\">Last modified</a>");
+		blank(out, 6);
+		out.write("<a href=\"?C=S&O=");
+		out.write(orderType);
+		out.write("\">Size</a>");
+		blank(out, sizeColMaxLength);
+		out.write("<a href=\"?C=D&O=");
+		out.write(orderType);
+		out.write("\">Description</a>\n<hr>");
+		if (parentDir.length() > 0) {
+			out.write("<img src=\"");
+			out.write(contextAndServletPath);
+			out.write("/.icons/back.gif\" alt=\"[DIR ]\">&nbsp;<a href=\"../\">Parent Directory</a>");
+			blank(out, nameColMaxLength + 6);
+			out.write("-<br>");
+		}
+		writeRows(context, out, contextAndServletPath, targetDir, dirList,
+				fileList, nameColMaxLength);
+		out.write("<hr>\n</pre>\n");
+
+		if (SysConfig.hasReadme && dirMetaInfo.isReadmeExist()) {
+			if (hdfsTool.includeFile(targetDir, SysConfig.README_FILE, out) == false) {
+				sendError(response, "read " + SysConfig.README_FILE + " error");
+				return;
+			}
+		}
+		out.write("\n</body>\n</html>\n");
+		out.flush();
+	}
+
+	/**
+	 * write a row for every directory and file
+	 * 
+	 * @param context
+	 * @param out
+	 * @param contextAndServletPath
+	 * @param targetDir
+	 * @param dirList
+	 * @param fileList
+	 * @param nameColMaxLength
+	 *            the width of the name column
+	 * @throws IOException
+	 */
+	static void writeRows(ServletContext context, Writer out,
+			String contextAndServletPath, String targetDir,
+			ArrayList<String[]> dirList, ArrayList<String[]> fileList,
+			int nameColMaxLength) throws IOException {
+		for (int i = 0; i < dirList.size(); i++) {
+			String[] cols = dirList.get(i);
+			out.write("<img width=\"20px\" src=\"");
+			out.write(contextAndServletPath);
+			out.write("/.icons/folder.gif\" alt=\"[DIR ]\">&nbsp;<a href=\"");
+			out.write(contextAndServletPath);
+			out.write(targetDir);
+			out.write(URLEncoder.encode(cols[0], "UTF-8"));
+			out.write("/\">");
+			out.write(cols[0]);
+			out.write("/</a>");
+			blank(out, nameColMaxLength, cols[0].getBytes("UTF-8").length + 1,
+					cols[0].length() + 1);
+			out.write(cols[5]);
+			out.write("    -   <br>");
+		}
+		for (int i = 0; i < fileList.size(); i++) {
+			String[] cols = fileList.get(i);
+			String fileExt = cols[0].substring(cols[0].lastIndexOf(".") + 1);
+			out.write("<img width=\"20px\" src=\"");
+			out.write(contextAndServletPath);
+			out.write("/.icons/");
+			out.write(IconRegister.getIcon(context, fileExt));
+			out.write("\"  alt=\"[FILE]\">&nbsp;<a href=\"");
+			out.write(URLEncoder.encode(cols[0], "UTF-8"));
+			out.write("\">");
+			out.write(cols[0]);
+			out.write("</a>");
+			blank(out, nameColMaxLength, cols[0].getBytes("UTF-8").length,
+					cols[0].length());
+			out.write(cols[5]);
+			out.write("  ");
+			out.write(cols[2]);
+			out.write("<br>");
+		}
+	}
+
+	/**
+	 * the padding of DirectoryMetaInfo.createBlankTag, without a string
+	 */
+	private static void blank(Writer out, int fileNameMaxLength,
+			int fileNameBytesLength, int fileNameCharLength)
+			throws IOException {
+		int len = fileNameMaxLength - fileNameCharLength;
+		if (fileNameBytesLength > fileNameCharLength) {
+			len = len - (fileNameBytesLength - fileNameCharLength) / 2;
+		}
+		blank(out, len);
+	}
+
+	private static void blank(Writer out, int len) throws IOException {
+		while (len > 0) {
+			int n = Math.min(len, BLANKS.length);
+			out.write(BLANKS, 0, n);
+			len -= n;
+		}
+	}
+
+	/**
+	 * answer 500 unless a part of the page is already sent
+	 */
+	private static void sendError(HttpServletResponse response, String msg)
+			throws IOException {
+		if (!response.isCommitted()) {
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+					msg);
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * The formatting of the dates and the sizes of the responses and the
+ * listings, without locks: every download formats its Last-Modified and
+ * every row of a listing its date and size.
+ *
+ * The dates are in GMT and formatted from the epoch day by arithmetic.
+ * The formatted dates are kept in small caches indexed by the second or
+ * the minute, an entry is immutable and replaced as a whole, so a thread
+ * sees either a complete entry or another one. The sizes of byteDesc are
+ * looked up in a table of all their values below 1024.
+ */
+public class Formats {
+
+	private static final String[] DAYS = { "Sun", "Mon", "Tue", "Wed", "Thu",
+			"Fri", "Sat" };
+	private static final String[] MONTHS = { "Jan", "Feb", "Mar", "Apr",
+			"May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+	private static final String[] UNITS = { "", "K", "M", "G", "T", "P" };
+
+	private static final int CACHE_SIZE = 1024;
+	private static final CachedDate[] httpDates = new CachedDate[CACHE_SIZE];
+	private static final CachedDate[] listingDates = new CachedDate[CACHE_SIZE];
+
+	/**
+	 * "#.#" of the tenths 0 to 10240, the values of byteDesc
+	 */
+	private static final String[] TENTHS = new String[10241];
+
+	private static final ThreadLocal<DecimalFormat> decimalFormat = new ThreadLocal<DecimalFormat>() {
+		@Override
+		protected DecimalFormat initialValue() {
+			DecimalFormat format = (DecimalFormat) NumberFormat
+					.getNumberInstance(Locale.US);
+			format.applyPattern("#.#");
+			return format;
+		}
+	};
+
+	static {
+		for (int i = 0; i < TENTHS.length; i++) {
+			TENTHS[i] = tenths(i);
+		}
+	}
+
+	private Formats() {
+	}
+
+	/**
+	 * @param millis
+	 * @return the date as in HTTP headers, like "Sun, 06 Nov 1994 08:49:37
+	 *         GMT"
+	 */
+	public static String httpDate(long millis) {
+		long second = floorDiv(millis, 1000);
+		int slot = (int) (second & (CACHE_SIZE - 1));
+		CachedDate cached = httpDates[slot];
+		if (cached != null && cached.key == second) {
+			return cached.text;
+		}
+		StringBuilder out = new StringBuilder(29);
+		long days = floorDiv(second, 86400);
+		int secondOfDay = (int) (second - days * 86400);
+		int[] date = civil(days);
+		out.append(DAYS[(int) floorMod(days + 4, 7)]).append(", ");
+		pad(out, date[2], 2).append(' ').append(MONTHS[date[1] - 1])
+				.append(' ');
+		pad(out, date[0], 4).append(' ');
+		pad(out, secondOfDay / 3600, 2).append(':');
+		pad(out, secondOfDay / 60 % 60, 2).append(':');
+		pad(out, secondOfDay % 60, 2).append(" GMT");
+		String text = out.toString();
+		httpDates[slot] = new CachedDate(second, text);
+		return text;
+	}
+
+	/**
+	 * @param millis
+	 * @return the date of a listing row, like "06-Nov-1994 08:49"
+	 */
+	public static String listingDate(long millis) {
+		long minute = floorDiv(millis, 60000);
+		int slot = (int) (minute & (CACHE_SIZE - 1));
+		CachedDate cached = listingDates[slot];
+		if (cached != null && cached.key == minute) {
+			return cached.text;
+		}
+		StringBuilder out = new StringBuilder(17);
+		long days = floorDiv(minute, 1440);
+		int minuteOfDay = (int) (minute - days * 1440);
+		int[] date = civil(days);
+		pad(out, date[2], 2).append('-').append(MONTHS[date[1] - 1])
+				.append('-');
+		pad(out, date[0], 4).append(' ');
+		pad(out, minuteOfDay / 60, 2).append(':');
+		pad(out, minuteOfDay % 60, 2);
+		String text = out.toString();
+		listingDates[slot] = new CachedDate(minute, text);
+		return text;
+	}
+
+	/**
+	 * @param len
+	 * @return the length with an unit, like "1.5M"; the value is rounded
+	 *         half even to a tenth like DecimalFormat "#.#"
+	 */
+	public static String byteDesc(long len) {
+		if (len < 0) {
+			// not a length, DecimalFormat does it
+			return limitDecimalTo2(len);
+		}
+		int unit = 0;
+		while (unit < UNITS.length - 1 && len >= 1L << (10 * (unit + 1))) {
+			unit++;
+		}
+		long divisor = 1L << (10 * unit);
+		long whole = len / divisor;
+		long rest = (len % divisor) * 10;
+		long tenths = whole * 10 + rest / divisor;
+		long half = rest % divisor * 2;
+		if (half > divisor || (half == divisor && (tenths & 1) == 1)) {
+			tenths++;
+		}
+		String value = tenths < TENTHS.length ? TENTHS[(int) tenths]
+				: tenths(tenths);
+		return unit == 0 ? value : value + UNITS[unit];
+	}
+
+	/**
+	 * @param d
+	 * @return the number with at most one decimal
+	 */
+	public static String limitDecimalTo2(double d) {
+		return decimalFormat.get().format(d);
+	}
+
+	/**
+	 * @param n
+	 * @param width
+	 * @return the number padded with zeros to width digits
+	 */
+	public static String zeroPad(long n, int width) {
+		return pad(new StringBuilder(width), n, width).toString();
+	}
+
+	private static String tenths(long tenths) {
+		return tenths % 10 == 0 ? Long.toString(tenths / 10) : tenths / 10
+				+ "." + tenths % 10;
+	}
+
+	private static StringBuilder pad(StringBuilder out, long n, int width) {
+		String digits = Long.toString(n);
+		for (int i = digits.length(); i < width; i++) {
+			out.append('0');
+		}
+		return out.append(digits);
+	}
+
+	/**
+	 * @param days
+	 *            days since 1970-01-01
+	 * @return year, month and day of the proleptic Gregorian calendar
+	 */
+	private static int[] civil(long days) {
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+				- dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra
+				- (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+		int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return new int[] { (int) year, month, day };
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+	}
+
+	private static long floorMod(long x, long y) {
+		return x - floorDiv(x, y) * y;
+	}
+
+	/**
+	 * a formatted date, immutable so it can be shared without a lock
+	 */
+	private static final class CachedDate {
+		final long key;
+		final String text;
+
+		CachedDate(long key, String text) {
+			this.key = key;
+			this.text = text;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Initializes the gateway when it is deployed instead of on the first
+ * request.
+ *
+ * The config file is read at once, then a background thread loads the
+ * Hadoop configuration, logs in, connects the clusters of the mounts and
+ * reads the paths of warmup-paths and the hot paths of the previous run
+ * saved by HotPaths, so their NameNode RPCs, DataNode connections and
+ * blocks and the code of the listing and download paths are warm.
+ * Requests arriving before wait for the mounts as before; ready-path
+ * answers 503 until the warm-up is done, so a load balancer only sends
+ * traffic to a warm gateway.
+ */
+public class GatewayStartup implements ServletContextListener {
+
+	static Logger log = Logger.getLogger(GatewayStartup.class);
+
+	private static final int WARMUP_READ_SIZE = 64 * 1024;
+
+	private static volatile boolean started = false;
+	private static volatile boolean warm = false;
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+		final ServletContext context = event.getServletContext();
+		SysConfig.init(context);
+		started = true;
+		ThreadPools.newThreadFactory("startup").newThread(new Runnable() {
+			@Override
+			public void run() {
+				initialize(context);
+			}
+		}).start();
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		warm = false;
+	}
+
+	private static void initialize(ServletContext context) {
+		long start = System.currentTimeMillis();
+		try {
+			Mount.init(context);
+			IconRegister.getIcon(context, "");
+			if (SysConfig.WARMUP_PATHS.length() > 0) {
+				for (String target : SysConfig.WARMUP_PATHS.split(",")) {
+					warmUp(target.trim(), WARMUP_READ_SIZE);
+				}
+			}
+			// the hot set of the previous run
+			for (String target : HotPaths.load()) {
+				warmUp(target, SysConfig.HOT_PATHS_WARMUP_BYTES);
+			}
+		} catch (RuntimeException e) {
+			log.error("initialization error", e);
+		} finally {
+			warm = true;
+			log.info("initialized in " + (System.currentTimeMillis() - start)
+					+ " ms");
+		}
+	}
+
+	/**
+	 * read a path like a request: a directory is listed, the first bytes of
+	 * a file are read
+	 *
+	 * @param target
+	 *            decoded URL path
+	 * @param readSize
+	 *            the bytes of a file to read
+	 */
+	private static void warmUp(String target, int readSize) {
+		if (target.length() == 0) {
+			return;
+		}
+		Mount mount = Mount.resolve(target);
+		if (mount == null) {
+			log.warn("no mount for warm-up path " + target);
+			return;
+		}
+		String hdfsPath = mount.toHdfsPath(target);
+		Path path = new Path(hdfsPath.length() == 0 ? Path.SEPARATOR
+				: hdfsPath);
+		long start = System.currentTimeMillis();
+		try {
+			FileSystem dfs = mount.getFileSystem();
+			Metrics.GET_FILE_STATUS.incrementAndGet();
+			FileStatus status = dfs.getFileStatus(path);
+			if (status.isDirectory()) {
+				Metrics.LIST_STATUS.incrementAndGet();
+				dfs.listStatus(path);
+			} else {
+				Metrics.OPEN.incrementAndGet();
+				FSDataInputStream is = dfs.open(path);
+				try {
+					is.readFully(new byte[(int) Math.min(readSize,
+							status.getLen())]);
+				} finally {
+					is.close();
+				}
+			}
+			log.info("warmed up " + target + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (HdfsException e) {
+			log.warn("warm-up of " + target + " skipped: " + e.getMessage());
+		} catch (IOException e) {
+			log.warn("warm-up of " + target + " error", e);
+		}
+	}
+
+	/**
+	 * @return true if the warm-up is done and a cluster is available,
+	 *         answered by ready-path. Without this listener the gateway is
+	 *         ready once the mounts are initialized by a request.
+	 */
+	static boolean isReady() {
+		if (!Mount.isInitialized() || (started && !warm)) {
+			return false;
+		}
+		for (Mount mount : Mount.getMounts()) {
+			if (mount.getClient().isAvailable()) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,501 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.server.namenode.ha.ConfiguredFailoverProxyProvider;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.log4j.Logger;
+
+/**
+ * Owns the FileSystem of a cluster and keeps it healthy.
+ *
+ * A background probe checks the NameNode periodically. After
+ * health-check-failures failed probes the circuit is opened and requests
+ * fail at once instead of waiting for connection timeouts; the probe then
+ * connects a new FileSystem and closes the circuit as soon as it answers.
+ * The cluster is either a single NameNode, an HA nameservice configured by
+ * dfs.* properties, or a list of NameNodes in hdfs-namenodes which is
+ * turned into a nameservice with a failover proxy.
+ *
+ * Any other FileSystem of Hadoop can be served instead of a cluster by the
+ * scheme of hdfs-uri, like file:/// or mem://name for MemoryFileSystem.
+ *
+ * With impersonation every end user gets an own FileSystem, connected as
+ * a proxy user of the gateway so the NameNode checks the permissions of
+ * that user. They are kept in an LRU of user-cache-size users and closed
+ * after user-idle-timeout without a request.
+ */
+public class HdfsClient implements HdfsClientMBean {
+
+	static Logger log = Logger.getLogger(HdfsClient.class);
+
+	/**
+	 * the time a replaced FileSystem stays open for the streams still
+	 * reading from it
+	 */
+	private static final long CLOSE_DELAY_MS = 10 * 60 * 1000L;
+	// the idle users are closed within it after user-idle-timeout
+	private static final long USER_CHECK_INTERVAL_MS = 10 * 1000L;
+
+	private final String name;
+	private final String hdfsUri;
+	private final String namenodes;
+	private final String probeDir;
+	private final Configuration conf;
+	// the probes of each cluster, a hanging NameNode delays only its own
+	private final ScheduledExecutorService prober;
+	private volatile FileSystem dfs = null;
+	private volatile boolean available = false;
+	private int consecutiveFailures = 0;
+
+	private final AtomicLong connects = new AtomicLong();
+	private final AtomicLong connectFailures = new AtomicLong();
+	private final AtomicLong probes = new AtomicLong();
+	private final AtomicLong probeFailures = new AtomicLong();
+	private final AtomicLong fastFailures = new AtomicLong();
+	private volatile long lastProbeMillis = 0;
+	private volatile long lastProbeLatencyMillis = 0;
+	private final LinkedHashMap<String, UserFileSystem> users = new LinkedHashMap<String, UserFileSystem>(
+			16, 0.75f, true);
+
+	/**
+	 * the FileSystem and the permissions of an end user
+	 */
+	static class UserFileSystem {
+		final FileSystem fs;
+		final Permissions permissions;
+		volatile long lastUsed = System.currentTimeMillis();
+
+		UserFileSystem(FileSystem fs, Permissions permissions) {
+			this.fs = fs;
+			this.permissions = permissions;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            name of the client in JMX
+	 * @param hdfsUri
+	 *            URI of the NameNode or the nameservice
+	 * @param namenodes
+	 *            comma separated host:port of the NameNodes, or null
+	 * @param probeDir
+	 *            the directory checked by the probe
+	 */
+	public HdfsClient(String name, String hdfsUri, String namenodes,
+			String probeDir) {
+		this.name = name;
+		this.hdfsUri = hdfsUri;
+		this.namenodes = namenodes;
+		this.probeDir = probeDir.length() == 0 ? Path.SEPARATOR : probeDir;
+		this.conf = createConf();
+		this.prober = ThreadPools.newScheduledPool("health-" + name, 1);
+	}
+
+	/**
+	 * connect the cluster in the background and start the health probe,
+	 * until it is connected the requests fail with HdfsException
+	 */
+	synchronized void start() {
+		prober.execute(new Runnable() {
+			@Override
+			public void run() {
+				connect();
+			}
+		});
+		prober.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				probe();
+			}
+		}, SysConfig.HEALTH_CHECK_INTERVAL_MS,
+				SysConfig.HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		if (SysConfig.IMPERSONATION) {
+			prober.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					evictIdleUsers();
+				}
+			}, USER_CHECK_INTERVAL_MS, USER_CHECK_INTERVAL_MS,
+					TimeUnit.MILLISECONDS);
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("hdfsoverhttp:type=HdfsClient,name=" + name));
+		} catch (Exception e) {
+			log.warn("register mbean of " + name + " error", e);
+		}
+	}
+
+	/**
+	 * build the Hadoop configuration, the dfs.*, fs.*, ipc.* and hadoop.*
+	 * properties of the config file are passed to it and override the
+	 * short-circuit and hedged read settings
+	 */
+	private Configuration createConf() {
+		Configuration conf = new Configuration();
+		if (SysConfig.SHORT_CIRCUIT_READ) {
+			conf.setBoolean("dfs.client.read.shortcircuit", true);
+			conf.set("dfs.domain.socket.path", SysConfig.DOMAIN_SOCKET_PATH);
+		}
+		if (SysConfig.HEDGED_READ_THREADS > 0) {
+			conf.setInt("dfs.client.hedged.read.threadpool.size",
+					SysConfig.HEDGED_READ_THREADS);
+			conf.setLong("dfs.client.hedged.read.threshold.millis",
+					SysConfig.HEDGED_READ_THRESHOLD_MS);
+		}
+		for (Map.Entry<String, String> e : SysConfig.getHadoopProperties()
+				.entrySet()) {
+			conf.set(e.getKey(), e.getValue());
+		}
+		conf.setIfUnset("fs." + MemoryFileSystem.SCHEME + ".impl",
+				MemoryFileSystem.class.getName());
+		if (namenodes != null) {
+			try {
+				String nameservice = new URI(hdfsUri).getHost();
+				String[] addresses = namenodes.split(",");
+				StringBuilder ids = new StringBuilder();
+				for (int i = 0; i < addresses.length; i++) {
+					String id = "nn" + (i + 1);
+					ids.append(i == 0 ? "" : ",").append(id);
+					conf.set("dfs.namenode.rpc-address." + nameservice + "."
+							+ id, addresses[i].trim());
+				}
+				conf.set("dfs.nameservices", nameservice);
+				conf.set("dfs.ha.namenodes." + nameservice, ids.toString());
+				conf.set("dfs.client.failover.proxy.provider." + nameservice,
+						ConfiguredFailoverProxyProvider.class.getName());
+			} catch (URISyntaxException e) {
+				log.error("hdfsUri is invalid", e);
+			}
+		}
+		return conf;
+	}
+
+	/**
+	 * HDFS Initialization
+	 *
+	 * @return handle of file system or null if it can't connect
+	 */
+	private FileSystem newFileSystem() {
+		connects.incrementAndGet();
+		try {
+			URI uri = new URI(hdfsUri);
+			FileSystem dfs;
+			if (uri.getScheme() == null || uri.getScheme().equals("hdfs")) {
+				dfs = new DistributedFileSystem();
+				dfs.initialize(uri, conf);
+			} else {
+				// not cached, a replaced FileSystem is closed
+				dfs = FileSystem.newInstance(uri, conf);
+			}
+			DataNodeStats.register(dfs);
+			return dfs;
+		} catch (URISyntaxException e) {
+			log.error("hdfsUri is invalid", e);
+		} catch (IOException e) {
+			log.error("DFS Initialization error", e);
+		} catch (Exception e) {
+			log.error("unknown exception", e);
+		}
+		connectFailures.incrementAndGet();
+		return null;
+	}
+
+	private synchronized void connect() {
+		FileSystem newDfs = newFileSystem();
+		if (newDfs != null && check(newDfs)) {
+			replace(newDfs);
+			available = true;
+			consecutiveFailures = 0;
+			log.info("connected to " + hdfsUri);
+		} else if (newDfs != null) {
+			closeLater(newDfs);
+		}
+	}
+
+	/**
+	 * replace the FileSystem, the old one is closed later so the streams
+	 * reading from it can finish. The FileSystems of the users were
+	 * connected like the old one, they are dropped and connected again on
+	 * the next request of each user.
+	 */
+	private void replace(FileSystem newDfs) {
+		FileSystem oldDfs = dfs;
+		dfs = newDfs;
+		if (oldDfs != null) {
+			closeLater(oldDfs);
+			synchronized (users) {
+				for (UserFileSystem user : users.values()) {
+					closeLater(user.fs);
+				}
+				users.clear();
+			}
+		}
+	}
+
+	private void closeLater(final FileSystem oldDfs) {
+		prober.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					oldDfs.close();
+				} catch (IOException e) {
+					log.warn("close file system error", e);
+				}
+			}
+		}, CLOSE_DELAY_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private boolean check(FileSystem fs) {
+		long start = System.currentTimeMillis();
+		probes.incrementAndGet();
+		try {
+			fs.getFileStatus(new Path(probeDir));
+			return true;
+		} catch (IOException e) {
+			probeFailures.incrementAndGet();
+			log.warn("health check of " + hdfsUri + " failed: " + e);
+			return false;
+		} finally {
+			lastProbeMillis = System.currentTimeMillis();
+			lastProbeLatencyMillis = lastProbeMillis - start;
+		}
+	}
+
+	synchronized void probe() {
+		FileSystem current = dfs;
+		if (current != null && check(current)) {
+			if (!available) {
+				log.info(hdfsUri + " is available again");
+			}
+			available = true;
+			consecutiveFailures = 0;
+			return;
+		}
+		consecutiveFailures++;
+		if (current == null
+				|| consecutiveFailures >= SysConfig.HEALTH_CHECK_FAILURES) {
+			if (available) {
+				log.error(hdfsUri + " is unavailable, open the circuit");
+			}
+			available = false;
+			// reconnect, a new client resolves the NameNodes again
+			connect();
+		}
+	}
+
+	/**
+	 * report a failure of a request which looks like the NameNode is down,
+	 * the next probe is run at once
+	 */
+	void reportFailure(IOException e) {
+		log.warn("request to " + hdfsUri + " failed: " + e);
+		if (System.currentTimeMillis() - lastProbeMillis < 1000) {
+			return;
+		}
+		prober.execute(new Runnable() {
+			@Override
+			public void run() {
+				probe();
+			}
+		});
+	}
+
+	/**
+	 * get the FileSystem of the cluster
+	 *
+	 * @return handle of file system
+	 * @throws HdfsException
+	 *             at once if the cluster is unavailable
+	 */
+	FileSystem getFileSystem() throws HdfsException {
+		FileSystem current = dfs;
+		if (!available || current == null) {
+			fastFailures.incrementAndGet();
+			throw new HdfsException("hdfs " + hdfsUri + " is unavailable");
+		}
+		return current;
+	}
+
+	/**
+	 * get the FileSystem of an end user, it is connected on the first
+	 * request of the user
+	 *
+	 * @param user
+	 * @return the FileSystem of the proxy user and the permissions of the
+	 *         user
+	 * @throws HdfsException
+	 *             at once if the cluster is unavailable, or if the user
+	 *             can't be impersonated
+	 */
+	UserFileSystem getUserFileSystem(String user) throws HdfsException {
+		getFileSystem();
+		UserFileSystem found;
+		synchronized (users) {
+			found = users.get(user);
+		}
+		if (found != null) {
+			found.lastUsed = System.currentTimeMillis();
+			return found;
+		}
+		UserFileSystem created = newUserFileSystem(user);
+		synchronized (users) {
+			found = users.get(user);
+			if (found == null) {
+				users.put(user, created);
+				Iterator<UserFileSystem> eldest = users.values().iterator();
+				while (users.size() > Tunables.get().userCacheSize
+						&& eldest.hasNext()) {
+					closeLater(eldest.next().fs);
+					eldest.remove();
+				}
+				return created;
+			}
+		}
+		// connected by a concurrent request
+		closeLater(created.fs);
+		return found;
+	}
+
+	private UserFileSystem newUserFileSystem(String user) throws HdfsException {
+		try {
+			UserGroupInformation ugi = UserGroupInformation.createProxyUser(
+					user, UserGroupInformation.getLoginUser());
+			final URI uri = new URI(hdfsUri);
+			FileSystem fs = ugi
+					.doAs(new PrivilegedExceptionAction<FileSystem>() {
+						@Override
+						public FileSystem run() throws IOException {
+							// not cached, an evicted FileSystem is closed
+							return FileSystem.newInstance(uri, conf);
+						}
+					});
+			DataNodeStats.register(fs);
+			log.debug("connected to " + hdfsUri + " as " + user);
+			return new UserFileSystem(fs, new Permissions(user,
+					ugi.getGroupNames()));
+		} catch (Exception e) {
+			log.error("connect to " + hdfsUri + " as " + user + " error", e);
+			throw new HdfsException("can't connect to " + hdfsUri + " as "
+					+ user);
+		}
+	}
+
+	/**
+	 * close the FileSystems of the users without a recent request, and the
+	 * least recently used ones beyond a smaller user-cache-size
+	 */
+	private void evictIdleUsers() {
+		Tunables tunables = Tunables.get();
+		long idleSince = System.currentTimeMillis()
+				- tunables.userIdleTimeoutMs;
+		synchronized (users) {
+			Iterator<Map.Entry<String, UserFileSystem>> it = users.entrySet()
+					.iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, UserFileSystem> e = it.next();
+				if (e.getValue().lastUsed < idleSince) {
+					log.debug("close the FileSystem of idle user " + e.getKey());
+					closeLater(e.getValue().fs);
+					it.remove();
+				}
+			}
+			Iterator<UserFileSystem> eldest = users.values().iterator();
+			while (users.size() > tunables.userCacheSize && eldest.hasNext()) {
+				closeLater(eldest.next().fs);
+				eldest.remove();
+			}
+		}
+	}
+
+	Configuration getConf() {
+		return conf;
+	}
+
+	@Override
+	public String getUri() {
+		return hdfsUri;
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return available;
+	}
+
+	@Override
+	public long getConnects() {
+		return connects.get();
+	}
+
+	@Override
+	public long getConnectFailures() {
+		return connectFailures.get();
+	}
+
+	@Override
+	public long getProbes() {
+		return probes.get();
+	}
+
+	@Override
+	public long getProbeFailures() {
+		return probeFailures.get();
+	}
+
+	@Override
+	public long getFastFailures() {
+		return fastFailures.get();
+	}
+
+	@Override
+	public long getLastProbeMillis() {
+		return lastProbeMillis;
+	}
+
+	@Override
+	public long getLastProbeLatencyMillis() {
+		return lastProbeLatencyMillis;
+	}
+
+	@Override
+	public int getUsers() {
+		synchronized (users) {
+			return users.size();
+		}
+	}
+}
@@ -18,109 +18,140 @@
 
 package org.apache.hadoop.fs.hdfsoverhttp;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Writer;
 import java.net.ConnectException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.EnumSet;
 import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.Locale;
-import java.util.TimeZone;
 import java.util.Vector;
+import java.util.regex.Pattern;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletOutputStream;
-import javax.servlet.jsp.JspWriter;
 
-import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.permission.FsAction;
-import org.apache.hadoop.fs.permission.FsPermission;
-import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.log4j.Logger;
 
 public class HdfsTool {
-	private static final DecimalFormat decimalFormat;
-	private static final DecimalFormat sizeFormat;
-	private static final SimpleDateFormat dateForm = new SimpleDateFormat(
-			"dd-MMM-yyyy HH:mm", Locale.US);
-	protected final static TimeZone gmtZone = TimeZone.getTimeZone("GMT");
 	static Logger log = Logger.getLogger(HdfsTool.class);
 
-	static {
-		NumberFormat numberFormat = NumberFormat.getNumberInstance(Locale.US);
-		decimalFormat = (DecimalFormat) numberFormat;
-		decimalFormat.applyPattern("#.#");
-		sizeFormat = (DecimalFormat) NumberFormat.getNumberInstance(Locale.US);
-		sizeFormat.applyPattern("000000000000");
-		dateForm.setTimeZone(gmtZone);
-	}
-
-	private static FileSystem dfs = null;
-
 	static Path ROOT_DIR_PATH;
+	private Mount mount;
+	private FileSystem dfs;
 	private String targetDir;
-	private static final int BUFFER_SIZE = 2048;
-	private UserGroupInformation ugi;
-	private String userName = "guest";
-	private String[] groupNames = new String[] { "guest" };
+	private static final int LINE_BUFFER_SIZE = 64 * 1024;
+	// the last line of a grep stopped before the end of the file
+	static final String GREP_STOPPED = "# grep stopped: ";
+	private static final int ZERO_COPY_READ_SIZE = 1024 * 1024;
+	/**
+	 * buffers of the zero-copy reads which can't be mmapped
+	 */
+	private static final ByteBufferPool bufferPool = new ByteBufferPool() {
+		private final ElasticByteBufferPool pool = new ElasticByteBufferPool();
+
+		@Override
+		public ByteBuffer getBuffer(boolean direct, int length) {
+			ReadPaths.recordFallback();
+			return pool.getBuffer(direct, length);
+		}
+
+		@Override
+		public void putBuffer(ByteBuffer buffer) {
+			pool.putBuffer(buffer);
+		}
+	};
+	private static volatile Permissions processPermissions = new Permissions(
+			"guest", new String[] { "guest" });
+	private Permissions permissions = processPermissions;
 
 	/**
 	 * 
 	 * @param context
+	 * @param target
+	 *            path of the request, it selects the mount
 	 * @throws HdfsException
 	 * @throws IOException
 	 */
-	public HdfsTool(ServletContext context) throws HdfsException {
-		if (dfs == null) {
-			SysConfig.init(context);
-			dfs = getDfs(SysConfig.HDFS_URI);
-			if (dfs == null) {
-				throw new HdfsException("can't connect to hdfs");
-			}
-			
-			try {
-				ugi = UserGroupInformation.getLoginUser();
-				userName = ugi.getUserName();
-				groupNames = ugi.getGroupNames();
-			} catch (IOException e) {
-				log.error("exception when get os user and group", e);
+	public HdfsTool(ServletContext context, String target)
+			throws HdfsException {
+		this(context, target, null);
+	}
+
+	/**
+	 * 
+	 * @param context
+	 * @param target
+	 *            path of the request, it selects the mount
+	 * @param user
+	 *            the end user impersonated by the gateway, or null to
+	 *            access the files as the gateway
+	 * @throws HdfsException
+	 */
+	public HdfsTool(ServletContext context, String target, String user)
+			throws HdfsException {
+		long start = System.nanoTime();
+		if (!Mount.isInitialized()) {
+			Mount.init(context);
+			permissions = processPermissions;
+		}
+		mount = Mount.resolve(target);
+		try {
+			if (mount != null && user != null) {
+				HdfsClient.UserFileSystem userFs = mount.getClient()
+						.getUserFileSystem(user);
+				dfs = userFs.fs;
+				permissions = userFs.permissions;
+			} else if (mount != null) {
+				dfs = mount.getFileSystem();
 			}
+		} finally {
+			RequestTiming.add(RequestTiming.RESOLVE, start);
 		}
 	}
 
 	/**
-	 * HDFS Initialization
-	 * 
-	 * @param hdfsUri
-	 * @return handle of file system
-	 * @throws IOException
+	 * get the user and the groups of the process once, the permissions of
+	 * the files are checked against them when no user is impersonated
 	 */
-	private FileSystem getDfs(String hdfsUri) {
-		FileSystem dfs = new DistributedFileSystem();
-		Configuration conf = new Configuration();
+	static void login() {
 		try {
-			dfs.initialize(new URI(hdfsUri), conf);
-			return dfs;
-		} catch (URISyntaxException e) {
-			log.error("hdfsUri is invalid", e);
+			UserGroupInformation ugi = UserGroupInformation.getLoginUser();
+			processPermissions = new Permissions(ugi.getUserName(),
+					ugi.getGroupNames());
 		} catch (IOException e) {
-			log.error("DFS Initialization error", e);
-		} catch (Exception e) {
-			log.error("unknown exception", e);
+			log.error("exception when get os user and group", e);
 		}
-		return null;
+	}
+
+	/**
+	 * a tool over a given file system, for the benchmarks
+	 * 
+	 * @param mount
+	 * @param dfs
+	 */
+	HdfsTool(Mount mount, FileSystem dfs) {
+		this.mount = mount;
+		this.dfs = dfs;
 	}
 
 	/**
@@ -135,24 +166,53 @@ public class HdfsTool {
 	public int listFiles(String targetDir, ArrayList<String[]> dirList,
 			ArrayList<String[]> fileList, DirectoryMetaInfo metaInfo)
 			throws IOException {
+		long start = System.nanoTime();
+		try {
+			return doListFiles(targetDir, dirList, fileList, metaInfo);
+		} finally {
+			RequestTiming.add(RequestTiming.METADATA, start);
+		}
+	}
+
+	private int doListFiles(String targetDir, ArrayList<String[]> dirList,
+			ArrayList<String[]> fileList, DirectoryMetaInfo metaInfo)
+			throws IOException {
 		if (targetDir.startsWith(Path.SEPARATOR) == false) {
 			targetDir = Path.SEPARATOR + targetDir;
 		}
 		targetDir = convertInvalidChar(targetDir);
 		this.targetDir = targetDir;
-		
-		Path dstPath = new Path(SysConfig.ROOT_DIR + targetDir);
+		if (mount == null) {
+			if (targetDir.equals(Path.SEPARATOR) && Mount.isMultiple()) {
+				listMounts(dirList, metaInfo);
+				return 1;
+			}
+			log.error(targetDir + " isn't in any mount");
+			return -1;
+		}
+
+		Path dstPath = new Path(mount.toHdfsPath(targetDir));
+		if (mount.getPathIndex() != null
+				&& mount.getPathIndex().isAbsent(dstPath)) {
+			log.debug(dstPath + " isn't in the path index");
+			return -1;
+		}
 		FileStatus targetDirStatus = null;
 		// exist check
 		try {
+			Metrics.GET_FILE_STATUS.incrementAndGet();
 			targetDirStatus = dfs.getFileStatus(dstPath);
 			log.debug("list files for " + dstPath);
 		} catch (ConnectException ce) {
 			log.error("ConnectException", ce);
+			mount.getClient().reportFailure(ce);
 			return -9;
 		} catch (FileNotFoundException fe) {
 			log.error(dstPath + " doesn't exist");
 			return -1;
+		} catch (AccessControlException ae) {
+			log.warn(dstPath + ": " + ae.getMessage());
+			return -1;
 		}
 
 		// check it is directory
@@ -165,7 +225,15 @@ public class HdfsTool {
 			log.error(dstPath + ": Permission denied");
 			return -1;
 		}
-		FileStatus[] files = dfs.listStatus(dstPath);
+		Metrics.LIST_STATUS.incrementAndGet();
+		FileStatus[] files;
+		try {
+			files = dfs.listStatus(dstPath);
+		} catch (AccessControlException ae) {
+			// the NameNode has the last word on the impersonated user
+			log.warn(dstPath + ": " + ae.getMessage());
+			return -1;
+		}
 		for (int i = 0; i < files.length; i++) {
 
 			if (files[i].getPath().getName().equals(SysConfig.HEADER_FILE)) {
@@ -188,13 +256,12 @@ public class HdfsTool {
 			cols[0] = revertInvalidChar(files[i].getPath().getName());
 			metaInfo.setFileNameMaxLength(cols[0].getBytes().length,
 					cols[0].length());
-			cols[5] = dateForm
-					.format(new Date((files[i].getModificationTime())));
+			cols[5] = Formats.listingDate(files[i].getModificationTime());
 			if (!files[i].isDirectory()) {
 				cols[1] = "file";
-				cols[2] = byteDesc(files[i].getLen());
+				cols[2] = Formats.byteDesc(files[i].getLen());
 				metaInfo.setFileSizeMaxLength(cols[2].length());
-				cols[9] = sizeFormat.format(files[i].getLen());
+				cols[9] = Formats.zeroPad(files[i].getLen(), 12);
 				fileList.add(cols);
 			} else {
 				cols[1] = "dir";
@@ -208,6 +275,33 @@ public class HdfsTool {
 		return 1;
 	}
 
+	/**
+	 * list the mounts as the directories of the top directory, the clusters
+	 * aren't asked so a slow cluster doesn't delay the list
+	 * 
+	 * @param dirList
+	 * @param metaInfo
+	 */
+	private void listMounts(ArrayList<String[]> dirList,
+			DirectoryMetaInfo metaInfo) {
+		for (Mount m : Mount.getMounts()) {
+			if (m.getPrefix().length() == 0) {
+				continue;
+			}
+			String cols[] = new String[10];
+			cols[0] = m.getPrefix().substring(1);
+			metaInfo.setFileNameMaxLength(cols[0].getBytes().length,
+					cols[0].length());
+			cols[1] = "dir";
+			cols[2] = "";
+			cols[3] = "";
+			cols[4] = "";
+			cols[5] = String.format("%-17s", "-");
+			cols[9] = "";
+			dirList.add(cols);
+		}
+	}
+
 	/**
 	 * sort the file list
 	 * 
@@ -261,19 +355,27 @@ public class HdfsTool {
 	 * @return parent directory
 	 */
 	String getParentDir() {
-		Path p = new Path(SysConfig.ROOT_DIR + this.targetDir);
-		if (p.getParent() == null) {
+		if (mount == null) {
 			return "";
 		}
-		String parent = p.getParent().toUri().toString();
-		if (parent != null && parent.length() >= SysConfig.ROOT_DIR.length()) {
-			parent = parent.substring(SysConfig.ROOT_DIR.length());
-			if (parent.length() == 0)
-				parent = Path.SEPARATOR;
-		} else {
-			parent = "";
+		String rootDir = mount.getRootDir();
+		Path p = new Path(mount.toHdfsPath(this.targetDir));
+		String parent = "";
+		if (p.getParent() != null) {
+			parent = p.getParent().toUri().toString();
+			if (parent != null && parent.length() >= rootDir.length()) {
+				parent = parent.substring(rootDir.length());
+				if (parent.length() == 0)
+					parent = Path.SEPARATOR;
+			} else {
+				parent = "";
+			}
+		}
+		if (parent.length() == 0) {
+			// the top of a mount goes up to the list of mounts
+			return mount.getPrefix().length() > 0 ? Path.SEPARATOR : "";
 		}
-		return parent;
+		return mount.getPrefix() + parent;
 	}
 
 	/**
@@ -285,25 +387,48 @@ public class HdfsTool {
 	 * @return error code or file status object
 	 */
 	public Object checkFile(String targetDir, String targetFileName) {
+		long start = System.nanoTime();
+		try {
+			return doCheckFile(targetDir, targetFileName);
+		} finally {
+			RequestTiming.add(RequestTiming.METADATA, start);
+		}
+	}
+
+	private Object doCheckFile(String targetDir, String targetFileName) {
 		Path targetFile = null;
+		if (mount == null) {
+			return new Integer(-1);
+		}
 		if((targetDir).equals(Path.SEPARATOR)) {
-			targetFile = new Path(convertInvalidChar(SysConfig.ROOT_DIR + targetDir + targetFileName));
+			targetFile = new Path(convertInvalidChar(mount.toHdfsPath(targetDir) + targetFileName));
 		}else{
-			targetFile = new Path(convertInvalidChar(SysConfig.ROOT_DIR + targetDir + Path.SEPARATOR + targetFileName));
+			targetFile = new Path(convertInvalidChar(mount.toHdfsPath(targetDir) + Path.SEPARATOR + targetFileName));
 		}
 
+		if (mount.getPathIndex() != null
+				&& mount.getPathIndex().isAbsent(targetFile)) {
+			return new Integer(-1);
+		}
 		try{
+			Metrics.EXISTS.incrementAndGet();
 			if(!dfs.exists(targetFile)){
 				return new Integer(-1);
 			}
+		} catch (AccessControlException ae) {
+			log.warn("PERMISSIONS: " + targetFile.toString() + " - "
+					+ ae.getMessage());
+			return new Integer(-5);
 		} catch (IOException ce) {
 			log.error("IOException", ce);
+			mount.getClient().reportFailure(ce);
 			return new Integer(-2);
 		}
 		
 		// exist check
 		FileStatus targetFileStatus = null;
 		try {
+			Metrics.GET_FILE_STATUS.incrementAndGet();
 			targetFileStatus = dfs.getFileStatus(targetFile);
 		} catch (Exception e){
 			log.error("unkown exception:", e);
@@ -325,6 +450,97 @@ public class HdfsTool {
 		return targetFileStatus;
 	}
 
+	/**
+	 * @param targetFileStatus
+	 * @return the checksum of a file if it is cached, or null
+	 */
+	public FileChecksum getCachedFileChecksum(FileStatus targetFileStatus) {
+		return mount.getChecksumCache().get(targetFileStatus);
+	}
+
+	/**
+	 * get the checksum of a file, it is computed by the DataNodes from the
+	 * stored block checksums so no file data passes through the gateway
+	 * 
+	 * @param targetFileStatus
+	 * @return checksum or null if it can't be got
+	 */
+	public FileChecksum getFileChecksum(FileStatus targetFileStatus) {
+		FileChecksum checksum = mount.getChecksumCache().get(targetFileStatus);
+		if (checksum != null) {
+			return checksum;
+		}
+		long start = System.nanoTime();
+		try {
+			Metrics.GET_FILE_CHECKSUM.incrementAndGet();
+			checksum = dfs.getFileChecksum(targetFileStatus.getPath());
+		} catch (IOException e) {
+			log.error("get checksum of " + targetFileStatus.getPath()
+					+ " error ", e);
+			return null;
+		} finally {
+			RequestTiming.add(RequestTiming.METADATA, start);
+		}
+		if (checksum != null) {
+			mount.getChecksumCache().put(
+					mount.toTarget(targetFileStatus.getPath().toUri().getPath()),
+					targetFileStatus, checksum);
+		}
+		return checksum;
+	}
+
+	/**
+	 * get the locations of the blocks of a range of a file
+	 * 
+	 * @param targetFileStatus
+	 * @param start
+	 * @param length
+	 * @return block locations or null if they can't be got
+	 */
+	public BlockLocation[] getBlockLocations(FileStatus targetFileStatus,
+			long start, long length) {
+		long begin = System.nanoTime();
+		try {
+			Metrics.GET_BLOCK_LOCATIONS.incrementAndGet();
+			return dfs.getFileBlockLocations(targetFileStatus, start, length);
+		} catch (IOException e) {
+			log.error("get block locations of " + targetFileStatus.getPath()
+					+ " error ", e);
+			return null;
+		} finally {
+			RequestTiming.add(RequestTiming.METADATA, begin);
+		}
+	}
+
+	/**
+	 * get ETag of a file, it is derived from the file checksum if
+	 * checksum-etag is enabled
+	 * 
+	 * @param targetFileStatus
+	 * @return ETag
+	 */
+	public String getETag(FileStatus targetFileStatus) {
+		if (SysConfig.CHECKSUM_ETAG) {
+			FileChecksum checksum = getFileChecksum(targetFileStatus);
+			if (checksum != null) {
+				return Range.getETag(checksum);
+			}
+		}
+		return Range.getETag(targetFileStatus);
+	}
+
+	/**
+	 * @return true if the range copies read by position: a positional read
+	 *         can be hedged by the DFS client and doesn't hold the lock of
+	 *         the stream, the synchronized read(byte[]) of DFSInputStream
+	 *         pins a virtual thread to its carrier while it waits for a
+	 *         DataNode. A full copy keeps the sequential stream and its
+	 *         read-ahead unless the threads are virtual.
+	 */
+	private static boolean positionalReads() {
+		return SysConfig.HEDGED_READ_THREADS > 0 || ThreadPools.isVirtual();
+	}
+
 	/**
 	 * copy all contents of the specified file to client
 	 * 
@@ -334,15 +550,59 @@ public class HdfsTool {
 	 */
 	public boolean copyFull(FileStatus targetFileStatus,
 			ServletOutputStream ostream) {
+		// a zero-copy download keeps its own reader
+		if (SysConfig.BROADCAST && !SysConfig.ZERO_COPY_READ
+				&& targetFileStatus.getLen() >= Tunables.get().broadcastMinSize) {
+			RequestTiming.readPath("broadcast");
+			try {
+				Broadcast.copy(dfs, targetFileStatus, ostream);
+				return true;
+			} catch (IOException e) {
+				log.error("read file " + targetFileStatus.getPath() + " error ",
+						e);
+				return false;
+			}
+		}
 		FSDataInputStream is = null;
+		DataNodeStats.Tracker tracker = null;
+		StreamParking parking = new StreamParking();
+		long start = System.nanoTime();
 		int bytesToRead = 0;
-		byte[] buffer = new byte[BUFFER_SIZE];
+		long readedLength = 0;
+		boolean pread = ThreadPools.isVirtual();
+		Tunables tunables = Tunables.get();
+		byte[] buffer = new byte[pread ? tunables.preadBufferSize
+				: tunables.bufferSize];
 		try {
+			Metrics.OPEN.incrementAndGet();
 			is = dfs.open(targetFileStatus.getPath());
-			while ((bytesToRead = is.read(buffer)) != -1) {
+			start = RequestTiming.add(RequestTiming.OPEN, start);
+			tracker = DataNodeStats.track(is, targetFileStatus.getPath());
+			if (SysConfig.ZERO_COPY_READ) {
+				readedLength = copyZeroCopy(targetFileStatus, is, ostream,
+						targetFileStatus.getLen());
+				if (readedLength < 0) {
+					return true;
+				}
+			}
+			while (true) {
+				tracker.start();
+				if (pread) {
+					bytesToRead = is.read(readedLength, buffer, 0, buffer.length);
+				} else {
+					bytesToRead = is.read(buffer);
+				}
+				parking.read(tracker.stop(bytesToRead, pread ? readedLength
+						: -1));
+				if (bytesToRead == -1) {
+					break;
+				}
+				readedLength += bytesToRead;
+				long writeStart = System.nanoTime();
 				try {
 					ostream.write(buffer, 0, bytesToRead);
 				} catch (IOException e) {
+					Metrics.CLIENT_ABORTS.incrementAndGet();
 					log.warn("write file "
 							+ targetFileStatus.getPath()
 							+ " be aborted \n"
@@ -350,6 +610,201 @@ public class HdfsTool {
 							e);
 					return true;
 				}
+				parking.wrote(System.nanoTime() - writeStart);
+				if (parking.shouldPark()) {
+					closeStream(targetFileStatus, is);
+					is = null;
+					StreamParking.copyParked(dfs, targetFileStatus, ostream,
+							readedLength, targetFileStatus.getLen()
+									- readedLength);
+					break;
+				}
+			}
+		} catch (IOException e) {
+			log.error("read file " + targetFileStatus.getPath() + " error ", e);
+			return false;
+		} finally {
+			if (tracker != null) {
+				tracker.close();
+				RequestTiming.transfer(parking.getReadNanos(),
+						parking.getWriteNanos());
+				RequestTiming.add(RequestTiming.TRANSFER, start);
+			}
+			if (is != null) {
+				closeStream(targetFileStatus, is);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * record the read path of a stream and close it
+	 * 
+	 * @param targetFileStatus
+	 * @param is
+	 */
+	private void closeStream(FileStatus targetFileStatus, FSDataInputStream is) {
+		String readPath = ReadPaths.record(is);
+		RequestTiming.readPath(readPath);
+		log.debug("read path of " + targetFileStatus.getPath() + ": "
+				+ readPath);
+		long start = System.nanoTime();
+		try {
+			is.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			RequestTiming.add(RequestTiming.CLOSE, start);
+		}
+	}
+
+	/**
+	 * send bytes of a file with zero-copy reads from the current position of
+	 * the stream. When the block is read by short-circuit the stream
+	 * returns a mmapped buffer of the block file, otherwise it fills a
+	 * pooled buffer.
+	 * 
+	 * @param targetFileStatus
+	 * @param is
+	 * @param ostream
+	 * @param length
+	 *            the number of bytes to send
+	 * @return the number of bytes sent, less than length if the stream
+	 *         doesn't support zero-copy reads, -1 if the client aborted
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	private long copyZeroCopy(FileStatus targetFileStatus,
+			FSDataInputStream is, ServletOutputStream ostream, long length)
+			throws IOException {
+		EnumSet<ReadOption> options = SysConfig.ZERO_COPY_SKIP_CHECKSUMS ? EnumSet
+				.of(ReadOption.SKIP_CHECKSUMS) : EnumSet
+				.noneOf(ReadOption.class);
+		byte[] chunk = null;
+		long sent = 0;
+		while (sent < length) {
+			ByteBuffer buf;
+			try {
+				buf = is.read(bufferPool, (int) Math.min(ZERO_COPY_READ_SIZE,
+						length - sent), options);
+			} catch (UnsupportedOperationException e) {
+				log.debug("zero-copy read of " + targetFileStatus.getPath()
+						+ " isn't supported: " + e.getMessage());
+				return sent;
+			}
+			if (buf == null) {
+				break;
+			}
+			try {
+				int n = buf.remaining();
+				if (buf.hasArray()) {
+					ostream.write(buf.array(),
+							buf.arrayOffset() + buf.position(), n);
+				} else {
+					// a direct or mmapped buffer is written in chunks
+					if (chunk == null) {
+						chunk = new byte[LINE_BUFFER_SIZE];
+					}
+					while (buf.hasRemaining()) {
+						int k = Math.min(chunk.length, buf.remaining());
+						buf.get(chunk, 0, k);
+						ostream.write(chunk, 0, k);
+					}
+				}
+				sent += n;
+			} catch (IOException e) {
+				Metrics.CLIENT_ABORTS.incrementAndGet();
+				log.warn("write file " + targetFileStatus.getPath()
+						+ " be aborted \n"
+						+ "ClientAbortException:  java.net.SocketException: ", e);
+				return -1;
+			} finally {
+				is.releaseBuffer(buf);
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * keep sending the contents of a growing file to client until it is
+	 * closed or stays idle, the copy is done by the shared follow scheduler
+	 * 
+	 * @param targetFileStatus
+	 * @param asyncContext
+	 * @param position
+	 *            the offset to start from
+	 * @return false if too many files are followed
+	 * @throws IOException
+	 */
+	public boolean follow(FileStatus targetFileStatus,
+			AsyncContext asyncContext, long position) throws IOException {
+		return FileFollower.follow(dfs, targetFileStatus.getPath(),
+				asyncContext, position);
+	}
+
+	/**
+	 * copy the specified lines of a text file to client. The reading starts
+	 * from the nearest line recorded in the line index of the file, the
+	 * index is built in the background for large files. The lines within
+	 * the first line-index-interval, like a head, are read from the start
+	 * without the index.
+	 * 
+	 * @param targetFileStatus
+	 * @param ostream
+	 * @param firstLine
+	 *            the first line to copy, starting from 1
+	 * @param lastLine
+	 *            the last line to copy
+	 * @return copy result(true or false)
+	 */
+	public boolean copyLines(FileStatus targetFileStatus,
+			ServletOutputStream ostream, long firstLine, long lastLine) {
+		long[] start = new long[] { 1, 0 };
+		if (firstLine > SysConfig.LINE_INDEX_INTERVAL
+				&& targetFileStatus.getLen() >= SysConfig.LINE_INDEX_MIN_SIZE) {
+			start = LineIndex.get(dfs, targetFileStatus).floor(firstLine);
+		}
+		FSDataInputStream is = null;
+		int bytesToRead = 0;
+		byte[] buffer = new byte[LINE_BUFFER_SIZE];
+		long line = start[0];
+		boolean inRange = line >= firstLine;
+		boolean done = false;
+		try {
+			Metrics.OPEN.incrementAndGet();
+			is = dfs.open(targetFileStatus.getPath());
+			is.seek(start[1]);
+			while (!done && (bytesToRead = is.read(buffer)) != -1) {
+				int outStart = inRange ? 0 : -1;
+				int outEnd = bytesToRead;
+				for (int i = 0; i < bytesToRead; i++) {
+					if (buffer[i] != '\n') {
+						continue;
+					}
+					line++;
+					if (line > lastLine) {
+						outEnd = i + 1;
+						done = true;
+						break;
+					}
+					if (line == firstLine) {
+						inRange = true;
+						outStart = i + 1;
+					}
+				}
+				if (outStart >= 0 && outStart < outEnd) {
+					try {
+						ostream.write(buffer, outStart, outEnd - outStart);
+					} catch (IOException e) {
+						Metrics.CLIENT_ABORTS.incrementAndGet();
+						log.info("write file "
+								+ targetFileStatus.getPath()
+								+ " be aborted \n"
+								+ "ClientAbortException:  java.net.SocketException: ",
+								e);
+						return true;
+					}
+				}
 			}
 		} catch (IOException e) {
 			log.error("read file " + targetFileStatus.getPath() + " error ", e);
@@ -366,6 +821,122 @@ public class HdfsTool {
 		return true;
 	}
 
+	/**
+	 * copy the last lines of a text file to client, the file is read
+	 * backwards from its end to find them
+	 * 
+	 * @param targetFileStatus
+	 * @param ostream
+	 * @param lines
+	 *            the number of lines
+	 * @return copy result(true or false)
+	 */
+	public boolean copyTail(FileStatus targetFileStatus,
+			ServletOutputStream ostream, long lines) {
+		long start;
+		try {
+			start = TextFilter.findTailOffset(dfs, targetFileStatus, lines);
+		} catch (IOException e) {
+			log.error("read file " + targetFileStatus.getPath() + " error ", e);
+			return false;
+		} catch (TextFilter.BudgetExceededException e) {
+			log.warn("tail file " + targetFileStatus.getPath() + " stopped: "
+					+ e.getMessage());
+			return false;
+		}
+		if (start >= targetFileStatus.getLen()) {
+			return true;
+		}
+		Range range = new Range();
+		range.start = start;
+		range.end = targetFileStatus.getLen() - 1;
+		range.length = targetFileStatus.getLen();
+		return copyRange(targetFileStatus, ostream, range);
+	}
+
+	/**
+	 * copy the lines of a text file which match a regular expression to
+	 * client, a large file is scanned in parallel. The matches are sent as
+	 * they are found, so a scan stopped by filter-time-limit ends with the
+	 * line GREP_STOPPED and the reason instead of an error status.
+	 * 
+	 * @param targetFileStatus
+	 * @param ostream
+	 * @param pattern
+	 * @return copy result(true or false)
+	 */
+	public boolean copyGrep(FileStatus targetFileStatus,
+			ServletOutputStream ostream, Pattern pattern) {
+		try {
+			TextFilter.grep(dfs, targetFileStatus, pattern, ostream);
+		} catch (IOException e) {
+			log.error("read file " + targetFileStatus.getPath() + " error ", e);
+			return false;
+		} catch (TextFilter.BudgetExceededException e) {
+			log.warn("grep file " + targetFileStatus.getPath() + " stopped: "
+					+ e.getMessage());
+			try {
+				ostream.write((GREP_STOPPED + e.getMessage() + "\n")
+						.getBytes("US-ASCII"));
+			} catch (IOException we) {
+				Metrics.CLIENT_ABORTS.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * get the compression codec of a file by its extension
+	 * 
+	 * @param targetFileStatus
+	 * @return codec or null if the file isn't compressed
+	 */
+	public CompressionCodec getCodec(FileStatus targetFileStatus) {
+		return FileDecompressor.getCodec(mount.getCodecFactory(),
+				targetFileStatus);
+	}
+
+	/**
+	 * copy the decoded contents of a compressed file to client
+	 * 
+	 * @param targetFileStatus
+	 * @param ostream
+	 * @param codec
+	 * @return copy result(true or false)
+	 */
+	public boolean copyDecompressed(FileStatus targetFileStatus,
+			ServletOutputStream ostream, CompressionCodec codec) {
+		try {
+			FileDecompressor.decompress(dfs, targetFileStatus, codec, ostream);
+		} catch (IOException e) {
+			log.error("decompress file " + targetFileStatus.getPath()
+					+ " error ", e);
+			return false;
+		} catch (RuntimeException e) {
+			// a codec on corrupt data
+			log.error("decompress file " + targetFileStatus.getPath()
+					+ " error ", e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param targetFileStatus
+	 * @return the file of a local file system, null if the file is on a
+	 *         cluster
+	 */
+	File getLocalFile(FileStatus targetFileStatus) {
+		if (dfs instanceof LocalFileSystem) {
+			return ((LocalFileSystem) dfs).pathToFile(targetFileStatus
+					.getPath());
+		} else if (dfs instanceof RawLocalFileSystem) {
+			return ((RawLocalFileSystem) dfs).pathToFile(targetFileStatus
+					.getPath());
+		}
+		return null;
+	}
+
 	/**
 	 * include file contents for other file
 	 * 
@@ -375,15 +946,17 @@ public class HdfsTool {
 	 * @return copy result(true or false)
 	 */
 	public boolean includeFile(String targetDir, String targetFileName,
-			JspWriter out) {
+			Writer out) {
 
-		Path targetFile = new Path(convertInvalidChar(SysConfig.ROOT_DIR
-				+ targetDir + Path.SEPARATOR + targetFileName));
+		Path targetFile = new Path(convertInvalidChar(mount.toHdfsPath(targetDir)
+				+ Path.SEPARATOR + targetFileName));
 		FileStatus targetFileStatus = null;
 		FSDataInputStream is = null;
 
 		try {
+			Metrics.GET_FILE_STATUS.incrementAndGet();
 			targetFileStatus = dfs.getFileStatus(targetFile);
+			Metrics.OPEN.incrementAndGet();
 			is = dfs.open(targetFileStatus.getPath());
 			byte[] buffer = new byte[is.available()];
 			is.readFully(buffer);
@@ -420,15 +993,44 @@ public class HdfsTool {
 	public boolean copyRange(FileStatus targetFileStatus,
 			ServletOutputStream ostream, Range range) {
 		FSDataInputStream is = null;
+		DataNodeStats.Tracker tracker = null;
+		StreamParking parking = new StreamParking();
+		long start = System.nanoTime();
 		int bytesToRead = 0;
 		long shouldReadLength = range.end - range.start + 1;
 		long readedLength = 0;
-		byte[] buffer = new byte[BUFFER_SIZE];
+		Tunables tunables = Tunables.get();
+		byte[] buffer = new byte[positionalReads() ? tunables.preadBufferSize
+				: tunables.bufferSize];
 		try {
+			Metrics.OPEN.incrementAndGet();
 			is = dfs.open(targetFileStatus.getPath());
+			start = RequestTiming.add(RequestTiming.OPEN, start);
+			tracker = DataNodeStats.track(is, targetFileStatus.getPath());
 			is.seek(range.start);
-			while ((bytesToRead = is.read(buffer)) != -1) {
+			if (SysConfig.ZERO_COPY_READ) {
+				readedLength = copyZeroCopy(targetFileStatus, is, ostream,
+						shouldReadLength);
+				if (readedLength < 0) {
+					return true;
+				}
+			}
+			while (readedLength < shouldReadLength) {
+				tracker.start();
+				long position = -1;
+				if (positionalReads()) {
+					position = range.start + readedLength;
+					bytesToRead = is.read(position, buffer, 0, (int) Math.min(
+							buffer.length, shouldReadLength - readedLength));
+				} else {
+					bytesToRead = is.read(buffer);
+				}
+				parking.read(tracker.stop(bytesToRead, position));
+				if (bytesToRead == -1) {
+					break;
+				}
 				readedLength += bytesToRead;
+				long writeStart = System.nanoTime();
 				try {
 					if (readedLength >= shouldReadLength) {
 						ostream.write(buffer, 0, bytesToRead
@@ -438,6 +1040,7 @@ public class HdfsTool {
 						ostream.write(buffer, 0, bytesToRead);
 					}
 				} catch (IOException e) {
+					Metrics.CLIENT_ABORTS.incrementAndGet();
 					log.info("write file "
 							+ targetFileStatus.getPath()
 							+ " be aborted \n"
@@ -445,18 +1048,28 @@ public class HdfsTool {
 							e);
 					return true;
 				}
-
+				parking.wrote(System.nanoTime() - writeStart);
+				if (parking.shouldPark()) {
+					closeStream(targetFileStatus, is);
+					is = null;
+					StreamParking.copyParked(dfs, targetFileStatus, ostream,
+							range.start + readedLength, shouldReadLength
+									- readedLength);
+					break;
+				}
 			}
 		} catch (IOException e) {
 			log.error("read file " + targetFileStatus.getPath() + " error ", e);
 			return false;
 		} finally {
+			if (tracker != null) {
+				tracker.close();
+				RequestTiming.transfer(parking.getReadNanos(),
+						parking.getWriteNanos());
+				RequestTiming.add(RequestTiming.TRANSFER, start);
+			}
 			if (is != null) {
-				try {
-					is.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				closeStream(targetFileStatus, is);
 			}
 		}
 		return true;
@@ -494,30 +1107,10 @@ public class HdfsTool {
 	 * @return true if the user can read the object
 	 */
 	boolean hasReadPermission(FileStatus fileStatus) {
-		FsPermission permissions = fileStatus.getPermission();
-		boolean hasRead = false;
-		if (permissions.getOtherAction().equals(FsAction.READ_WRITE)
-				|| permissions.getOtherAction().equals(FsAction.READ)
-				|| permissions.getOtherAction().equals(FsAction.READ_EXECUTE)
-				|| permissions.getOtherAction().equals(FsAction.ALL))
-			hasRead = true;
-		else if (userName.equals(fileStatus.getOwner())
-				&& (permissions.getUserAction().equals(FsAction.READ_WRITE)
-						|| permissions.getUserAction().equals(FsAction.READ)
-						|| permissions.getUserAction().equals(
-								FsAction.READ_EXECUTE) || permissions
-						.getUserAction().equals(FsAction.ALL)))
-			hasRead = true;
-		else if (isGroupMember(fileStatus.getGroup(), groupNames)
-				&& (permissions.getGroupAction().equals(FsAction.READ_WRITE)
-						|| permissions.getGroupAction().equals(FsAction.READ)
-						|| permissions.getGroupAction().equals(
-								FsAction.READ_EXECUTE) || permissions
-						.getGroupAction().equals(FsAction.ALL)))
-			hasRead = true;
-		if (hasRead)
+		boolean hasRead = permissions.canRead(dfs, fileStatus);
+		if (hasRead && log.isDebugEnabled())
 			log.debug("PERMISSIONS: " + fileStatus.getPath().toString() + " - "
-					+ " read allowed for current process");
+					+ " read allowed for " + permissions.getUser());
 		return hasRead;
 	}
 
@@ -527,77 +1120,11 @@ public class HdfsTool {
 	 * @return true if the user can execute the object
 	 */
 	boolean hasExecutePermission(FileStatus fileStatus) {
-		boolean hasExcute = false;
-		FsPermission permissions = fileStatus.getPermission();
-		if (permissions.getOtherAction().equals(FsAction.READ_EXECUTE)
-				|| permissions.getOtherAction().equals(FsAction.ALL))
-			hasExcute = true;
-		else if (userName.equals(fileStatus.getOwner())
-				&& (permissions.getUserAction().equals(FsAction.READ_EXECUTE) || permissions
-						.getUserAction().equals(FsAction.ALL)))
-			hasExcute = true;
-		else if (isGroupMember(fileStatus.getGroup(), groupNames)
-				&& (permissions.getGroupAction().equals(FsAction.READ_EXECUTE) || permissions
-						.getGroupAction().equals(FsAction.ALL)))
-			hasExcute = true;
-		if (hasExcute)
+		boolean hasExcute = permissions.canExecute(dfs, fileStatus);
+		if (hasExcute && log.isDebugEnabled())
 			log.debug("PERMISSIONS: " + fileStatus.getPath().toString() + " - "
-					+ " execute allowed for current process");
+					+ " execute allowed for " + permissions.getUser());
 		return hasExcute;
 	}
 
-	/**
-	 * Checks if user is a member of the group
-	 * 
-	 * @param group
-	 *            to check
-	 * @return true if the user id a member of the group
-	 */
-	boolean isGroupMember(String group, String[] groups) {
-		for (String userGroup : groups) {
-			if (userGroup.equals(group)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	/**
-	 * Return an abbreviated English-language desc of the byte length
-	 */
-	static String byteDesc(long len) {
-		double val = 0.0;
-		String ending = "";
-		if (len < 1024) {
-			val = len;
-		} else if (len < 1024 * 1024) {
-			val = (1.0 * len) / 1024;
-			ending = "K";
-		} else if (len < 1024 * 1024 * 1024) {
-			val = (1.0 * len) / (1024 * 1024);
-			ending = "M";
-		} else if (len < 1024L * 1024 * 1024 * 1024) {
-			val = (1.0 * len) / (1024 * 1024 * 1024);
-			ending = "G";
-		} else if (len < 1024L * 1024 * 1024 * 1024 * 1024) {
-			val = (1.0 * len) / (1024L * 1024 * 1024 * 1024);
-			ending = "T";
-		} else {
-			val = (1.0 * len) / (1024L * 1024 * 1024 * 1024 * 1024);
-			ending = "P";
-		}
-		return limitDecimalTo2(val) + ending;
-	}
-
-	/**
-	 * format a number to string
-	 * 
-	 * @param d
-	 *            number
-	 * @return formatted number
-	 */
-	static synchronized String limitDecimalTo2(double d) {
-		return decimalFormat.format(d);
-	}
-
 }
@@ -0,0 +1,380 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The frequency of the requested paths, counted in a count-min sketch.
+ *
+ * Every served path increments one counter in each of the rows of the
+ * sketch and its frequency is the smallest of them, so a path is never
+ * underestimated and the memory doesn't grow with the number of paths.
+ * After ten times the width of increments all counters are halved, so
+ * the frequencies follow the recent traffic.
+ *
+ * The hot-paths-size most frequent paths are kept as the candidates of a
+ * top list, answered as JSON by hot-paths-path and written to
+ * hot-paths-file periodically, a restarted gateway reads them ahead of
+ * the traffic. The caches admit a new entry over their least recently
+ * used one only if its path is at least as frequent (TinyLFU), so a scan
+ * doesn't flush them.
+ */
+public class HotPaths {
+
+	static Logger log = Logger.getLogger(HotPaths.class);
+
+	private static final int DEPTH = 4;
+	private static final long[] SEEDS = { 0x9e3779b97f4a7c15L,
+			0xc2b2ae3d27d4eb4fL, 0x165667b19e3779f9L, 0x27d4eb2f165667c5L };
+
+	private static volatile HotPaths instance = null;
+
+	private final AtomicIntegerArray counters;
+	private final int mask;
+	private final long sampleSize;
+	private final AtomicLong additions = new AtomicLong();
+	private final int topSize;
+	// the candidates of the top list and their frequency when recorded
+	private final HashMap<String, Integer> top = new HashMap<String, Integer>();
+	private volatile int threshold = 0;
+
+	private HotPaths(int width, int topSize) {
+		int w = Integer.highestOneBit(Math.max(64, width));
+		if (w < width) {
+			w <<= 1;
+		}
+		this.counters = new AtomicIntegerArray(DEPTH * w);
+		this.mask = w - 1;
+		this.sampleSize = 10L * w;
+		this.topSize = topSize;
+	}
+
+	/**
+	 * @return the sketch, or null if hot-paths-size is 0
+	 */
+	static HotPaths get() {
+		HotPaths hot = instance;
+		if (hot == null && SysConfig.HOT_PATHS_SIZE > 0) {
+			synchronized (HotPaths.class) {
+				if (instance == null) {
+					instance = new HotPaths(SysConfig.HOT_PATHS_SKETCH_WIDTH,
+							SysConfig.HOT_PATHS_SIZE);
+					instance.scheduleSnapshots();
+				}
+				hot = instance;
+			}
+		}
+		return hot;
+	}
+
+	/**
+	 * count a request of a path
+	 *
+	 * @param target
+	 *            decoded URL path
+	 */
+	static void record(String target) {
+		HotPaths hot = get();
+		if (hot != null) {
+			hot.add(target, 1);
+		}
+	}
+
+	/**
+	 * @param target
+	 * @return the estimated number of recent requests of a path
+	 */
+	static int frequency(String target) {
+		HotPaths hot = get();
+		return hot == null ? 0 : hot.estimate(target);
+	}
+
+	/**
+	 * the admission of TinyLFU: a cache full of entries replaces its victim
+	 * only by a path at least as frequent. The request caching the
+	 * candidate is recorded when it is served, after its admission, so the
+	 * candidate is one request ahead of its count.
+	 *
+	 * @param candidate
+	 *            the path of the new entry
+	 * @param victim
+	 *            the path of the entry it would evict
+	 * @return true if the new entry should be cached
+	 */
+	static boolean admit(String candidate, String victim) {
+		HotPaths hot = get();
+		return hot == null || hot.estimate(candidate) >= hot.estimate(victim);
+	}
+
+	private int index(int row, long hash) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h ^= h >>> 32;
+		return row * (mask + 1) + ((int) h & mask);
+	}
+
+	private static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private void add(String target, int count) {
+		long hash = hash(target);
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate,
+					counters.addAndGet(index(row, hash), count));
+		}
+		if (additions.addAndGet(count) >= sampleSize) {
+			age();
+		}
+		if (estimate > threshold) {
+			offer(target, estimate);
+		}
+	}
+
+	private int estimate(String target) {
+		long hash = hash(target);
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, counters.get(index(row, hash)));
+		}
+		return estimate;
+	}
+
+	/**
+	 * halve all counters, the increments of other threads meanwhile may be
+	 * halved or not
+	 */
+	private synchronized void age() {
+		if (additions.get() < sampleSize) {
+			return;
+		}
+		for (int i = 0; i < counters.length(); i++) {
+			int value;
+			do {
+				value = counters.get(i);
+			} while (!counters.compareAndSet(i, value, value >>> 1));
+		}
+		additions.addAndGet(-sampleSize / 2);
+		synchronized (top) {
+			prune(topSize);
+		}
+	}
+
+	private void offer(String target, int estimate) {
+		synchronized (top) {
+			top.put(target, estimate);
+			if (top.size() >= 2 * topSize) {
+				prune(topSize);
+			}
+		}
+	}
+
+	/**
+	 * keep the most frequent candidates by their current frequency, the
+	 * least of them is the threshold of a new candidate
+	 */
+	private void prune(int size) {
+		List<Map.Entry<String, Integer>> entries = sortedTop();
+		top.clear();
+		for (Map.Entry<String, Integer> e : entries.subList(0,
+				Math.min(size, entries.size()))) {
+			top.put(e.getKey(), e.getValue());
+		}
+		threshold = top.size() < size ? 0 : entries.get(size - 1).getValue();
+	}
+
+	private List<Map.Entry<String, Integer>> sortedTop() {
+		HashMap<String, Integer> current = new HashMap<String, Integer>();
+		for (String target : top.keySet()) {
+			current.put(target, estimate(target));
+		}
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(
+				current.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+			@Override
+			public int compare(Map.Entry<String, Integer> a,
+					Map.Entry<String, Integer> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		return entries;
+	}
+
+	/**
+	 * @return the most frequent paths and their frequency, the most
+	 *         frequent first
+	 */
+	List<Map.Entry<String, Integer>> getTop() {
+		List<Map.Entry<String, Integer>> entries;
+		synchronized (top) {
+			entries = sortedTop();
+		}
+		return entries.subList(0, Math.min(topSize, entries.size()));
+	}
+
+	/**
+	 * the top list as JSON
+	 */
+	static void write(StringBuilder out) {
+		HotPaths hot = get();
+		out.append("{\"paths\":[");
+		if (hot != null) {
+			boolean first = true;
+			for (Map.Entry<String, Integer> e : hot.getTop()) {
+				if (!first) {
+					out.append(',');
+				}
+				first = false;
+				out.append("{\"path\":");
+				appendString(out, e.getKey());
+				out.append(",\"frequency\":").append(e.getValue()).append('}');
+			}
+		}
+		out.append("]}\n");
+	}
+
+	private static void appendString(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		out.append('"');
+	}
+
+	private void scheduleSnapshots() {
+		if (SysConfig.HOT_PATHS_FILE.length() == 0
+				|| SysConfig.HOT_PATHS_SNAPSHOT_INTERVAL_MS <= 0) {
+			return;
+		}
+		ThreadPools.newScheduledPool("hot-paths", 1).scheduleWithFixedDelay(
+				new Runnable() {
+					@Override
+					public void run() {
+						save();
+					}
+				}, SysConfig.HOT_PATHS_SNAPSHOT_INTERVAL_MS,
+				SysConfig.HOT_PATHS_SNAPSHOT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * write the top list to hot-paths-file, one "frequency path" a line, a
+	 * temporary file is renamed so a reader never sees a half written list
+	 */
+	private void save() {
+		List<Map.Entry<String, Integer>> entries = getTop();
+		if (entries.isEmpty()) {
+			return;
+		}
+		File dst = new File(SysConfig.HOT_PATHS_FILE);
+		File tmp = new File(dst.getPath() + ".tmp");
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(tmp), "UTF-8"));
+			try {
+				for (Map.Entry<String, Integer> e : entries) {
+					out.write(e.getValue() + " " + e.getKey() + "\n");
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(dst)) {
+				dst.delete();
+				if (!tmp.renameTo(dst)) {
+					throw new IOException("can't rename " + tmp + " to " + dst);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("write hot paths " + dst + " error", e);
+		}
+	}
+
+	/**
+	 * read the top list of the previous run, the sketch starts with half of
+	 * its frequencies
+	 *
+	 * @return the paths, the most frequent first
+	 */
+	static List<String> load() {
+		List<String> targets = new ArrayList<String>();
+		HotPaths hot = get();
+		if (hot == null || SysConfig.HOT_PATHS_FILE.length() == 0) {
+			return targets;
+		}
+		File file = new File(SysConfig.HOT_PATHS_FILE);
+		if (!file.exists()) {
+			return targets;
+		}
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					int space = line.indexOf(' ');
+					if (space <= 0) {
+						continue;
+					}
+					String target = line.substring(space + 1);
+					int frequency = Integer.parseInt(line.substring(0, space));
+					hot.add(target, Math.max(1, frequency / 2));
+					targets.add(target);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			log.warn("read hot paths " + file + " error", e);
+		} catch (NumberFormatException e) {
+			log.warn("hot paths " + file + " is invalid", e);
+		}
+		return targets;
+	}
+}
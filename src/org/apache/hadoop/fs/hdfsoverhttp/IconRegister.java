@@ -18,38 +18,43 @@
 
 package org.apache.hadoop.fs.hdfsoverhttp;
 
-import java.io.File;
 import java.util.HashMap;
+import java.util.Set;
+
+import javax.servlet.ServletContext;
 
 public class IconRegister {
 
 	private static HashMap<String, String> iconHm;
 
 	/**
-	 * get icon file's name
+	 * get icon file's name, the icons are the resources of the context under
+	 * /.icons/, so they are found in a war and in a jar
 	 * 
-	 * @param iconPath
+	 * @param context
 	 * @param fileExt
 	 * @return icon file name
 	 */
-	static public String getIcon(String iconPath, String fileExt) {
+	static public String getIcon(ServletContext context, String fileExt) {
 		String iconFileName;
 		String iconfFileExt;
 
 		if (iconHm == null) {
-			File iconDir = new File(iconPath);
-			File[] iconFiles = iconDir.listFiles();
+			Set<String> iconFiles = context.getResourcePaths("/.icons/");
 			if (iconFiles == null) {
-				throw new RuntimeException("can't find the folder of "
-						+ iconPath);
+				throw new RuntimeException("can't find the folder of /.icons");
 			}
-			iconHm = new HashMap<String, String>();
-			for (int i = 0; i < iconFiles.length; i++) {
-				iconFileName = iconFiles[i].getName();
+			HashMap<String, String> icons = new HashMap<String, String>();
+			for (String iconFile : iconFiles) {
+				iconFileName = iconFile.substring(iconFile.lastIndexOf("/") + 1);
+				if (iconFileName.lastIndexOf(".") < 0) {
+					continue;
+				}
 				iconfFileExt = iconFileName.substring(0,
 						iconFileName.lastIndexOf("."));
-				iconHm.put(iconfFileExt, iconFileName);
+				icons.put(iconfFileExt, iconFileName);
 			}
+			iconHm = icons;
 		}
 		iconFileName = iconHm.get(fileExt);
 		if (iconFileName == null)
@@ -0,0 +1,378 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.log4j.Logger;
+
+/**
+ * Sparse index of the line offsets of a text file. It records the byte
+ * offset of every Kth line, so a line can be reached by seeking to the
+ * nearest recorded line and scanning at most K lines.
+ *
+ * An index is built in the background and checkpointed into a sidecar file
+ * named after the path and ETag of the file, either on local disk or on
+ * HDFS. A build interrupted by a restart resumes from its last checkpoint,
+ * and a partial index is already used for the lines it covers.
+ */
+public class LineIndex implements Runnable {
+
+	static Logger log = Logger.getLogger(LineIndex.class);
+
+	private static final int MAGIC = 0x484f4c49;
+	private static final int VERSION = 1;
+	private static final long CHECKPOINT_INTERVAL_MS = 10 * 1000L;
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int CACHE_SIZE = 64;
+
+	private static ExecutorService builders = null;
+	private static final ConcurrentHashMap<String, LineIndex> building = new ConcurrentHashMap<String, LineIndex>();
+	private static final LinkedHashMap<String, LineIndex> cache = new LinkedHashMap<String, LineIndex>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LineIndex> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private final FileSystem dfs;
+	private final FileStatus fileStatus;
+	private final String key;
+	private final int interval;
+	// offsets[i] is the offset of line (i + 1) * interval + 1
+	private long[] offsets = new long[16];
+	private int size = 0;
+	// the offset and line number where the scan stopped
+	private long scannedOffset = 0;
+	private long scannedLines = 0;
+	private boolean complete = false;
+	private long totalLines = -1;
+
+	private LineIndex(FileSystem dfs, FileStatus fileStatus, String key,
+			int interval) {
+		this.dfs = dfs;
+		this.fileStatus = fileStatus;
+		this.key = key;
+		this.interval = interval;
+	}
+
+	/**
+	 * get the index of a file, a build is started in the background if it is
+	 * missing or incomplete
+	 *
+	 * @param dfs
+	 * @param fileStatus
+	 * @return line index, maybe partial
+	 */
+	static LineIndex get(FileSystem dfs, FileStatus fileStatus) {
+		String key = key(fileStatus);
+		LineIndex index = building.get(key);
+		if (index != null) {
+			return index;
+		}
+		synchronized (cache) {
+			index = cache.get(key);
+		}
+		if (index != null && index.isComplete()) {
+			return index;
+		}
+		index = new LineIndex(dfs, fileStatus, key, SysConfig.LINE_INDEX_INTERVAL);
+		try {
+			index.load();
+		} catch (IOException e) {
+			log.warn("load line index of " + fileStatus.getPath() + " error ", e);
+			index = new LineIndex(dfs, fileStatus, key,
+					SysConfig.LINE_INDEX_INTERVAL);
+		}
+		if (!index.isComplete()) {
+			LineIndex other = building.putIfAbsent(key, index);
+			if (other != null) {
+				return other;
+			}
+			getBuilders().execute(index);
+		}
+		synchronized (cache) {
+			cache.put(key, index);
+		}
+		return index;
+	}
+
+	private static synchronized ExecutorService getBuilders() {
+		if (builders == null) {
+			builders = ThreadPools.newFixedPool("line-index",
+					SysConfig.LINE_INDEX_THREADS);
+		}
+		return builders;
+	}
+
+	/**
+	 * the sidecar name is built from the path and the parts of the ETag, so
+	 * a rewritten file gets a new index. The path includes the cluster, the
+	 * mounts may publish the same path of different clusters.
+	 */
+	private static String key(FileStatus fileStatus) {
+		return MD5Hash.digest(fileStatus.getPath().toString()).toString()
+				+ "-"
+				+ fileStatus.getLen()
+				+ "-"
+				+ fileStatus.getModificationTime();
+	}
+
+	/**
+	 * find the nearest indexed line at or before a line
+	 *
+	 * @param line
+	 *            line number, starting from 1
+	 * @return line number and its byte offset
+	 */
+	synchronized long[] floor(long line) {
+		long i = (line - 1) / interval - 1;
+		if (i < 0 || size == 0) {
+			return new long[] { 1, 0 };
+		}
+		if (i >= size) {
+			i = size - 1;
+		}
+		return new long[] { (i + 1) * interval + 1, offsets[(int) i] };
+	}
+
+	synchronized boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the number of lines of the file, -1 if it isn't known yet
+	 */
+	synchronized long getTotalLines() {
+		return totalLines;
+	}
+
+	private synchronized void add(long offset) {
+		if (size == offsets.length) {
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		offsets[size++] = offset;
+	}
+
+	@Override
+	public void run() {
+		try {
+			build();
+		} catch (IOException e) {
+			log.error("build line index of " + fileStatus.getPath()
+					+ " error ", e);
+		} finally {
+			building.remove(key);
+		}
+	}
+
+	private void build() throws IOException {
+		long offset;
+		long lines;
+		synchronized (this) {
+			offset = scannedOffset;
+			lines = scannedLines;
+		}
+		log.info("build line index of " + fileStatus.getPath() + " from "
+				+ offset);
+		long lastCheckpoint = System.currentTimeMillis();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		boolean endsWithNewline = true;
+		Metrics.OPEN.incrementAndGet();
+		FSDataInputStream is = dfs.open(fileStatus.getPath());
+		try {
+			is.seek(offset);
+			int bytesToRead;
+			while ((bytesToRead = is.read(buffer)) != -1) {
+				for (int i = 0; i < bytesToRead; i++) {
+					if (buffer[i] == '\n') {
+						lines++;
+						if (lines % interval == 0) {
+							add(offset + i + 1);
+						}
+					}
+				}
+				offset += bytesToRead;
+				endsWithNewline = buffer[bytesToRead - 1] == '\n';
+				synchronized (this) {
+					scannedOffset = offset;
+					scannedLines = lines;
+				}
+				if (System.currentTimeMillis() - lastCheckpoint > CHECKPOINT_INTERVAL_MS) {
+					save();
+					lastCheckpoint = System.currentTimeMillis();
+				}
+			}
+		} finally {
+			is.close();
+		}
+		synchronized (this) {
+			totalLines = (offset > 0 && !endsWithNewline) ? lines + 1 : lines;
+			complete = true;
+		}
+		save();
+		log.info("line index of " + fileStatus.getPath() + " is built, "
+				+ totalLines + " lines");
+	}
+
+	/**
+	 * write the index into its sidecar file, a temporary file is renamed so a
+	 * reader never sees a half written index
+	 */
+	private void save() throws IOException {
+		long[] snapshot;
+		int count;
+		long offset;
+		long lines;
+		boolean done;
+		long total;
+		synchronized (this) {
+			snapshot = offsets;
+			count = size;
+			offset = scannedOffset;
+			lines = scannedLines;
+			done = complete;
+			total = totalLines;
+		}
+		String name = key + ".lidx";
+		if (SysConfig.LINE_INDEX_ON_HDFS) {
+			Path dir = new Path(SysConfig.LINE_INDEX_DIR);
+			Path tmp = new Path(dir, name + ".tmp");
+			write(dfs.create(tmp, true), snapshot, count, offset, lines, done,
+					total);
+			Path dst = new Path(dir, name);
+			dfs.delete(dst, false);
+			if (!dfs.rename(tmp, dst)) {
+				throw new IOException("can't rename " + tmp + " to " + dst);
+			}
+		} else {
+			File dir = new File(SysConfig.LINE_INDEX_DIR);
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("can't create " + dir);
+			}
+			File tmp = new File(dir, name + ".tmp");
+			write(new FileOutputStream(tmp), snapshot, count, offset, lines,
+					done, total);
+			File dst = new File(dir, name);
+			if (!tmp.renameTo(dst)) {
+				dst.delete();
+				if (!tmp.renameTo(dst)) {
+					throw new IOException("can't rename " + tmp + " to " + dst);
+				}
+			}
+		}
+	}
+
+	private void write(OutputStream os, long[] snapshot, int count,
+			long offset, long lines, boolean done, long total)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				os));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(interval);
+			out.writeBoolean(done);
+			out.writeLong(total);
+			out.writeLong(offset);
+			out.writeLong(lines);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeLong(snapshot[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * read the index from its sidecar file if it exists
+	 */
+	private void load() throws IOException {
+		String name = key + ".lidx";
+		InputStream is;
+		if (SysConfig.LINE_INDEX_ON_HDFS) {
+			Path path = new Path(SysConfig.LINE_INDEX_DIR, name);
+			Metrics.EXISTS.incrementAndGet();
+			if (!dfs.exists(path)) {
+				return;
+			}
+			Metrics.OPEN.incrementAndGet();
+			is = dfs.open(path);
+		} else {
+			File file = new File(SysConfig.LINE_INDEX_DIR, name);
+			if (!file.exists()) {
+				return;
+			}
+			is = new FileInputStream(file);
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readInt() != interval) {
+				// written by another version or with another interval
+				return;
+			}
+			boolean done = in.readBoolean();
+			long total = in.readLong();
+			long offset = in.readLong();
+			long lines = in.readLong();
+			int count = in.readInt();
+			long[] loaded = new long[Math.max(16, count)];
+			for (int i = 0; i < count; i++) {
+				loaded[i] = in.readLong();
+			}
+			synchronized (this) {
+				offsets = loaded;
+				size = count;
+				scannedOffset = offset;
+				scannedLines = lines;
+				complete = done;
+				totalLines = total;
+			}
+		} catch (EOFException e) {
+			log.warn("line index " + name + " is truncated, rebuild it");
+		} finally {
+			in.close();
+		}
+	}
+}
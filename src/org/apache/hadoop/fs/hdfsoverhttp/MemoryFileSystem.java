@@ -0,0 +1,558 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * A file system in memory, mem://name/ is a tree shared by all the
+ * instances of the JVM with that name. It serves the gateway without a
+ * cluster, so a load test measures the gateway alone; the latency of a
+ * cluster can be added back:
+ *
+ * fs.mem.latency.ms is added to every call like a call to the NameNode
+ * (stat, list, open, checksum), fs.mem.read.latency.ms to every read and
+ * fs.mem.bandwidth limits every stream to that many bytes per second.
+ *
+ * A file is kept in chunks, a chunk equal to the previous one of the file
+ * is shared, so the big files of a repeated pattern written by the load
+ * test take little heap. The checksum of a file is its MD5, computed when
+ * it is written.
+ */
+public class MemoryFileSystem extends FileSystem {
+
+	static final String SCHEME = "mem";
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	private static final long BLOCK_SIZE = 128 * 1024 * 1024;
+
+	private static final ConcurrentHashMap<String, Node> trees = new ConcurrentHashMap<String, Node>();
+
+	private URI uri;
+	private Node root;
+	private Path workingDir = new Path(Path.SEPARATOR);
+	private String owner;
+	private String group;
+	private long latencyMs;
+	private long readLatencyMs;
+	private long bandwidth;
+
+	@Override
+	public void initialize(URI name, Configuration conf) throws IOException {
+		super.initialize(name, conf);
+		setConf(conf);
+		String authority = name.getAuthority() == null ? "" : name
+				.getAuthority();
+		uri = URI.create(SCHEME + "://" + authority + Path.SEPARATOR);
+		Node created = new Node(true, FsPermission.getDirDefault());
+		root = trees.putIfAbsent(authority, created);
+		if (root == null) {
+			root = created;
+		}
+		UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
+		owner = ugi.getShortUserName();
+		group = ugi.getGroupNames().length > 0 ? ugi.getGroupNames()[0]
+				: "supergroup";
+		latencyMs = conf.getLong("fs.mem.latency.ms", 0);
+		readLatencyMs = conf.getLong("fs.mem.read.latency.ms", 0);
+		bandwidth = conf.getLong("fs.mem.bandwidth", 0);
+	}
+
+	@Override
+	public String getScheme() {
+		return SCHEME;
+	}
+
+	@Override
+	public URI getUri() {
+		return uri;
+	}
+
+	@Override
+	public FileStatus getFileStatus(Path f) throws IOException {
+		pause(latencyMs);
+		return toStatus(find(f), makeQualified(f));
+	}
+
+	@Override
+	public FileStatus[] listStatus(Path f) throws IOException {
+		pause(latencyMs);
+		Path path = makeQualified(f);
+		Node node = find(path);
+		if (!node.dir) {
+			return new FileStatus[] { toStatus(node, path) };
+		}
+		ArrayList<FileStatus> list = new ArrayList<FileStatus>();
+		for (java.util.Map.Entry<String, Node> e : node.children.entrySet()) {
+			list.add(toStatus(e.getValue(), new Path(path, e.getKey())));
+		}
+		return list.toArray(new FileStatus[list.size()]);
+	}
+
+	@Override
+	public FSDataInputStream open(Path f, int bufferSize) throws IOException {
+		pause(latencyMs);
+		Node node = find(f);
+		if (node.dir) {
+			throw new FileNotFoundException(f + " is a directory");
+		}
+		return new FSDataInputStream(new MemoryInputStream(node.content));
+	}
+
+	@Override
+	public FileChecksum getFileChecksum(Path f) throws IOException {
+		pause(latencyMs);
+		Node node = find(f);
+		return node.dir ? null : node.content.checksum;
+	}
+
+	@Override
+	public FSDataOutputStream create(Path f, FsPermission permission,
+			boolean overwrite, int bufferSize, short replication,
+			long blockSize, Progressable progress) throws IOException {
+		Path path = makeQualified(f);
+		Node parent = mkdir(path.getParent());
+		Node existing = parent.children.get(path.getName());
+		if (existing != null && (existing.dir || !overwrite)) {
+			throw new FileAlreadyExistsException(path + " exists");
+		}
+		return new FSDataOutputStream(new MemoryOutputStream(parent,
+				path.getName(), permission), statistics);
+	}
+
+	@Override
+	public FSDataOutputStream append(Path f, int bufferSize,
+			Progressable progress) throws IOException {
+		throw new IOException("append isn't supported by " + SCHEME);
+	}
+
+	@Override
+	public boolean rename(Path src, Path dst) throws IOException {
+		Path from = makeQualified(src);
+		Path to = makeQualified(dst);
+		Node fromParent = findOrNull(from.getParent());
+		Node node = fromParent == null ? null : fromParent.children.get(from
+				.getName());
+		if (node == null || from.getParent() == null) {
+			return false;
+		}
+		Node target = findOrNull(to);
+		if (target != null && target.dir) {
+			to = new Path(to, from.getName());
+		} else if (target != null) {
+			return false;
+		}
+		Node toParent = findOrNull(to.getParent());
+		if (toParent == null || !toParent.dir
+				|| toParent.children.putIfAbsent(to.getName(), node) != null) {
+			return false;
+		}
+		fromParent.children.remove(from.getName(), node);
+		return true;
+	}
+
+	@Override
+	public boolean delete(Path f, boolean recursive) throws IOException {
+		Path path = makeQualified(f);
+		Node parent = findOrNull(path.getParent());
+		Node node = parent == null ? null : parent.children.get(path
+				.getName());
+		if (node == null) {
+			return false;
+		}
+		if (node.dir && !recursive && !node.children.isEmpty()) {
+			throw new IOException(path + " is a non empty directory");
+		}
+		return parent.children.remove(path.getName(), node);
+	}
+
+	@Override
+	public void setWorkingDirectory(Path dir) {
+		workingDir = makeQualified(dir);
+	}
+
+	@Override
+	public Path getWorkingDirectory() {
+		return workingDir;
+	}
+
+	@Override
+	public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+		mkdir(makeQualified(f), permission);
+		return true;
+	}
+
+	private Node mkdir(Path path) throws IOException {
+		return mkdir(path, FsPermission.getDirDefault());
+	}
+
+	/**
+	 * @return the directory, it and its parents are created if missing
+	 */
+	private Node mkdir(Path path, FsPermission permission) throws IOException {
+		if (path.getParent() == null) {
+			return root;
+		}
+		Node parent = mkdir(path.getParent(), permission);
+		Node created = new Node(true, permission.applyUMask(FsPermission
+				.getUMask(getConf())));
+		Node node = parent.children.putIfAbsent(path.getName(), created);
+		if (node == null) {
+			return created;
+		}
+		if (!node.dir) {
+			throw new FileAlreadyExistsException(path + " is a file");
+		}
+		return node;
+	}
+
+	private Node find(Path f) throws IOException {
+		Node node = findOrNull(f);
+		if (node == null) {
+			throw new FileNotFoundException(f + " doesn't exist");
+		}
+		return node;
+	}
+
+	private Node findOrNull(Path f) {
+		if (f == null) {
+			return null;
+		}
+		Node node = root;
+		for (String name : makeQualified(f).toUri().getPath()
+				.split(Path.SEPARATOR)) {
+			if (name.length() == 0) {
+				continue;
+			}
+			node = node.dir ? node.children.get(name) : null;
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	private FileStatus toStatus(Node node, Path path) {
+		return new FileStatus(node.dir ? 0 : node.content.length, node.dir,
+				1, BLOCK_SIZE, node.modificationTime, node.modificationTime,
+				node.permission, owner, group, path);
+	}
+
+	private static void pause(long ms) throws IOException {
+		if (ms > 0) {
+			sleep(ms * 1000000L);
+		}
+	}
+
+	private static void sleep(long nanos) throws IOException {
+		try {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted");
+		}
+	}
+
+	/**
+	 * a file or a directory of the tree
+	 */
+	private static class Node {
+		final boolean dir;
+		final ConcurrentSkipListMap<String, Node> children;
+		final FsPermission permission;
+		final Content content;
+		final long modificationTime = System.currentTimeMillis();
+
+		Node(boolean dir, FsPermission permission) {
+			this(dir, permission, null);
+		}
+
+		Node(boolean dir, FsPermission permission, Content content) {
+			this.dir = dir;
+			this.children = dir ? new ConcurrentSkipListMap<String, Node>()
+					: null;
+			this.permission = permission;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * the bytes of a file, immutable once written
+	 */
+	private static class Content {
+		final byte[][] chunks;
+		final long length;
+		final MD5Checksum checksum;
+
+		Content(byte[][] chunks, long length, MD5Checksum checksum) {
+			this.chunks = chunks;
+			this.length = length;
+			this.checksum = checksum;
+		}
+	}
+
+	/**
+	 * writes a file in chunks, the file appears when it is closed
+	 */
+	private class MemoryOutputStream extends OutputStream {
+		private final Node parent;
+		private final String name;
+		private final FsPermission permission;
+		private final ArrayList<byte[]> chunks = new ArrayList<byte[]>();
+		private final MessageDigest digest;
+		private byte[] chunk = new byte[CHUNK_SIZE];
+		private int used = 0;
+		private long length = 0;
+		private boolean closed = false;
+
+		MemoryOutputStream(Node parent, String name, FsPermission permission)
+				throws IOException {
+			this.parent = parent;
+			this.name = name;
+			this.permission = permission;
+			try {
+				digest = MessageDigest.getInstance("MD5");
+			} catch (NoSuchAlgorithmException e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("stream is closed");
+			}
+			digest.update(b, off, len);
+			length += len;
+			while (len > 0) {
+				int n = Math.min(len, CHUNK_SIZE - used);
+				System.arraycopy(b, off, chunk, used, n);
+				used += n;
+				off += n;
+				len -= n;
+				if (used == CHUNK_SIZE) {
+					addChunk(chunk);
+					chunk = new byte[CHUNK_SIZE];
+					used = 0;
+				}
+			}
+		}
+
+		private void addChunk(byte[] full) {
+			byte[] last = chunks.isEmpty() ? null : chunks
+					.get(chunks.size() - 1);
+			chunks.add(Arrays.equals(last, full) ? last : full);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (used > 0) {
+				addChunk(Arrays.copyOf(chunk, used));
+			}
+			Content content = new Content(chunks.toArray(new byte[chunks
+					.size()][]), length, new MD5Checksum(digest.digest()));
+			parent.children.put(name, new Node(false, permission
+					.applyUMask(FsPermission.getUMask(getConf())), content));
+		}
+	}
+
+	/**
+	 * reads a file, each read is delayed by the read latency and the
+	 * bandwidth
+	 */
+	private class MemoryInputStream extends FSInputStream {
+		private final Content content;
+		private final long start = System.nanoTime();
+		private long pos = 0;
+		private long bytesRead = 0;
+		private boolean closed = false;
+
+		MemoryInputStream(Content content) {
+			this.content = content;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		/**
+		 * the injected latency is slept outside the monitor, a virtual
+		 * thread sleeping in it would be pinned to its carrier
+		 */
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long at;
+			synchronized (this) {
+				at = pos;
+			}
+			int n = read(at, b, off, len);
+			if (n > 0) {
+				synchronized (this) {
+					pos = at + n;
+				}
+			}
+			return n;
+		}
+
+		@Override
+		public int read(long position, byte[] b, int off, int len)
+				throws IOException {
+			if (closed) {
+				throw new IOException("stream is closed");
+			}
+			if (len == 0) {
+				return 0;
+			}
+			if (position >= content.length) {
+				return -1;
+			}
+			int n = (int) Math.min(len, content.length - position);
+			int done = 0;
+			while (done < n) {
+				long at = position + done;
+				byte[] chunk = content.chunks[(int) (at / CHUNK_SIZE)];
+				int inChunk = (int) (at % CHUNK_SIZE);
+				int m = Math.min(n - done, chunk.length - inChunk);
+				System.arraycopy(chunk, inChunk, b, off + done, m);
+				done += m;
+			}
+			throttle(n);
+			return n;
+		}
+
+		private void throttle(int n) throws IOException {
+			pause(readLatencyMs);
+			if (bandwidth > 0) {
+				long due;
+				synchronized (this) {
+					bytesRead += n;
+					due = start + bytesRead * 1000000000L / bandwidth;
+				}
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					sleep(wait);
+				}
+			}
+		}
+
+		@Override
+		public synchronized void seek(long position) throws IOException {
+			if (position < 0 || position > content.length) {
+				throw new EOFException("seek to " + position + " of "
+						+ content.length);
+			}
+			pos = position;
+		}
+
+		@Override
+		public synchronized long getPos() {
+			return pos;
+		}
+
+		@Override
+		public boolean seekToNewSource(long targetPos) {
+			return false;
+		}
+
+		@Override
+		public synchronized int available() {
+			return (int) Math.min(Integer.MAX_VALUE, content.length - pos);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * the MD5 of the content of a file
+	 */
+	static class MD5Checksum extends FileChecksum {
+		private byte[] md5;
+
+		MD5Checksum(byte[] md5) {
+			this.md5 = md5;
+		}
+
+		@Override
+		public String getAlgorithmName() {
+			return "MD5";
+		}
+
+		@Override
+		public int getLength() {
+			return md5.length;
+		}
+
+		@Override
+		public byte[] getBytes() {
+			return md5;
+		}
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeInt(md5.length);
+			out.write(md5);
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			md5 = new byte[in.readInt()];
+			in.readFully(md5);
+		}
+	}
+}
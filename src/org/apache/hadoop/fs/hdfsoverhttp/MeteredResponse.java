@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A response which counts the bytes of its body and the time to the first
+ * of them. The counts are kept in the response and added to the metrics
+ * when the request is finished.
+ *
+ * The phases of the request done before the response is committed are
+ * sent in a Server-Timing header, all of them are written to the access
+ * log and a request slower than slow-request-ms is logged in detail.
+ */
+public class MeteredResponse extends HttpServletResponseWrapper {
+
+	static Logger log = Logger.getLogger(MeteredResponse.class);
+
+	private final RequestTiming timing = RequestTiming.start();
+	private MeteredOutputStream stream = null;
+	private boolean timingSent = false;
+
+	public MeteredResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (stream == null) {
+			stream = new MeteredOutputStream(super.getOutputStream());
+		}
+		return stream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		sendTiming();
+		return super.getWriter();
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		sendTiming();
+		super.sendError(sc, msg);
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		sendTiming();
+		super.sendError(sc);
+	}
+
+	@Override
+	public void sendRedirect(String location) throws IOException {
+		sendTiming();
+		super.sendRedirect(location);
+	}
+
+	/**
+	 * add the Server-Timing header once, before the response is committed
+	 */
+	private void sendTiming() {
+		if (!timingSent && SysConfig.SERVER_TIMING && !isCommitted()) {
+			timingSent = true;
+			setHeader("Server-Timing", timing.toServerTiming());
+		}
+	}
+
+	/**
+	 * add the request to the metrics
+	 *
+	 * @param request
+	 * @param failed
+	 *            true if the request ended by an exception
+	 */
+	void finish(HttpServletRequest request, boolean failed) {
+		record(request, failed);
+		timing.end();
+	}
+
+	/**
+	 * add the request to the metrics when its async context completes, the
+	 * body of a followed file is sent after service() returned
+	 *
+	 * @param request
+	 *            a request in async mode
+	 */
+	void finishOnComplete(final HttpServletRequest request) {
+		timing.end();
+		request.getAsyncContext().addListener(new AsyncListener() {
+			@Override
+			public void onComplete(AsyncEvent event) {
+				record(request, false);
+			}
+
+			// an error or a timeout completes the context too, the status
+			// was sent already
+			@Override
+			public void onError(AsyncEvent event) {
+			}
+
+			@Override
+			public void onTimeout(AsyncEvent event) {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+	}
+
+	private void record(HttpServletRequest request, boolean failed) {
+		sendTiming();
+		long bytes = 0;
+		long firstByteNanos = -1;
+		if (stream != null) {
+			bytes = stream.bytes;
+			Metrics.BYTES_SERVED.addAndGet(bytes);
+			if (stream.started) {
+				firstByteNanos = stream.firstByteNanos
+						- timing.getStartNanos();
+				Metrics.ACTIVE_STREAMS.decrementAndGet();
+			}
+		}
+		if (request.getAttribute(FileDownloadServlet.SENDFILE_FILENAME) != null) {
+			// the body is sent by the container after the request
+			long sent = (Long) request
+					.getAttribute(FileDownloadServlet.SENDFILE_END)
+					- (Long) request
+							.getAttribute(FileDownloadServlet.SENDFILE_START);
+			bytes += sent;
+			Metrics.BYTES_SERVED.addAndGet(sent);
+		}
+		String endpoint = (String) request.getAttribute(Metrics.ENDPOINT);
+		if (endpoint == null) {
+			endpoint = "other";
+		}
+		int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+				: getStatus();
+		long elapsed = timing.getElapsedNanos();
+		Metrics.recordRequest(endpoint, status, elapsed, firstByteNanos);
+		AccessLog.log(request.getMethod(), request.getRequestURI(),
+				request.getRemoteAddr(), endpoint, status, bytes,
+				firstByteNanos, elapsed, timing);
+		if (elapsed > Tunables.get().slowRequestMs * 1000000L) {
+			log.warn("slow request " + request.getMethod() + " "
+					+ request.getRequestURI()
+					+ (request.getQueryString() == null ? "" : "?"
+							+ request.getQueryString()) + " from "
+					+ request.getRemoteAddr() + " took " + elapsed / 1000000
+					+ " ms: status=" + status + " endpoint=" + endpoint
+					+ " bytes=" + bytes + " ttfb="
+					+ (firstByteNanos < 0 ? -1 : firstByteNanos / 1000000)
+					+ "ms " + timing.describe() + " range="
+					+ request.getHeader("Range") + " user-agent="
+					+ request.getHeader("User-Agent"));
+		}
+	}
+
+	/**
+	 * the output stream of the response, a stream is active from its first
+	 * byte to the end of the request
+	 */
+	private class MeteredOutputStream extends ServletOutputStream {
+		private final ServletOutputStream out;
+		private long bytes = 0;
+		private boolean started = false;
+		private long firstByteNanos;
+
+		MeteredOutputStream(ServletOutputStream out) {
+			this.out = out;
+		}
+
+		private void count(int n) {
+			if (!started) {
+				started = true;
+				sendTiming();
+				firstByteNanos = System.nanoTime();
+				Metrics.ACTIVE_STREAMS.incrementAndGet();
+			}
+			bytes += n;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			count(1);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			count(len);
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return out.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			out.setWriteListener(writeListener);
+		}
+	}
+}
@@ -0,0 +1,439 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Registry of the counters, gauges and latency histograms of the gateway.
+ *
+ * The metrics are exposed as the attributes of the
+ * hdfsoverhttp:type=Metrics MBean and in the Prometheus text format on
+ * metrics-path. A sample is an AtomicLong, the hot paths keep their own
+ * sums and add them once per request, so recording costs no shared write
+ * per read or write of a download.
+ */
+public class Metrics implements DynamicMBean {
+
+	static Logger log = Logger.getLogger(Metrics.class);
+
+	/**
+	 * the request attribute naming the endpoint of a request
+	 */
+	static final String ENDPOINT = Metrics.class.getName() + ".endpoint";
+
+	/**
+	 * upper bounds of the latency buckets in seconds
+	 */
+	private static final double[] BUCKETS = { 0.001, 0.0025, 0.005, 0.01,
+			0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300 };
+	private static final long[] BUCKET_NANOS = new long[BUCKETS.length];
+
+	static {
+		for (int i = 0; i < BUCKETS.length; i++) {
+			BUCKET_NANOS[i] = (long) (BUCKETS[i] * 1e9);
+		}
+	}
+
+	private static final ConcurrentHashMap<String, String> types = new ConcurrentHashMap<String, String>();
+	private static final ConcurrentHashMap<String, AtomicLong> longs = new ConcurrentHashMap<String, AtomicLong>();
+	private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	static final AtomicLong BYTES_SERVED = counter(
+			"hdfsoverhttp_bytes_served_total", null);
+	static final AtomicLong CLIENT_ABORTS = counter(
+			"hdfsoverhttp_client_aborts_total", null);
+	static final AtomicLong ACTIVE_STREAMS = gauge(
+			"hdfsoverhttp_active_streams", null);
+	static final AtomicLong EXISTS = rpc("exists");
+	static final AtomicLong GET_FILE_STATUS = rpc("getFileStatus");
+	static final AtomicLong LIST_STATUS = rpc("listStatus");
+	static final AtomicLong OPEN = rpc("open");
+	static final AtomicLong GET_FILE_CHECKSUM = rpc("getFileChecksum");
+	static final AtomicLong GET_BLOCK_LOCATIONS = rpc("getFileBlockLocations");
+	static final Histogram HDFS_READ = histogram(
+			"hdfsoverhttp_hdfs_read_seconds", null);
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new Metrics(), new ObjectName("hdfsoverhttp:type=Metrics"));
+		} catch (Exception e) {
+			log.warn("register mbean of metrics error", e);
+		}
+	}
+
+	/**
+	 * a latency histogram with the buckets of BUCKETS and one for the
+	 * slower ones
+	 */
+	static class Histogram {
+		private final AtomicLongArray counts = new AtomicLongArray(
+				BUCKETS.length + 1);
+		private final AtomicLong sumNanos = new AtomicLong();
+
+		void record(long nanos) {
+			counts.incrementAndGet(bucket(nanos));
+			sumNanos.addAndGet(nanos);
+		}
+
+		/**
+		 * add the counts of a local histogram
+		 *
+		 * @param local
+		 *            the counts by bucket, see newLocal()
+		 * @param nanos
+		 *            the sum of the recorded values
+		 */
+		void add(long[] local, long nanos) {
+			for (int i = 0; i < local.length; i++) {
+				if (local[i] > 0) {
+					counts.addAndGet(i, local[i]);
+				}
+			}
+			sumNanos.addAndGet(nanos);
+		}
+
+		/**
+		 * @return the counts of a histogram kept by one thread
+		 */
+		static long[] newLocal() {
+			return new long[BUCKETS.length + 1];
+		}
+
+		static int bucket(long nanos) {
+			int i = 0;
+			while (i < BUCKET_NANOS.length && nanos > BUCKET_NANOS[i]) {
+				i++;
+			}
+			return i;
+		}
+	}
+
+	private Metrics() {
+	}
+
+	private static AtomicLong register(String name, String labels,
+			String type) {
+		types.putIfAbsent(name, type);
+		String key = key(name, labels);
+		AtomicLong value = longs.get(key);
+		if (value == null) {
+			AtomicLong created = new AtomicLong();
+			value = longs.putIfAbsent(key, created);
+			if (value == null) {
+				value = created;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * get a counter, it is created on the first call
+	 *
+	 * @param name
+	 * @param labels
+	 *            the labels like endpoint="list", or null
+	 */
+	static AtomicLong counter(String name, String labels) {
+		return register(name, labels, "counter");
+	}
+
+	/**
+	 * get a gauge, it is created on the first call
+	 */
+	static AtomicLong gauge(String name, String labels) {
+		return register(name, labels, "gauge");
+	}
+
+	private static AtomicLong rpc(String op) {
+		return counter("hdfsoverhttp_namenode_rpcs_total", "op=\"" + op
+				+ "\"");
+	}
+
+	/**
+	 * get a histogram, it is created on the first call
+	 */
+	static Histogram histogram(String name, String labels) {
+		types.putIfAbsent(name, "histogram");
+		String key = key(name, labels);
+		Histogram value = histograms.get(key);
+		if (value == null) {
+			Histogram created = new Histogram();
+			value = histograms.putIfAbsent(key, created);
+			if (value == null) {
+				value = created;
+			}
+		}
+		return value;
+	}
+
+	private static String key(String name, String labels) {
+		return labels == null ? name : name + "{" + labels + "}";
+	}
+
+	/**
+	 * record a finished request
+	 *
+	 * @param endpoint
+	 * @param status
+	 *            the HTTP status
+	 * @param nanos
+	 *            the time to serve the request
+	 * @param firstByteNanos
+	 *            the time to the first byte of the body, -1 if none was
+	 *            sent
+	 */
+	static void recordRequest(String endpoint, int status, long nanos,
+			long firstByteNanos) {
+		String labels = "endpoint=\"" + endpoint + "\"";
+		counter("hdfsoverhttp_requests_total",
+				labels + ",code=\"" + status + "\"").incrementAndGet();
+		histogram("hdfsoverhttp_request_seconds", labels).record(nanos);
+		if (firstByteNanos >= 0) {
+			histogram("hdfsoverhttp_first_byte_seconds", labels).record(
+					firstByteNanos);
+		}
+	}
+
+	/**
+	 * the samples of a metric by their labels
+	 */
+	private static class Family {
+		private final String type;
+		private final TreeMap<String, Object> samples = new TreeMap<String, Object>();
+
+		Family(String type) {
+			this.type = type;
+		}
+	}
+
+	/**
+	 * @return the metrics of the registry and of the other components by
+	 *         name
+	 */
+	private static TreeMap<String, Family> collect() {
+		TreeMap<String, Family> families = new TreeMap<String, Family>();
+		for (Map.Entry<String, AtomicLong> e : longs.entrySet()) {
+			add(families, e.getKey(), e.getValue().get());
+		}
+		for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+			add(families, e.getKey(), e.getValue());
+		}
+
+		ReadPaths readPaths = ReadPaths.getInstance();
+		add(families, "hdfsoverhttp_read_path_requests_total", "counter",
+				"path=\"zero-copy\"", readPaths.getZeroCopyRequests());
+		add(families, "hdfsoverhttp_read_path_requests_total", "counter",
+				"path=\"short-circuit\"", readPaths.getShortCircuitRequests());
+		add(families, "hdfsoverhttp_read_path_requests_total", "counter",
+				"path=\"local\"", readPaths.getLocalRequests());
+		add(families, "hdfsoverhttp_read_path_requests_total", "counter",
+				"path=\"remote\"", readPaths.getRemoteRequests());
+		add(families, "hdfsoverhttp_hdfs_bytes_read_total", "counter", null,
+				readPaths.getTotalBytes());
+		DataNodeStats dataNodes = DataNodeStats.getInstance();
+		add(families, "hdfsoverhttp_hedged_reads_total", "counter", null,
+				dataNodes.getHedgedReadOps());
+		add(families, "hdfsoverhttp_hedged_read_wins_total", "counter", null,
+				dataNodes.getHedgedReadWins());
+		add(families, "hdfsoverhttp_broadcast_downloads_total", "counter",
+				"reader=\"shared\"", Broadcast.getAttached());
+		add(families, "hdfsoverhttp_broadcast_downloads_total", "counter",
+				"reader=\"own\"", Broadcast.getFallbacks());
+		add(families, "hdfsoverhttp_parked_downloads_total", "counter", null,
+				StreamParking.getParked());
+		add(families, "hdfsoverhttp_parked_memory_bytes", "gauge", null,
+				StreamParking.getMemoryInUse());
+		if (Mount.isInitialized()) {
+			for (Mount mount : Mount.getMounts()) {
+				add(families, "hdfsoverhttp_hdfs_available", "gauge",
+						"mount=\"" + mount.getName() + "\"", mount.getClient()
+								.isAvailable() ? 1 : 0);
+			}
+		}
+		return families;
+	}
+
+	private static void add(TreeMap<String, Family> families, String key,
+			Object value) {
+		int brace = key.indexOf('{');
+		String name = brace < 0 ? key : key.substring(0, brace);
+		String labels = brace < 0 ? null : key.substring(brace + 1,
+				key.length() - 1);
+		add(families, name, types.get(name), labels, value);
+	}
+
+	private static void add(TreeMap<String, Family> families, String name,
+			String type, String labels, Object value) {
+		Family family = families.get(name);
+		if (family == null) {
+			family = new Family(type);
+			families.put(name, family);
+		}
+		family.samples.put(labels == null ? "" : labels, value);
+	}
+
+	/**
+	 * write the metrics in the Prometheus text format
+	 *
+	 * @param out
+	 */
+	static void write(StringBuilder out) {
+		for (Map.Entry<String, Family> e : collect().entrySet()) {
+			String name = e.getKey();
+			Family family = e.getValue();
+			out.append("# TYPE ").append(name).append(' ')
+					.append(family.type).append('\n');
+			for (Map.Entry<String, Object> sample : family.samples.entrySet()) {
+				String labels = sample.getKey();
+				if (sample.getValue() instanceof Histogram) {
+					writeHistogram(out, name, labels,
+							(Histogram) sample.getValue());
+				} else {
+					out.append(name);
+					if (labels.length() > 0) {
+						out.append('{').append(labels).append('}');
+					}
+					out.append(' ').append(sample.getValue()).append('\n');
+				}
+			}
+		}
+	}
+
+	private static void writeHistogram(StringBuilder out, String name,
+			String labels, Histogram histogram) {
+		String prefix = labels.length() > 0 ? labels + "," : "";
+		long count = 0;
+		for (int i = 0; i <= BUCKETS.length; i++) {
+			count += histogram.counts.get(i);
+			out.append(name).append("_bucket{").append(prefix)
+					.append("le=\"")
+					.append(i < BUCKETS.length ? String.valueOf(BUCKETS[i])
+							: "+Inf").append("\"} ").append(count)
+					.append('\n');
+		}
+		String suffix = labels.length() > 0 ? "{" + labels + "}" : "";
+		out.append(name).append("_sum").append(suffix).append(' ')
+				.append(histogram.sumNanos.get() / 1e9).append('\n');
+		out.append(name).append("_count").append(suffix).append(' ')
+				.append(count).append('\n');
+	}
+
+	/**
+	 * @return the samples as JMX attributes, a histogram is shown by its
+	 *         count and sum
+	 */
+	private static TreeMap<String, Number> attributes() {
+		TreeMap<String, Number> attributes = new TreeMap<String, Number>();
+		for (Map.Entry<String, Family> e : collect().entrySet()) {
+			for (Map.Entry<String, Object> sample : e.getValue().samples
+					.entrySet()) {
+				String labels = sample.getKey().length() > 0 ? "{"
+						+ sample.getKey() + "}" : "";
+				if (sample.getValue() instanceof Histogram) {
+					Histogram histogram = (Histogram) sample.getValue();
+					long count = 0;
+					for (int i = 0; i <= BUCKETS.length; i++) {
+						count += histogram.counts.get(i);
+					}
+					attributes.put(e.getKey() + "_count" + labels, count);
+					attributes.put(e.getKey() + "_sum" + labels,
+							histogram.sumNanos.get() / 1e9);
+				} else {
+					attributes.put(e.getKey() + labels,
+							(Number) sample.getValue());
+				}
+			}
+		}
+		return attributes;
+	}
+
+	@Override
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Number value = attributes().get(attribute);
+		if (value == null) {
+			throw new AttributeNotFoundException(attribute);
+		}
+		return value;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName()
+				+ " is read only");
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] names) {
+		TreeMap<String, Number> attributes = attributes();
+		AttributeList list = new AttributeList();
+		for (String name : names) {
+			Number value = attributes.get(name);
+			if (value != null) {
+				list.add(new Attribute(name, value));
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params,
+			String[] signature) {
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> infos = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Number> e : attributes().entrySet()) {
+			infos.add(new MBeanAttributeInfo(e.getKey(), e.getValue()
+					.getClass().getName(), e.getKey(), true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(),
+				"metrics of hdfs over http",
+				infos.toArray(new MBeanAttributeInfo[infos.size()]), null,
+				new MBeanOperationInfo[0], null);
+	}
+}
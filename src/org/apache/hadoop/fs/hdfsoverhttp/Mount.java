@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletContext;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * A URL prefix published from a directory of an HDFS cluster.
+ *
+ * Without the mounts parameter there is a single mount of hdfs-uri and
+ * root-dir at the top of the URL space. Otherwise every mount has its own
+ * client, checksum cache and limit of concurrent requests, so a slow
+ * cluster can only hold the requests of its own mount.
+ */
+public class Mount {
+
+	static Logger log = Logger.getLogger(Mount.class);
+
+	private static volatile List<Mount> mounts = null;
+
+	private final String name;
+	private final String prefix;
+	private final String rootDir;
+	private final HdfsClient client;
+	private final Permits permits;
+	private final ChecksumCache checksumCache;
+	private final CompressionCodecFactory codecFactory;
+	private final PathIndex pathIndex;
+
+	Mount(String name, String prefix, String hdfsUri,
+			String namenodes, String rootDir, int maxConcurrent,
+			int checksumCacheSize) {
+		this.name = name;
+		this.prefix = prefix;
+		this.rootDir = rootDir;
+		this.client = new HdfsClient(name, hdfsUri, namenodes, rootDir);
+		this.permits = new Permits(maxConcurrent);
+		this.checksumCache = new ChecksumCache(checksumCacheSize);
+		this.codecFactory = new CompressionCodecFactory(client.getConf());
+		this.pathIndex = SysConfig.PATH_INDEX ? new PathIndex(this) : null;
+	}
+
+	/**
+	 * read the mount table and start connecting the clusters, it is done
+	 * once and does not wait for a NameNode, a mount which is not connected
+	 * yet answers 503 by itself
+	 *
+	 * @param context
+	 */
+	static synchronized void init(ServletContext context) {
+		if (mounts != null) {
+			return;
+		}
+		SysConfig.init(context);
+		HdfsTool.login();
+		if (ThreadPools.isVirtual()) {
+			PinnedThreads.start();
+		} else if (SysConfig.VIRTUAL_THREADS) {
+			log.warn("virtual-threads is on but the JVM has no virtual threads, "
+					+ "platform threads are used");
+		}
+		List<Mount> table = new ArrayList<Mount>();
+		if (SysConfig.MOUNTS.length() == 0) {
+			Tunables tunables = Tunables.get();
+			table.add(new Mount("default", "", SysConfig.HDFS_URI,
+					SysConfig.HDFS_NAMENODES, SysConfig.ROOT_DIR,
+					tunables.maxConcurrent, tunables.checksumCacheSize));
+		} else {
+			for (String name : SysConfig.MOUNTS.split(",")) {
+				name = name.trim();
+				if (name.length() == 0) {
+					continue;
+				}
+				String key = "mount." + name + ".";
+				String prefix = SysConfig.normalizeDir(SysConfig.getProperty(
+						key + "prefix", Path.SEPARATOR + name));
+				String hdfsUri = SysConfig.getProperty(key + "hdfs-uri",
+						SysConfig.HDFS_URI);
+				String namenodes = SysConfig.getProperty(key
+						+ "hdfs-namenodes", null);
+				String rootDir = SysConfig.normalizeDir(SysConfig.getProperty(
+						key + "root-dir", ""));
+				Tunables tunables = Tunables.get();
+				int maxConcurrent = tunables.getMountInt(name,
+						"max-concurrent", tunables.maxConcurrent);
+				int checksumCacheSize = tunables.getMountInt(name,
+						"checksum-cache-size", tunables.checksumCacheSize);
+				table.add(new Mount(name, prefix, hdfsUri, namenodes, rootDir,
+						maxConcurrent, checksumCacheSize));
+			}
+		}
+		for (Mount mount : table) {
+			mount.client.start();
+			if (mount.pathIndex != null) {
+				mount.pathIndex.start();
+			}
+			log.info("mount " + mount.name + " at " + mount.prefix + "/ to "
+					+ mount.client.getUri() + mount.rootDir + "/");
+		}
+		mounts = Collections.unmodifiableList(table);
+		Tunables.watch(SysConfig.CONF_RELOAD_INTERVAL_MS);
+	}
+
+	/**
+	 * apply the limit of concurrent requests and the checksum cache size of
+	 * changed tunables, the running requests keep their slots
+	 *
+	 * @param tunables
+	 */
+	void tune(Tunables tunables) {
+		int maxConcurrent = tunables.getMountInt(name, "max-concurrent",
+				tunables.maxConcurrent);
+		if (maxConcurrent != permits.getLimit()) {
+			log.info("max-concurrent of mount " + name + " is "
+					+ maxConcurrent);
+			permits.setLimit(maxConcurrent);
+		}
+		checksumCache.setCapacity(tunables.getMountInt(name,
+				"checksum-cache-size", tunables.checksumCacheSize));
+	}
+
+	static boolean isInitialized() {
+		return mounts != null;
+	}
+
+	/**
+	 * @return all mounts, in the order of the config file
+	 */
+	static List<Mount> getMounts() {
+		return mounts;
+	}
+
+	/**
+	 * @return true if the top of the URL space lists the mounts
+	 */
+	static boolean isMultiple() {
+		List<Mount> table = getMounts();
+		return table.size() > 1 || table.get(0).prefix.length() > 0;
+	}
+
+	/**
+	 * find the mount of a URL path, the longest prefix wins
+	 *
+	 * @param target
+	 *            decoded path of the request
+	 * @return mount or null if no mount covers the path
+	 */
+	static Mount resolve(String target) {
+		Mount found = null;
+		for (Mount mount : getMounts()) {
+			if ((target.equals(mount.prefix) || target
+					.startsWith(mount.prefix + Path.SEPARATOR))
+					&& (found == null || mount.prefix.length() > found.prefix
+							.length())) {
+				found = mount;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * map a URL path of this mount to the path on HDFS
+	 *
+	 * @param target
+	 * @return path on HDFS
+	 */
+	String toHdfsPath(String target) {
+		return rootDir + target.substring(prefix.length());
+	}
+
+	/**
+	 * map a path on HDFS under the root directory of this mount to its URL
+	 * path
+	 *
+	 * @param hdfsPath
+	 * @return URL path
+	 */
+	String toTarget(String hdfsPath) {
+		return prefix + hdfsPath.substring(rootDir.length());
+	}
+
+	/**
+	 * take a slot of the concurrent requests of this mount
+	 *
+	 * @return false if the mount is busy
+	 */
+	boolean acquire() {
+		return permits.tryAcquire();
+	}
+
+	/**
+	 * release a slot taken by acquire
+	 */
+	void release() {
+		permits.release();
+	}
+
+	FileSystem getFileSystem() throws HdfsException {
+		return client.getFileSystem();
+	}
+
+	HdfsClient getClient() {
+		return client;
+	}
+
+	ChecksumCache getChecksumCache() {
+		return checksumCache;
+	}
+
+	/**
+	 * @return the index of the existing paths, or null if path-index is off
+	 */
+	PathIndex getPathIndex() {
+		return pathIndex;
+	}
+
+	CompressionCodecFactory getCodecFactory() {
+		return codecFactory;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	String getPrefix() {
+		return prefix;
+	}
+
+	String getRootDir() {
+		return rootDir;
+	}
+}
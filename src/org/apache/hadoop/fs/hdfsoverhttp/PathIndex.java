@@ -0,0 +1,844 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSInotifyEventInputStream;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.inotify.Event;
+import org.apache.hadoop.hdfs.inotify.MissingEventsException;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.log4j.Logger;
+
+/**
+ * A Bloom filter of the paths under the root directory of a mount, so a
+ * request for a path which doesn't exist is answered 404 without a call
+ * to the NameNode.
+ *
+ * The filter is filled by a crawl of the tree on path-index-threads
+ * threads and saved to path-index-dir, so a restart starts from the saved
+ * filter. On HDFS the edit log is tailed through inotify: created and
+ * renamed paths are added as they appear, and a saved filter resumes from
+ * the transaction it was saved at. A deleted path stays in the filter
+ * until the next crawl, every path-index-refresh, which only costs the
+ * call a request made anyway.
+ *
+ * A miss is trusted only while the filter is known to be complete: the
+ * edit log was followed without a gap since the crawl started, or without
+ * inotify (no superuser, another FileSystem) the crawl is younger than
+ * path-index-max-staleness. A directory the crawl couldn't list and a
+ * renamed directory not crawled yet are never answered, nor the paths of
+ * snapshots and /.reserved, which aren't crawled.
+ *
+ * The events come about a poll after their transaction, so a path is
+ * also asked to the NameNode for path-index-grace after the last event,
+ * or after an event in one of its parent directories. A path created and
+ * requested within the lag of inotify after a quiet period is still
+ * answered 404: its event hasn't come yet.
+ */
+public class PathIndex {
+
+	static Logger log = Logger.getLogger(PathIndex.class);
+
+	private static final int MAGIC = 0x484f5049;
+	private static final int VERSION = 1;
+	private static final long SAVE_INTERVAL_MS = 60 * 1000L;
+	private static final long RETRY_MS = 60 * 1000L;
+	private static final long POLL_MS = 1000L;
+	private static final int RECENT_DIRS_MAX = 10000;
+
+	private static ExecutorService listers = null;
+
+	private final Mount mount;
+	private final String root;
+	private final AtomicLong absent;
+	private final AtomicLong paths;
+
+	// the filter answering the requests and the one of a running crawl,
+	// they are swapped under the lock of add()
+	private volatile Generation current = null;
+	private volatile Generation building = null;
+	private final Object generations = new Object();
+	// the edit log is followed, and up to its end
+	private volatile boolean tailing = false;
+	private volatile boolean caughtUp = false;
+	// the time of the last event, and of the last one in each directory
+	private volatile long lastEvent = 0;
+	private final ConcurrentHashMap<String, Long> recentDirs = new ConcurrentHashMap<String, Long>();
+	// the tail has opened the edit log or given up
+	private boolean tailStarted = false;
+	private boolean recrawl = false;
+
+	/**
+	 * the filter of one crawl
+	 */
+	static class Generation {
+		final BloomFilter filter;
+		final Set<String> opaque = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final long started;
+		// the edit log was applied since the crawl started
+		volatile boolean covered;
+
+		Generation(BloomFilter filter, long started, boolean covered) {
+			this.filter = filter;
+			this.started = started;
+			this.covered = covered;
+		}
+	}
+
+	/**
+	 * a Bloom filter of strings, the bits are set without a lock
+	 */
+	static class BloomFilter {
+		private final AtomicLongArray bits;
+		private final long size;
+		private final int hashes;
+
+		BloomFilter(long size, int hashes) {
+			this.size = size;
+			this.hashes = hashes;
+			this.bits = new AtomicLongArray((int) (size >>> 6));
+		}
+
+		/**
+		 * @param expected
+		 *            the number of strings
+		 * @param fpp
+		 *            the false positive probability at that number
+		 */
+		static BloomFilter create(long expected, double fpp) {
+			double ln2 = Math.log(2);
+			long size = (long) Math.ceil(-expected * Math.log(fpp)
+					/ (ln2 * ln2));
+			size = Math.max(64, (size + 63) & ~63L);
+			int hashes = Math.max(1,
+					(int) Math.round((double) size / expected * ln2));
+			return new BloomFilter(size, hashes);
+		}
+
+		void add(String s) {
+			long h1 = hash(s);
+			long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+			for (int i = 0; i < hashes; i++) {
+				long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+				int word = (int) (bit >>> 6);
+				long mask = 1L << bit;
+				long old;
+				do {
+					old = bits.get(word);
+				} while ((old & mask) == 0
+						&& !bits.compareAndSet(word, old, old | mask));
+			}
+		}
+
+		boolean mightContain(String s) {
+			long h1 = hash(s);
+			long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+			for (int i = 0; i < hashes; i++) {
+				long bit = ((h1 + i * h2) & Long.MAX_VALUE) % size;
+				if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * FNV-1a of the chars, spread by the finalizer of MurmurHash3
+		 */
+		private static long hash(String s) {
+			long h = 0xcbf29ce484222325L;
+			for (int i = 0; i < s.length(); i++) {
+				h ^= s.charAt(i);
+				h *= 0x100000001b3L;
+			}
+			return mix(h);
+		}
+
+		private static long mix(long h) {
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(size);
+			out.writeInt(hashes);
+			for (int i = 0; i < bits.length(); i++) {
+				out.writeLong(bits.get(i));
+			}
+		}
+
+		static BloomFilter read(DataInputStream in) throws IOException {
+			BloomFilter filter = new BloomFilter(in.readLong(), in.readInt());
+			for (int i = 0; i < filter.bits.length(); i++) {
+				filter.bits.set(i, in.readLong());
+			}
+			return filter;
+		}
+	}
+
+	PathIndex(Mount mount) {
+		this.mount = mount;
+		this.root = mount.getRootDir().length() == 0 ? Path.SEPARATOR : mount
+				.getRootDir();
+		String labels = "mount=\"" + mount.getName() + "\"";
+		this.absent = Metrics.counter("hdfsoverhttp_path_index_absent_total",
+				labels);
+		this.paths = Metrics.gauge("hdfsoverhttp_path_index_paths", labels);
+	}
+
+	/**
+	 * load the saved filter and start the crawls and the tail of the edit
+	 * log in the background
+	 */
+	void start() {
+		final long txid = load();
+		ThreadPools.newThreadFactory("path-index-crawl")
+				.newThread(new Runnable() {
+					@Override
+					public void run() {
+						crawlLoop();
+					}
+				}).start();
+		ThreadPools.newThreadFactory("path-index-events")
+				.newThread(new Runnable() {
+					@Override
+					public void run() {
+						tailLoop(txid);
+					}
+				}).start();
+	}
+
+	private static synchronized ExecutorService getListers() {
+		if (listers == null) {
+			listers = ThreadPools.newFixedPool("path-index",
+					SysConfig.PATH_INDEX_THREADS);
+		}
+		return listers;
+	}
+
+	/**
+	 * @param path
+	 *            a path on HDFS under the root directory of the mount
+	 * @return true if the path surely doesn't exist
+	 */
+	boolean isAbsent(Path path) {
+		Generation g = current;
+		if (g == null || !isTrusted(g)) {
+			return false;
+		}
+		String key = key(path.toUri().getPath());
+		if (!isUnderRoot(key) || isNotCrawled(key)
+				|| g.filter.mightContain(key) || isRecent(key)) {
+			return false;
+		}
+		if (!g.opaque.isEmpty()) {
+			for (String dir = key; dir.length() > 1; dir = parent(dir)) {
+				if (g.opaque.contains(dir)) {
+					return false;
+				}
+			}
+			if (g.opaque.contains(Path.SEPARATOR)) {
+				return false;
+			}
+		}
+		absent.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return true for the paths of snapshots and /.reserved
+	 */
+	private static boolean isNotCrawled(String path) {
+		return path.equals("/.reserved") || path.startsWith("/.reserved/")
+				|| (path + Path.SEPARATOR).contains("/.snapshot/");
+	}
+
+	/**
+	 * @return true if an event came within path-index-grace, or an event of
+	 *         a parent directory of the path
+	 */
+	private boolean isRecent(String path) {
+		long since = System.currentTimeMillis() - SysConfig.PATH_INDEX_GRACE_MS;
+		if (lastEvent > since) {
+			return true;
+		}
+		if (!recentDirs.isEmpty()) {
+			for (String dir = parent(path);; dir = parent(dir)) {
+				Long time = recentDirs.get(dir);
+				if (time != null && time > since) {
+					return true;
+				}
+				if (dir.equals(Path.SEPARATOR)) {
+					break;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * note an event of a path in its parent directory
+	 */
+	private void touched(String path, long now) {
+		if (recentDirs.size() >= RECENT_DIRS_MAX) {
+			expireRecentDirs(now);
+		}
+		recentDirs.put(parent(path), now);
+	}
+
+	private void expireRecentDirs(long now) {
+		for (Iterator<Long> i = recentDirs.values().iterator(); i.hasNext();) {
+			if (i.next() <= now - SysConfig.PATH_INDEX_GRACE_MS) {
+				i.remove();
+			}
+		}
+	}
+
+	private boolean isTrusted(Generation g) {
+		if (g.covered && caughtUp) {
+			return true;
+		}
+		return System.currentTimeMillis() - g.started < SysConfig.PATH_INDEX_MAX_STALENESS_MS;
+	}
+
+	private static String key(String path) {
+		if (path.length() > 1 && path.endsWith(Path.SEPARATOR)) {
+			return path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+
+	private static String parent(String path) {
+		int i = path.lastIndexOf('/');
+		return i <= 0 ? Path.SEPARATOR : path.substring(0, i);
+	}
+
+	private boolean isUnderRoot(String path) {
+		return root.equals(Path.SEPARATOR) || path.equals(root)
+				|| path.startsWith(root + Path.SEPARATOR);
+	}
+
+	/**
+	 * add a path to the filter of the requests and the one of a running
+	 * crawl, a crawl ending meanwhile keeps it
+	 */
+	private void add(String path) {
+		synchronized (generations) {
+			Generation c = current;
+			Generation b = building;
+			if (c != null) {
+				c.filter.add(path);
+				paths.incrementAndGet();
+			}
+			if (b != null) {
+				b.filter.add(path);
+			}
+		}
+	}
+
+	/**
+	 * crawl the tree every path-index-refresh, or at once when events of
+	 * the edit log were lost
+	 */
+	private void crawlLoop() {
+		while (true) {
+			try {
+				synchronized (this) {
+					// a crawl started before the edit log is followed would
+					// miss the paths created meanwhile
+					while (!tailStarted) {
+						wait();
+					}
+					Generation g = current;
+					long wait = g == null ? 0 : g.started
+							+ SysConfig.PATH_INDEX_REFRESH_MS
+							- System.currentTimeMillis();
+					while (!recrawl && wait > 0) {
+						wait(wait);
+						wait = g.started + SysConfig.PATH_INDEX_REFRESH_MS
+								- System.currentTimeMillis();
+					}
+					recrawl = false;
+				}
+				if (!crawl()) {
+					Thread.sleep(RETRY_MS);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private synchronized void requestCrawl() {
+		recrawl = true;
+		notifyAll();
+	}
+
+	private synchronized void setTailing(boolean tailing) {
+		this.tailing = tailing;
+		if (!tailing) {
+			caughtUp = false;
+		}
+		tailStarted = true;
+		notifyAll();
+	}
+
+	/**
+	 * build a new filter of the whole tree and use it when it is complete
+	 *
+	 * @return false if the crawl failed
+	 */
+	private boolean crawl() throws InterruptedException {
+		long start = System.currentTimeMillis();
+		Generation g = new Generation(BloomFilter.create(
+				SysConfig.PATH_INDEX_EXPECTED_PATHS, SysConfig.PATH_INDEX_FPP),
+				start, tailing);
+		synchronized (generations) {
+			building = g;
+		}
+		Crawl crawl = new Crawl(g, null);
+		try {
+			FileSystem fs = mount.getFileSystem();
+			g.filter.add(root);
+			crawl.list(fs, new Path(root));
+			if (!crawl.await()) {
+				return false;
+			}
+			synchronized (generations) {
+				current = g;
+				building = null;
+				paths.set(crawl.count.get());
+			}
+		} catch (HdfsException e) {
+			log.warn("crawl of mount " + mount.getName() + " error: "
+					+ e.getMessage());
+			return false;
+		} finally {
+			synchronized (generations) {
+				if (building == g) {
+					building = null;
+				}
+			}
+		}
+		log.info("crawled " + crawl.count.get() + " paths of mount "
+				+ mount.getName() + " in "
+				+ (System.currentTimeMillis() - start) + " ms, "
+				+ g.opaque.size() + " directories couldn't be listed");
+		if (!tailing) {
+			save(g, -1);
+		}
+		return true;
+	}
+
+	/**
+	 * a parallel listing of a tree, every directory is a task of the
+	 * listers
+	 */
+	private class Crawl {
+		// null adds to the current filters, for a renamed directory
+		private final Generation target;
+		// run when the crawl is complete
+		private final Runnable done;
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicLong count = new AtomicLong();
+		private volatile boolean failed = false;
+
+		Crawl(Generation target, Runnable done) {
+			this.target = target;
+			this.done = done;
+		}
+
+		void list(final FileSystem fs, final Path dir) {
+			pending.incrementAndGet();
+			getListers().execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!failed) {
+							listDir(fs, dir);
+						}
+					} finally {
+						if (pending.decrementAndGet() == 0) {
+							synchronized (Crawl.this) {
+								Crawl.this.notifyAll();
+							}
+							if (done != null && !failed) {
+								done.run();
+							}
+						}
+					}
+				}
+			});
+		}
+
+		private void listDir(FileSystem fs, Path dir) {
+			FileStatus[] entries;
+			try {
+				Metrics.LIST_STATUS.incrementAndGet();
+				entries = fs.listStatus(dir);
+			} catch (FileNotFoundException e) {
+				// deleted while crawling
+				return;
+			} catch (AccessControlException e) {
+				opaque(dir.toUri().getPath());
+				return;
+			} catch (IOException e) {
+				log.warn("list " + dir + " error: " + e);
+				failed = true;
+				return;
+			}
+			for (FileStatus entry : entries) {
+				String path = key(entry.getPath().toUri().getPath());
+				if (target != null) {
+					target.filter.add(path);
+				} else {
+					add(path);
+				}
+				count.incrementAndGet();
+				if (entry.isDirectory()) {
+					list(fs, entry.getPath());
+				}
+			}
+		}
+
+		private void opaque(String dir) {
+			if (target != null) {
+				target.opaque.add(key(dir));
+			} else {
+				markOpaque(key(dir));
+			}
+		}
+
+		/**
+		 * @return false if a directory couldn't be listed
+		 */
+		synchronized boolean await() throws InterruptedException {
+			while (pending.get() > 0) {
+				wait();
+			}
+			return !failed;
+		}
+	}
+
+	private List<Generation> markOpaque(String dir) {
+		List<Generation> marked = new ArrayList<Generation>(2);
+		synchronized (generations) {
+			for (Generation g : new Generation[] { current, building }) {
+				if (g != null && g.opaque.add(dir)) {
+					marked.add(g);
+				}
+			}
+		}
+		return marked;
+	}
+
+	/**
+	 * the paths under a renamed directory are new, they are never
+	 * answered until the directory is crawled
+	 */
+	private void crawlRenamed(FileSystem fs, final String dir) {
+		final List<Generation> marked = markOpaque(dir);
+		new Crawl(null, new Runnable() {
+			@Override
+			public void run() {
+				for (Generation g : marked) {
+					g.opaque.remove(dir);
+				}
+			}
+		}).list(fs, new Path(dir));
+	}
+
+	/**
+	 * follow the edit log of an HDFS cluster, the transaction of the saved
+	 * filter is the start if there is one
+	 */
+	private void tailLoop(long txid) {
+		DFSInotifyEventInputStream events = null;
+		boolean missed = false;
+		long lastSaved = System.currentTimeMillis();
+		while (true) {
+			try {
+				if (events == null) {
+					FileSystem fs = mount.getFileSystem();
+					if (!(fs instanceof DistributedFileSystem)) {
+						log.info("mount " + mount.getName()
+								+ " isn't HDFS, the path index is refreshed by crawls only");
+						setTailing(false);
+						return;
+					}
+					DistributedFileSystem dfs = (DistributedFileSystem) fs;
+					events = txid >= 0 ? dfs.getClient().getInotifyEventStream(
+							txid) : dfs.getClient().getInotifyEventStream();
+					setTailing(true);
+					if (missed) {
+						// crawl with the events followed again
+						missed = false;
+						requestCrawl();
+					}
+				}
+				Event event = events.poll(POLL_MS, TimeUnit.MILLISECONDS);
+				if (event != null) {
+					apply(event);
+					continue;
+				}
+				// all the fetched events are applied
+				caughtUp = true;
+				if (!recentDirs.isEmpty()) {
+					expireRecentDirs(System.currentTimeMillis());
+				}
+				txid = getLastReadTxid(events);
+				Generation g = current;
+				if (g != null && g.covered && txid >= 0
+						&& System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL_MS) {
+					save(g, txid);
+					lastSaved = System.currentTimeMillis();
+				}
+			} catch (MissingEventsException e) {
+				log.warn("events of mount " + mount.getName()
+						+ " were lost, crawl again: " + e.getMessage());
+				lost();
+				missed = true;
+				events = null;
+				txid = -1;
+			} catch (AccessControlException e) {
+				log.warn("the edit log of mount " + mount.getName()
+						+ " needs a superuser, the path index is refreshed by crawls only");
+				setTailing(false);
+				return;
+			} catch (LinkageError e) {
+				log.warn("the inotify API of this Hadoop isn't supported, "
+						+ "the path index is refreshed by crawls only: " + e);
+				setTailing(false);
+				return;
+			} catch (InterruptedException e) {
+				return;
+			} catch (Exception e) {
+				// HdfsException or IOException of a replaced FileSystem, the
+				// events are fetched again after the applied ones
+				log.warn("read events of mount " + mount.getName() + " error: "
+						+ e);
+				events = null;
+				if (txid < 0 && !missed) {
+					lost();
+					missed = true;
+				}
+				try {
+					Thread.sleep(RETRY_MS);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * the filters miss the lost events until the next crawl
+	 */
+	private void lost() {
+		caughtUp = false;
+		tailing = false;
+		for (Generation g : new Generation[] { current, building }) {
+			if (g != null) {
+				g.covered = false;
+			}
+		}
+	}
+
+	private void apply(Event event) throws HdfsException {
+		long now = System.currentTimeMillis();
+		lastEvent = now;
+		String path;
+		switch (event.getEventType()) {
+		case CREATE:
+			path = key(((Event.CreateEvent) event).getPath());
+			if (isUnderRoot(path)) {
+				add(path);
+				touched(path, now);
+			}
+			break;
+		case RENAME:
+			path = key(((Event.RenameEvent) event).getDstPath());
+			if (isUnderRoot(path)) {
+				add(path);
+				touched(path, now);
+				crawlRenamed(mount.getFileSystem(), path);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * the last transaction fetched by the stream, it is private in Hadoop
+	 * 2.6
+	 *
+	 * @return transaction id or -1 if it can't be read
+	 */
+	private static long getLastReadTxid(DFSInotifyEventInputStream events) {
+		try {
+			Field field = DFSInotifyEventInputStream.class
+					.getDeclaredField("lastReadTxid");
+			field.setAccessible(true);
+			return field.getLong(events);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private File getFile() {
+		return new File(SysConfig.PATH_INDEX_DIR, mount.getName() + ".pidx");
+	}
+
+	/**
+	 * write the filter, a temporary file is renamed so a reader never sees
+	 * a half written filter
+	 *
+	 * @param txid
+	 *            the transaction of the edit log the filter contains, or
+	 *            -1
+	 */
+	private void save(Generation g, long txid) {
+		File dir = new File(SysConfig.PATH_INDEX_DIR);
+		File tmp = new File(dir, mount.getName() + ".pidx.tmp");
+		File dst = getFile();
+		try {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("can't create " + dir);
+			}
+			// the opaque directories first, a directory crawled meanwhile
+			// stays opaque
+			List<String> opaque = new ArrayList<String>(g.opaque);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(mount.getClient().getUri());
+				out.writeUTF(root);
+				out.writeLong(g.started);
+				out.writeLong(txid);
+				out.writeLong(paths.get());
+				out.writeInt(opaque.size());
+				for (String path : opaque) {
+					out.writeUTF(path);
+				}
+				g.filter.write(out);
+			} finally {
+				out.close();
+			}
+			if (!tmp.renameTo(dst)) {
+				dst.delete();
+				if (!tmp.renameTo(dst)) {
+					throw new IOException("can't rename " + tmp + " to " + dst);
+				}
+			}
+		} catch (IOException e) {
+			log.warn("save path index " + dst + " error", e);
+		}
+	}
+
+	/**
+	 * read the saved filter, it is used if it has the size of the settings
+	 *
+	 * @return the transaction of the edit log it contains, or -1
+	 */
+	private long load() {
+		File file = getFile();
+		if (!file.exists()) {
+			return -1;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION
+						|| !in.readUTF().equals(mount.getClient().getUri())
+						|| !in.readUTF().equals(root)) {
+					return -1;
+				}
+				long started = in.readLong();
+				long txid = in.readLong();
+				long count = in.readLong();
+				int opaque = in.readInt();
+				Generation g = null;
+				List<String> dirs = new ArrayList<String>(opaque);
+				for (int i = 0; i < opaque; i++) {
+					dirs.add(in.readUTF());
+				}
+				BloomFilter filter = BloomFilter.read(in);
+				BloomFilter configured = BloomFilter.create(
+						SysConfig.PATH_INDEX_EXPECTED_PATHS,
+						SysConfig.PATH_INDEX_FPP);
+				if (filter.size != configured.size
+						|| filter.hashes != configured.hashes) {
+					log.info("path index " + file
+							+ " has other settings, crawl again");
+					return -1;
+				}
+				// trusted once the events since txid are applied
+				g = new Generation(filter, started, txid >= 0);
+				g.opaque.addAll(dirs);
+				current = g;
+				paths.set(count);
+				log.info("loaded " + count + " paths of mount "
+						+ mount.getName() + " from " + file);
+				return txid;
+			} finally {
+				in.close();
+			}
+		} catch (EOFException e) {
+			log.warn("path index " + file + " is truncated, crawl again");
+		} catch (IOException e) {
+			log.warn("load path index " + file + " error", e);
+		}
+		return -1;
+	}
+}
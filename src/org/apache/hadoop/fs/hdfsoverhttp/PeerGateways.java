@@ -0,0 +1,211 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletContext;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.log4j.Logger;
+
+/**
+ * The gateways running on the DataNode hosts.
+ *
+ * The peers file maps a DataNode host name to the base URL of the gateway
+ * on that host. A download can be redirected to the peer holding most of
+ * the requested bytes, which reads them from its local disk instead of
+ * passing them through this host. Peers are probed in the background and
+ * only healthy peers are chosen.
+ */
+public class PeerGateways {
+
+	static Logger log = Logger.getLogger(PeerGateways.class);
+
+	private static final int PROBE_TIMEOUT_MS = 2000;
+
+	private static volatile Map<String, Peer> peers = null;
+	private static volatile Set<String> selfHosts = null;
+	private static ScheduledExecutorService prober = null;
+
+	/**
+	 * a gateway on a DataNode host
+	 */
+	private static class Peer {
+		private final String host;
+		private final String url;
+		private volatile boolean healthy = false;
+
+		Peer(String host, String url) {
+			this.host = host;
+			this.url = url.endsWith("/") ? url.substring(0, url.length() - 1)
+					: url;
+		}
+
+		void probe() {
+			boolean ok = false;
+			try {
+				HttpURLConnection conn = (HttpURLConnection) new URL(url
+						+ "/.icons/blank.gif").openConnection();
+				conn.setRequestMethod("HEAD");
+				conn.setConnectTimeout(PROBE_TIMEOUT_MS);
+				conn.setReadTimeout(PROBE_TIMEOUT_MS);
+				ok = conn.getResponseCode() < 500;
+				conn.disconnect();
+			} catch (IOException e) {
+				log.debug("probe of peer " + url + " failed: " + e);
+			}
+			if (ok != healthy) {
+				log.info("peer " + host + " " + url + " is "
+						+ (ok ? "healthy" : "unhealthy"));
+			}
+			healthy = ok;
+		}
+	}
+
+	/**
+	 * read the peers file and start probing the peers, it is done once
+	 *
+	 * @param context
+	 */
+	static synchronized void init(ServletContext context) {
+		if (peers != null) {
+			return;
+		}
+		selfHosts = getSelfHosts();
+		Map<String, Peer> table = new HashMap<String, Peer>();
+		try {
+			Properties props = new Properties();
+			InputStream is = context.getResourceAsStream("/WEB-INF/conf/"
+					+ SysConfig.PEERS_FILE);
+			if (is == null) {
+				throw new IOException(SysConfig.PEERS_FILE + " doesn't exist");
+			}
+			try {
+				props.load(is);
+			} finally {
+				is.close();
+			}
+			for (String host : props.stringPropertyNames()) {
+				if (!selfHosts.contains(host)) {
+					table.put(host, new Peer(host, props.getProperty(host)
+							.trim()));
+				}
+			}
+		} catch (IOException e) {
+			log.error("load peers error", e);
+		}
+		peers = table;
+		log.info(peers.size() + " peer gateways, this host is " + selfHosts);
+		if (peers.isEmpty()) {
+			return;
+		}
+		prober = ThreadPools.newScheduledPool("peer-health", 1);
+		prober.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				for (Peer peer : peers.values()) {
+					peer.probe();
+				}
+			}
+		}, 0, SysConfig.HEALTH_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	static boolean isInitialized() {
+		return peers != null;
+	}
+
+	/**
+	 * the names this host is known by, peer-self if it is set
+	 */
+	private static Set<String> getSelfHosts() {
+		Set<String> hosts = new HashSet<String>();
+		if (SysConfig.PEER_SELF != null) {
+			for (String host : SysConfig.PEER_SELF.split(",")) {
+				hosts.add(host.trim());
+			}
+			return hosts;
+		}
+		try {
+			InetAddress local = InetAddress.getLocalHost();
+			hosts.add(local.getHostName());
+			hosts.add(local.getCanonicalHostName());
+			hosts.add(local.getHostAddress());
+		} catch (IOException e) {
+			log.warn("can't get the name of this host", e);
+		}
+		return hosts;
+	}
+
+	/**
+	 * choose the peer holding most bytes of a range of a file
+	 *
+	 * @param locations
+	 *            block locations of the range
+	 * @param start
+	 * @param end
+	 *            the last byte of the range
+	 * @return base URL of the peer or null if this host is as good as any
+	 *         healthy peer
+	 */
+	static String choose(BlockLocation[] locations, long start, long end)
+			throws IOException {
+		Map<String, Long> bytes = new HashMap<String, Long>();
+		for (BlockLocation location : locations) {
+			long overlap = Math.min(end + 1,
+					location.getOffset() + location.getLength())
+					- Math.max(start, location.getOffset());
+			if (overlap <= 0) {
+				continue;
+			}
+			for (String host : location.getHosts()) {
+				Long sum = bytes.get(host);
+				bytes.put(host, sum == null ? overlap : sum + overlap);
+			}
+		}
+		long localBytes = 0;
+		for (String host : selfHosts) {
+			Long sum = bytes.get(host);
+			if (sum != null && sum > localBytes) {
+				localBytes = sum;
+			}
+		}
+		Peer best = null;
+		long bestBytes = localBytes;
+		for (Map.Entry<String, Long> e : bytes.entrySet()) {
+			Peer peer = peers.get(e.getKey());
+			if (peer != null && peer.healthy && e.getValue() > bestBytes) {
+				best = peer;
+				bestBytes = e.getValue();
+			}
+		}
+		return best == null ? null : best.url;
+	}
+}
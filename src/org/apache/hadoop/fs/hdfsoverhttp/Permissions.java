@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.permission.AclEntry;
+import org.apache.hadoop.fs.permission.AclEntryScope;
+import org.apache.hadoop.fs.permission.AclEntryType;
+import org.apache.hadoop.fs.permission.AclStatus;
+import org.apache.hadoop.fs.permission.FsAction;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.log4j.Logger;
+
+/**
+ * Decides what a user may do with a file the way the NameNode does. The
+ * owner, the named users of the ACL, the groups (the owning group and the
+ * named groups of the ACL) and the others are tried in this order, the
+ * first class the user belongs to gives the permitted actions. With an
+ * ACL the group bits of the mode are the mask of the named entries. The
+ * actions are compared as the bits of FsAction.ordinal(): read 4, write
+ * 2, execute 1.
+ *
+ * The mode is in the FileStatus, so a file without an ACL is decided
+ * without a call. The ACL of a file with one is read from the NameNode,
+ * its decision is cached per cluster, user and path for
+ * permission-cache-ttl as long as the owner, group and mode of the file
+ * stay the same, so a large listing of such files costs one call per file
+ * and TTL.
+ */
+class Permissions {
+
+	static Logger log = Logger.getLogger(Permissions.class);
+
+	static final int READ = FsAction.READ.ordinal();
+	static final int EXECUTE = FsAction.EXECUTE.ordinal();
+
+	private static final AtomicLong GET_ACL_STATUS = Metrics.counter(
+			"hdfsoverhttp_namenode_rpcs_total", "op=\"getAclStatus\"");
+	private static LinkedHashMap<String, Decision> decisions = null;
+
+	private final String user;
+	private final Set<String> groups;
+
+	/**
+	 * a cached decision for a file with an ACL
+	 */
+	private static class Decision {
+		final int allowed;
+		final short mode;
+		final String owner;
+		final String group;
+		final long created;
+
+		Decision(int allowed, FileStatus status) {
+			this.allowed = allowed;
+			this.mode = status.getPermission().toShort();
+			this.owner = status.getOwner();
+			this.group = status.getGroup();
+			this.created = System.currentTimeMillis();
+		}
+
+		boolean isValid(FileStatus status) {
+			return System.currentTimeMillis() - created < Tunables
+					.get().permissionCacheTtlMs
+					&& mode == status.getPermission().toShort()
+					&& owner.equals(status.getOwner())
+					&& group.equals(status.getGroup());
+		}
+	}
+
+	/**
+	 * @param user
+	 * @param groups
+	 *            the groups of the user
+	 */
+	Permissions(String user, String[] groups) {
+		this.user = user;
+		this.groups = new HashSet<String>(Arrays.asList(groups));
+	}
+
+	String getUser() {
+		return user;
+	}
+
+	/**
+	 * @param fs
+	 *            the FileSystem the ACL is read from
+	 * @param status
+	 * @return true if the user can read the file
+	 */
+	boolean canRead(FileSystem fs, FileStatus status) {
+		return (allowed(fs, status) & READ) != 0;
+	}
+
+	/**
+	 * @param fs
+	 *            the FileSystem the ACL is read from
+	 * @param status
+	 * @return true if the user can execute the file or enter the directory
+	 */
+	boolean canExecute(FileSystem fs, FileStatus status) {
+		return (allowed(fs, status) & EXECUTE) != 0;
+	}
+
+	/**
+	 * @return the permitted actions as the bits of FsAction.ordinal()
+	 */
+	int allowed(FileSystem fs, FileStatus status) {
+		FsPermission permission = status.getPermission();
+		if (user.equals(status.getOwner())) {
+			return permission.getUserAction().ordinal();
+		}
+		if (permission.getAclBit()) {
+			return aclAllowed(fs, status);
+		}
+		if (groups.contains(status.getGroup())) {
+			return permission.getGroupAction().ordinal();
+		}
+		return permission.getOtherAction().ordinal();
+	}
+
+	private int aclAllowed(FileSystem fs, FileStatus status) {
+		// two mounts can serve the same path of different clusters
+		String key = fs.getUri() + "|" + user + "|"
+				+ status.getPath().toUri().getPath();
+		Map<String, Decision> cache = getDecisions();
+		synchronized (cache) {
+			Decision decision = cache.get(key);
+			if (decision != null && decision.isValid(status)) {
+				return decision.allowed;
+			}
+		}
+		AclStatus acl;
+		try {
+			GET_ACL_STATUS.incrementAndGet();
+			acl = fs.getAclStatus(status.getPath());
+		} catch (IOException e) {
+			log.warn("read ACL of " + status.getPath() + " error: " + e);
+			return 0;
+		}
+		int allowed = evaluate(status, acl);
+		synchronized (cache) {
+			cache.put(key, new Decision(allowed, status));
+		}
+		return allowed;
+	}
+
+	/**
+	 * the named users, then the groups, then the others, the owner is
+	 * checked before
+	 */
+	private int evaluate(FileStatus status, AclStatus acl) {
+		FsPermission permission = status.getPermission();
+		int mask = permission.getGroupAction().ordinal();
+		for (AclEntry entry : acl.getEntries()) {
+			if (entry.getScope() == AclEntryScope.ACCESS
+					&& entry.getType() == AclEntryType.USER
+					&& user.equals(entry.getName())) {
+				return entry.getPermission().ordinal() & mask;
+			}
+		}
+		boolean inGroup = false;
+		int allowed = 0;
+		for (AclEntry entry : acl.getEntries()) {
+			if (entry.getScope() == AclEntryScope.ACCESS
+					&& entry.getType() == AclEntryType.GROUP) {
+				String group = entry.getName() == null ? status.getGroup()
+						: entry.getName();
+				if (groups.contains(group)) {
+					inGroup = true;
+					allowed |= entry.getPermission().ordinal() & mask;
+				}
+			}
+		}
+		if (inGroup) {
+			return allowed;
+		}
+		return permission.getOtherAction().ordinal();
+	}
+
+	private static synchronized Map<String, Decision> getDecisions() {
+		if (decisions == null) {
+			decisions = new LinkedHashMap<String, Decision>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, Decision> eldest) {
+					return size() > Tunables.get().permissionCacheSize;
+				}
+			};
+		}
+		return decisions;
+	}
+
+	/**
+	 * drop the least recently used decisions beyond a smaller
+	 * permission-cache-size
+	 */
+	static void tune(Tunables tunables) {
+		Map<String, Decision> cache = getDecisions();
+		synchronized (cache) {
+			Iterator<Decision> eldest = cache.values().iterator();
+			while (cache.size() > tunables.permissionCacheSize
+					&& eldest.hasNext()) {
+				eldest.next();
+				eldest.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A semaphore whose number of permits can be changed while it is used.
+ * Lowering the limit doesn't take a permit from its holders, the new
+ * limit is reached as they release them.
+ */
+class Permits extends Semaphore {
+
+	private static final long serialVersionUID = 1L;
+
+	private int limit;
+
+	Permits(int limit) {
+		super(limit);
+		this.limit = limit;
+	}
+
+	synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param newLimit
+	 *            the number of permits
+	 */
+	synchronized void setLimit(int newLimit) {
+		int delta = newLimit - limit;
+		limit = newLimit;
+		if (delta > 0) {
+			release(delta);
+		} else if (delta < 0) {
+			reducePermits(-delta);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reports the virtual threads pinned to their carrier.
+ *
+ * A virtual thread blocking inside a synchronized block or method can't
+ * unmount, so it holds a carrier thread like a platform thread does. In
+ * the virtual thread mode a JFR stream records the jdk.VirtualThreadPinned
+ * events longer than pinned-threshold-ms, they are counted in
+ * hdfsoverhttp_virtual_thread_pinned_total and logged with their stack so
+ * the synchronized section on the hot path can be found. JFR is used by
+ * reflection, so the class still loads on older JVMs.
+ */
+class PinnedThreads implements InvocationHandler {
+
+	static Logger log = Logger.getLogger(PinnedThreads.class);
+
+	private static final String EVENT = "jdk.VirtualThreadPinned";
+	// log at most one stack in this interval, the events are counted
+	private static final long LOG_INTERVAL = 10000L;
+
+	private static final AtomicLong pinned = Metrics.counter(
+			"hdfsoverhttp_virtual_thread_pinned_total", null);
+	private static final AtomicLong lastLog = new AtomicLong();
+	private static Object stream = null;
+
+	private PinnedThreads() {
+	}
+
+	/**
+	 * start the recording once, does nothing if the JVM has no JFR
+	 */
+	static synchronized void start() {
+		if (stream != null) {
+			return;
+		}
+		try {
+			Class<?> streamClass = Class
+					.forName("jdk.jfr.consumer.RecordingStream");
+			Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+			Class<?> durationClass = Class.forName("java.time.Duration");
+			Class<?> consumerClass = Class
+					.forName("java.util.function.Consumer");
+			Object recording = streamClass.getConstructor().newInstance();
+			Object settings = streamClass.getMethod("enable", String.class)
+					.invoke(recording, EVENT);
+			Object threshold = durationClass.getMethod("ofMillis", long.class)
+					.invoke(null, SysConfig.PINNED_THRESHOLD_MS);
+			settings = settingsClass.getMethod("withThreshold", durationClass)
+					.invoke(settings, threshold);
+			settingsClass.getMethod("withStackTrace").invoke(settings);
+			Object handler = Proxy.newProxyInstance(
+					PinnedThreads.class.getClassLoader(),
+					new Class<?>[] { consumerClass }, new PinnedThreads());
+			streamClass.getMethod("onEvent", String.class, consumerClass)
+					.invoke(recording, EVENT, handler);
+			streamClass.getMethod("startAsync").invoke(recording);
+			stream = recording;
+			log.info("report virtual threads pinned longer than "
+					+ SysConfig.PINNED_THRESHOLD_MS + " ms");
+		} catch (Exception e) {
+			log.warn("start recording of pinned virtual threads error", e);
+		}
+	}
+
+	/**
+	 * the Consumer of the events
+	 */
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if (name.equals("accept")) {
+			pinned.incrementAndGet();
+			long now = System.currentTimeMillis();
+			long last = lastLog.get();
+			if (now - last >= LOG_INTERVAL
+					&& lastLog.compareAndSet(last, now)) {
+				log.warn("virtual thread pinned to its carrier, "
+						+ pinned.get() + " times so far: " + args[0]);
+			}
+			return null;
+		} else if (name.equals("equals")) {
+			return proxy == args[0];
+		} else if (name.equals("hashCode")) {
+			return System.identityHashCode(proxy);
+		} else if (name.equals("toString")) {
+			return "PinnedThreads";
+		}
+		return null;
+	}
+}
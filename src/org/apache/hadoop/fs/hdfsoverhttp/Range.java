@@ -19,32 +19,17 @@
 package org.apache.hadoop.fs.hdfsoverhttp;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Locale;
 import java.util.StringTokenizer;
-import java.util.TimeZone;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.hadoop.fs.FileChecksum;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.util.StringUtils;
 
 public class Range {
-	/**
-	 * HTTP date format.
-	 */
-	protected static final SimpleDateFormat format = new SimpleDateFormat(
-			"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-	protected final static TimeZone gmtZone = TimeZone.getTimeZone("GMT");
-
-	/**
-	 * GMT timezone - all HTTP dates are on GMT
-	 */
-	static {
-		format.setTimeZone(gmtZone);
-	}
 
 	/**
 	 * Full range marker.
@@ -85,6 +70,15 @@ public class Range {
 		return weakETag;
 	}
 
+	/**
+	 * Get strong ETag.
+	 * 
+	 * @return strong ETag derived from the file checksum.
+	 */
+	public static String getETag(FileChecksum checksum) {
+		return "\"" + StringUtils.byteToHexString(checksum.getBytes()) + "\"";
+	}
+
 	/**
 	 * Parse the range header.
 	 * 
@@ -92,10 +86,12 @@ public class Range {
 	 *            The servlet request we are processing
 	 * @param response
 	 *            The servlet response we are creating
+	 * @param eTag
+	 *            The ETag of the file
 	 * @return Vector of ranges
 	 */
 	protected ArrayList<Range> parseRange(HttpServletRequest request,
-			HttpServletResponse response, FileStatus fileStatus)
+			HttpServletResponse response, FileStatus fileStatus, String eTag)
 			throws IOException {
 
 		// Checking If-Range
@@ -110,7 +106,6 @@ public class Range {
 				;
 			}
 
-			String eTag = getETag(fileStatus);
 			long lastModified = fileStatus.getModificationTime();
 
 			if (headerValueTime == (-1L)) {
@@ -219,11 +214,6 @@ public class Range {
 	 * @return Returns the lastModifiedHttp.
 	 */
 	public static String getLastModifiedHttp(FileStatus fileStatus) {
-		String lastModifiedHttp = null;
-		synchronized (format) {
-			lastModifiedHttp = format.format(new Date(fileStatus
-					.getModificationTime()));
-		}
-		return lastModifiedHttp;
+		return Formats.httpDate(fileStatus.getModificationTime());
 	}
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.hdfs.DFSInputStream.ReadStatistics;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
+import org.apache.log4j.Logger;
+
+/**
+ * Counts the downloads by the way their bytes were read: zero-copy from a
+ * mmapped block file, short-circuit from the local disk, from the local
+ * DataNode over TCP or from a remote DataNode. The counters are read from
+ * the read statistics of the HDFS stream when it is closed.
+ */
+public class ReadPaths implements ReadPathsMBean {
+
+	static Logger log = Logger.getLogger(ReadPaths.class);
+
+	private static final ReadPaths instance = new ReadPaths();
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(instance,
+					new ObjectName("hdfsoverhttp:type=ReadPaths"));
+		} catch (Exception e) {
+			log.warn("register mbean of read paths error", e);
+		}
+	}
+
+	private final AtomicLong zeroCopyRequests = new AtomicLong();
+	private final AtomicLong shortCircuitRequests = new AtomicLong();
+	private final AtomicLong localRequests = new AtomicLong();
+	private final AtomicLong remoteRequests = new AtomicLong();
+	private final AtomicLong zeroCopyBytes = new AtomicLong();
+	private final AtomicLong shortCircuitBytes = new AtomicLong();
+	private final AtomicLong localBytes = new AtomicLong();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final AtomicLong zeroCopyFallbacks = new AtomicLong();
+
+	private ReadPaths() {
+	}
+
+	static ReadPaths getInstance() {
+		return instance;
+	}
+
+	/**
+	 * count a download by the read statistics of its stream
+	 *
+	 * @param is
+	 *            the stream, before it is closed
+	 * @return the path, zero-copy, short-circuit, local, remote or unknown
+	 */
+	static String record(FSDataInputStream is) {
+		if (!(is instanceof HdfsDataInputStream)) {
+			return "unknown";
+		}
+		ReadStatistics stats = ((HdfsDataInputStream) is).getReadStatistics();
+		instance.zeroCopyBytes.addAndGet(stats.getTotalZeroCopyBytesRead());
+		instance.shortCircuitBytes.addAndGet(stats
+				.getTotalShortCircuitBytesRead());
+		instance.localBytes.addAndGet(stats.getTotalLocalBytesRead());
+		instance.totalBytes.addAndGet(stats.getTotalBytesRead());
+		if (stats.getTotalZeroCopyBytesRead() > 0) {
+			instance.zeroCopyRequests.incrementAndGet();
+			return "zero-copy";
+		} else if (stats.getTotalShortCircuitBytesRead() > 0) {
+			instance.shortCircuitRequests.incrementAndGet();
+			return "short-circuit";
+		} else if (stats.getTotalLocalBytesRead() > 0) {
+			instance.localRequests.incrementAndGet();
+			return "local";
+		}
+		instance.remoteRequests.incrementAndGet();
+		return "remote";
+	}
+
+	/**
+	 * count a zero-copy read which the stream couldn't serve from a mmapped
+	 * block, its bytes were copied into a pooled buffer
+	 */
+	static void recordFallback() {
+		instance.zeroCopyFallbacks.incrementAndGet();
+	}
+
+	@Override
+	public long getZeroCopyRequests() {
+		return zeroCopyRequests.get();
+	}
+
+	@Override
+	public long getShortCircuitRequests() {
+		return shortCircuitRequests.get();
+	}
+
+	@Override
+	public long getLocalRequests() {
+		return localRequests.get();
+	}
+
+	@Override
+	public long getRemoteRequests() {
+		return remoteRequests.get();
+	}
+
+	@Override
+	public long getZeroCopyBytes() {
+		return zeroCopyBytes.get();
+	}
+
+	@Override
+	public long getShortCircuitBytes() {
+		return shortCircuitBytes.get();
+	}
+
+	@Override
+	public long getLocalBytes() {
+		return localBytes.get();
+	}
+
+	@Override
+	public long getTotalBytes() {
+		return totalBytes.get();
+	}
+
+	@Override
+	public long getZeroCopyFallbacks() {
+		return zeroCopyFallbacks.get();
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+/**
+ * The time a request spent in each phase: resolving the path to a mount
+ * and its file system, the metadata calls to the NameNode, opening the
+ * stream, the first read from the DataNode, the transfer of the rest and
+ * closing the stream. The transfer is also split into the time reading
+ * HDFS and the time writing to the client.
+ *
+ * The timing of the request served by a thread is kept in a thread local,
+ * so the phases can be added by HdfsTool without passing it around.
+ */
+public class RequestTiming {
+
+	static final int RESOLVE = 0;
+	static final int METADATA = 1;
+	static final int OPEN = 2;
+	static final int FIRST_READ = 3;
+	static final int TRANSFER = 4;
+	static final int CLOSE = 5;
+
+	private static final String[] NAMES = { "resolve", "metadata", "open",
+			"first-read", "transfer", "close" };
+
+	private static final ThreadLocal<RequestTiming> current = new ThreadLocal<RequestTiming>();
+
+	private final long startNanos = System.nanoTime();
+	private final long[] nanos = new long[NAMES.length];
+	private long readNanos = 0;
+	private long writeNanos = 0;
+	private String readPath = null;
+
+	private RequestTiming() {
+	}
+
+	/**
+	 * start the timing of the request served by the current thread
+	 *
+	 * @return the timing
+	 */
+	static RequestTiming start() {
+		RequestTiming timing = new RequestTiming();
+		current.set(timing);
+		return timing;
+	}
+
+	/**
+	 * end the timing of the request served by the current thread
+	 */
+	void end() {
+		current.remove();
+	}
+
+	/**
+	 * add the time since start to a phase of the current request
+	 *
+	 * @param phase
+	 * @param start
+	 *            the System.nanoTime() at the start of the phase
+	 * @return now, the start of the next phase
+	 */
+	static long add(int phase, long start) {
+		long now = System.nanoTime();
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.nanos[phase] += now - start;
+		}
+		return now;
+	}
+
+	/**
+	 * add the first read of a stream, it is moved out of the transfer
+	 *
+	 * @param elapsed
+	 *            the time of the read
+	 */
+	static void firstRead(long elapsed) {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.nanos[FIRST_READ] += elapsed;
+			timing.nanos[TRANSFER] -= elapsed;
+		}
+	}
+
+	/**
+	 * add the time a copy spent reading HDFS and writing to the client
+	 *
+	 * @param read
+	 * @param write
+	 */
+	static void transfer(long read, long write) {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.readNanos += read;
+			timing.writeNanos += write;
+		}
+	}
+
+	/**
+	 * @param path
+	 *            the read path of the stream, see ReadPaths
+	 */
+	static void readPath(String path) {
+		RequestTiming timing = current.get();
+		if (timing != null) {
+			timing.readPath = path;
+		}
+	}
+
+	long getStartNanos() {
+		return startNanos;
+	}
+
+	long getElapsedNanos() {
+		return System.nanoTime() - startNanos;
+	}
+
+	/**
+	 * @return the phases done so far as the value of a Server-Timing header
+	 */
+	String toServerTiming() {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < NAMES.length; i++) {
+			if (nanos[i] > 0) {
+				if (value.length() > 0) {
+					value.append(", ");
+				}
+				value.append(NAMES[i]).append(";dur=");
+				appendMillis(value, nanos[i]);
+			}
+		}
+		if (value.length() > 0) {
+			value.append(", ");
+		}
+		value.append("total;dur=");
+		appendMillis(value, getElapsedNanos());
+		return value.toString();
+	}
+
+	/**
+	 * append the phases as the members of a JSON object
+	 *
+	 * @param out
+	 */
+	void appendJson(StringBuilder out) {
+		for (int i = 0; i < NAMES.length; i++) {
+			out.append(",\"").append(NAMES[i]).append("\":");
+			appendMillis(out, nanos[i]);
+		}
+		out.append(",\"hdfs-read\":");
+		appendMillis(out, readNanos);
+		out.append(",\"client-write\":");
+		appendMillis(out, writeNanos);
+		if (readPath != null) {
+			out.append(",\"read-path\":\"").append(readPath).append('"');
+		}
+	}
+
+	/**
+	 * @return the phases in a line for the log
+	 */
+	String describe() {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < NAMES.length; i++) {
+			out.append(NAMES[i]).append('=');
+			appendMillis(out, nanos[i]);
+			out.append("ms ");
+		}
+		out.append("hdfs-read=");
+		appendMillis(out, readNanos);
+		out.append("ms client-write=");
+		appendMillis(out, writeNanos);
+		out.append("ms read-path=").append(readPath);
+		return out.toString();
+	}
+
+	/**
+	 * append nanoseconds as milliseconds with one decimal
+	 */
+	private static void appendMillis(StringBuilder out, long nanos) {
+		long tenths = Math.max(0, nanos) / 100000;
+		out.append(tenths / 10).append('.').append(tenths % 10);
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.log4j.Logger;
+
+/**
+ * Detects clients which drain a download far slower than it is read, and
+ * sends the rest of their download without holding a DataNode connection.
+ *
+ * A copy loop reports the time spent reading and writing. When the writes
+ * take park-ratio times longer than the reads, the loop closes its stream
+ * and the download is parked: the rest is read a window at a time by
+ * positional reads, which don't keep a connection to the DataNode, into
+ * memory or, when the memory budget of parked windows is used up, into a
+ * file on local disk, and the window is drained to the client.
+ */
+public class StreamParking {
+
+	static Logger log = Logger.getLogger(StreamParking.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final AtomicLong memoryInUse = new AtomicLong();
+	private static final AtomicLong parked = new AtomicLong();
+
+	private final long startMillis = System.currentTimeMillis();
+	// the thresholds of the download
+	private final Tunables tunables = Tunables.get();
+	private long readNanos = 0;
+	private long writeNanos = 0;
+
+	/**
+	 * @param nanos
+	 *            the time of a read of the stream
+	 */
+	void read(long nanos) {
+		readNanos += nanos;
+	}
+
+	/**
+	 * @param nanos
+	 *            the time of a write to the client
+	 */
+	void wrote(long nanos) {
+		writeNanos += nanos;
+	}
+
+	long getReadNanos() {
+		return readNanos;
+	}
+
+	long getWriteNanos() {
+		return writeNanos;
+	}
+
+	/**
+	 * @return true if the client is so slow that the stream should be closed
+	 */
+	boolean shouldPark() {
+		return SysConfig.PARK_SLOW_CONSUMERS
+				&& writeNanos > tunables.parkRatio * readNanos
+				&& System.currentTimeMillis() - startMillis > tunables.parkAfterMs;
+	}
+
+	/**
+	 * send a part of a file a window at a time
+	 *
+	 * @param dfs
+	 * @param fileStatus
+	 * @param ostream
+	 * @param offset
+	 *            the first byte to send
+	 * @param length
+	 *            the number of bytes to send
+	 * @throws IOException
+	 *             if the file can't be read
+	 */
+	static void copyParked(FileSystem dfs, FileStatus fileStatus,
+			OutputStream ostream, long offset, long length) throws IOException {
+		parked.incrementAndGet();
+		log.info("park download of " + fileStatus.getPath() + " at " + offset
+				+ ", " + length + " bytes left");
+		// the stream is only used for positional reads, so it holds no
+		// DataNode connection between the windows
+		Metrics.OPEN.incrementAndGet();
+		FSDataInputStream is = dfs.open(fileStatus.getPath());
+		Tunables tunables = Tunables.get();
+		try {
+			long end = offset + length;
+			while (offset < end) {
+				int window = (int) Math.min(tunables.parkWindowSize, end
+						- offset);
+				boolean sent;
+				if (memoryInUse.addAndGet(window) <= tunables.parkMemoryBudget) {
+					try {
+						sent = sendFromMemory(is, ostream, offset, window);
+					} finally {
+						memoryInUse.addAndGet(-window);
+					}
+				} else {
+					memoryInUse.addAndGet(-window);
+					sent = sendFromDisk(is, ostream, offset, window);
+				}
+				if (!sent) {
+					Metrics.CLIENT_ABORTS.incrementAndGet();
+					log.warn("write file " + fileStatus.getPath()
+							+ " be aborted \n"
+							+ "ClientAbortException:  java.net.SocketException: ");
+					return;
+				}
+				offset += window;
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	private static boolean sendFromMemory(FSDataInputStream is,
+			OutputStream ostream, long offset, int window) throws IOException {
+		byte[] buffer = new byte[window];
+		is.readFully(offset, buffer);
+		try {
+			ostream.write(buffer);
+		} catch (IOException e) {
+			return false;
+		}
+		return true;
+	}
+
+	private static boolean sendFromDisk(FSDataInputStream is,
+			OutputStream ostream, long offset, int window) throws IOException {
+		File dir = new File(SysConfig.PARK_DIR);
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("can't create " + dir);
+		}
+		File file = File.createTempFile("park", ".tmp", dir);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			OutputStream os = new FileOutputStream(file);
+			try {
+				for (int done = 0; done < window;) {
+					int n = Math.min(buffer.length, window - done);
+					is.readFully(offset + done, buffer, 0, n);
+					os.write(buffer, 0, n);
+					done += n;
+				}
+			} finally {
+				os.close();
+			}
+			InputStream in = new FileInputStream(file);
+			try {
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					try {
+						ostream.write(buffer, 0, n);
+					} catch (IOException e) {
+						return false;
+					}
+				}
+			} finally {
+				in.close();
+			}
+			return true;
+		} finally {
+			if (!file.delete()) {
+				log.warn("can't delete " + file);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of downloads which were parked
+	 */
+	static long getParked() {
+		return parked.get();
+	}
+
+	/**
+	 * @return the bytes of the parked windows held in memory
+	 */
+	static long getMemoryInUse() {
+		return memoryInUse.get();
+	}
+}
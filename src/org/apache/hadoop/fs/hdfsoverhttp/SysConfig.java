@@ -18,8 +18,12 @@
 
 package org.apache.hadoop.fs.hdfsoverhttp;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.servlet.ServletContext;
@@ -32,32 +36,93 @@ public class SysConfig {
 	static Logger log = Logger.getLogger(SysConfig.class);
 
 	private static Properties props;
+	// set when init is done, read without the lock
+	private static volatile boolean initialized = false;
 	private static String CONF_FILE = "hdfs-over-http.conf";
 	static String ROOT_DIR;
 	static String HDFS_URI;
+	static String HDFS_NAMENODES;
+	static long HEALTH_CHECK_INTERVAL_MS;
+	static int HEALTH_CHECK_FAILURES;
+	static String MOUNTS;
 	static String INDEX_HTML;
 	public static String README_FILE;
 	public static String HEADER_FILE;
 	public static boolean hasReadme;
 	public static boolean hasHeader;
+	static boolean CHECKSUM_ETAG;
+	static boolean DIGEST_HEADER;
+	static int FOLLOW_THREADS;
+	static int LINE_INDEX_INTERVAL;
+	static long LINE_INDEX_MIN_SIZE;
+	static boolean LINE_INDEX_ON_HDFS;
+	static String LINE_INDEX_DIR;
+	static int LINE_INDEX_THREADS;
+	static int FILTER_THREADS;
+	static long GREP_PARALLEL_MIN_SIZE;
+	static int DECOMPRESS_THREADS;
+	static long DECOMPRESS_PARALLEL_MIN_SIZE;
+	static boolean PEER_REDIRECT;
+	static String PEERS_FILE;
+	static String PEER_SELF;
+	static long PEER_REDIRECT_MIN_SIZE;
+	static boolean SHORT_CIRCUIT_READ;
+	static String DOMAIN_SOCKET_PATH;
+	static boolean ZERO_COPY_READ;
+	static boolean ZERO_COPY_SKIP_CHECKSUMS;
+	static boolean SENDFILE;
+	static int HEDGED_READ_THREADS;
+	static long HEDGED_READ_THRESHOLD_MS;
+	static boolean BROADCAST;
+	static boolean PARK_SLOW_CONSUMERS;
+	static String PARK_DIR;
+	static String METRICS_PATH;
+	static boolean SERVER_TIMING;
+	static String ACCESS_LOG;
+	static boolean VIRTUAL_THREADS;
+	static long PINNED_THRESHOLD_MS;
+	static String WARMUP_PATHS;
+	static String READY_PATH;
+	static String LIVE_PATH;
+	static long CONF_RELOAD_INTERVAL_MS;
+	static boolean IMPERSONATION;
+	static String USER_HEADER;
+	static String ANONYMOUS_USER;
+	static boolean PATH_INDEX;
+	static long PATH_INDEX_EXPECTED_PATHS;
+	static double PATH_INDEX_FPP;
+	static int PATH_INDEX_THREADS;
+	static long PATH_INDEX_REFRESH_MS;
+	static long PATH_INDEX_MAX_STALENESS_MS;
+	static long PATH_INDEX_GRACE_MS;
+	static String PATH_INDEX_DIR;
+	static int HOT_PATHS_SIZE;
+	static int HOT_PATHS_SKETCH_WIDTH;
+	static String HOT_PATHS_PATH;
+	static String HOT_PATHS_FILE;
+	static long HOT_PATHS_SNAPSHOT_INTERVAL_MS;
+	static int HOT_PATHS_WARMUP_BYTES;
 
 	/**
 	 * get parameter from the config file
 	 * 
 	 * @param context
 	 */
-	static public void init(ServletContext context) {
+	static synchronized public void init(ServletContext context) {
 		if (props == null) {
 			try {
 				props = getProps(context);
-				ROOT_DIR = props.getProperty("root-dir", "").trim();
-				if (ROOT_DIR.equals(Path.SEPARATOR)){
-					ROOT_DIR = "";
-				} else if (ROOT_DIR.endsWith(Path.SEPARATOR)) {
-					ROOT_DIR = ROOT_DIR.substring(0,ROOT_DIR.length() - 1);
-				}
+				ROOT_DIR = normalizeDir(props.getProperty("root-dir", ""));
 
-				HDFS_URI = props.getProperty("hdfs-uri").trim();
+				HDFS_URI = props.getProperty("hdfs-uri", "").trim();
+				HDFS_NAMENODES = props.getProperty("hdfs-namenodes");
+				if (HDFS_NAMENODES != null)
+					HDFS_NAMENODES = HDFS_NAMENODES.trim();
+				HEALTH_CHECK_INTERVAL_MS = Long.parseLong(props.getProperty(
+						"health-check-interval", "10").trim()) * 1000;
+				HEALTH_CHECK_FAILURES = Integer.parseInt(props.getProperty(
+						"health-check-failures", "2").trim());
+				MOUNTS = props.getProperty("mounts", "").trim();
 
 				INDEX_HTML = props.getProperty("DirectoryIndex", "index.html")
 						.trim();
@@ -69,16 +134,219 @@ public class SysConfig {
 				if (HEADER_FILE != null)
 					hasHeader = true;
 
+				CHECKSUM_ETAG = Boolean.parseBoolean(props.getProperty(
+						"checksum-etag", "false").trim());
+				DIGEST_HEADER = Boolean.parseBoolean(props.getProperty(
+						"digest-header", "false").trim());
+
+				FOLLOW_THREADS = Integer.parseInt(props.getProperty(
+						"follow-threads", "4").trim());
+
+				LINE_INDEX_INTERVAL = Integer.parseInt(props.getProperty(
+						"line-index-interval", "10000").trim());
+				LINE_INDEX_MIN_SIZE = Long.parseLong(props.getProperty(
+						"line-index-min-size", "67108864").trim());
+				LINE_INDEX_ON_HDFS = props.getProperty("line-index-store",
+						"local").trim().equals("hdfs");
+				LINE_INDEX_DIR = props.getProperty(
+						"line-index-dir",
+						LINE_INDEX_ON_HDFS ? "/tmp/hdfsoverhttp-line-index"
+								: System.getProperty("java.io.tmpdir")
+										+ File.separator
+										+ "hdfsoverhttp-line-index").trim();
+				LINE_INDEX_THREADS = Integer.parseInt(props.getProperty(
+						"line-index-threads", "2").trim());
+
+				FILTER_THREADS = Integer.parseInt(props.getProperty(
+						"filter-threads",
+						"" + Runtime.getRuntime().availableProcessors())
+						.trim());
+				GREP_PARALLEL_MIN_SIZE = Long.parseLong(props.getProperty(
+						"grep-parallel-min-size", "268435456").trim());
+
+				DECOMPRESS_THREADS = Integer.parseInt(props.getProperty(
+						"decompress-threads",
+						"" + Runtime.getRuntime().availableProcessors())
+						.trim());
+				DECOMPRESS_PARALLEL_MIN_SIZE = Long.parseLong(props
+						.getProperty("decompress-parallel-min-size",
+								"268435456").trim());
+
+				PEER_REDIRECT = Boolean.parseBoolean(props.getProperty(
+						"peer-redirect", "false").trim());
+				PEERS_FILE = props.getProperty("peers-file", "peers.conf")
+						.trim();
+				PEER_SELF = props.getProperty("peer-self");
+				if (PEER_SELF != null)
+					PEER_SELF = PEER_SELF.trim();
+				PEER_REDIRECT_MIN_SIZE = Long.parseLong(props.getProperty(
+						"peer-redirect-min-size", "4194304").trim());
+
+				SHORT_CIRCUIT_READ = Boolean.parseBoolean(props.getProperty(
+						"short-circuit-read", "false").trim());
+				DOMAIN_SOCKET_PATH = props.getProperty("domain-socket-path",
+						"/var/lib/hadoop-hdfs/dn_socket").trim();
+				ZERO_COPY_READ = Boolean.parseBoolean(props.getProperty(
+						"zero-copy-read", "false").trim());
+				ZERO_COPY_SKIP_CHECKSUMS = Boolean.parseBoolean(props
+						.getProperty("zero-copy-skip-checksums", "false")
+						.trim());
+				SENDFILE = Boolean.parseBoolean(props.getProperty("sendfile",
+						"true").trim());
+
+				HEDGED_READ_THREADS = Integer.parseInt(props.getProperty(
+						"hedged-read-threads", "0").trim());
+				HEDGED_READ_THRESHOLD_MS = Long.parseLong(props.getProperty(
+						"hedged-read-threshold-ms", "500").trim());
+
+				BROADCAST = Boolean.parseBoolean(props.getProperty(
+						"broadcast", "false").trim());
+
+				PARK_SLOW_CONSUMERS = Boolean.parseBoolean(props.getProperty(
+						"park-slow-consumers", "false").trim());
+				PARK_DIR = props.getProperty("park-dir",
+						System.getProperty("java.io.tmpdir")).trim();
+
+				METRICS_PATH = props.getProperty("metrics-path", "/.metrics")
+						.trim();
+				SERVER_TIMING = Boolean.parseBoolean(props.getProperty(
+						"server-timing", "true").trim());
+				ACCESS_LOG = props.getProperty("access-log", "").trim();
+
+				VIRTUAL_THREADS = Boolean.parseBoolean(props.getProperty(
+						"virtual-threads", "false").trim());
+				PINNED_THRESHOLD_MS = Long.parseLong(props.getProperty(
+						"pinned-threshold-ms", "20").trim());
+
+				WARMUP_PATHS = props.getProperty("warmup-paths", "").trim();
+				READY_PATH = props.getProperty("ready-path", "/.ready").trim();
+				LIVE_PATH = props.getProperty("live-path", "/.live").trim();
+
+				CONF_RELOAD_INTERVAL_MS = Long.parseLong(props.getProperty(
+						"conf-reload-interval", "10").trim()) * 1000;
+
+				IMPERSONATION = Boolean.parseBoolean(props.getProperty(
+						"impersonation", "false").trim());
+				USER_HEADER = props.getProperty("user-header", "").trim();
+				ANONYMOUS_USER = props.getProperty("anonymous-user", "").trim();
+
+				PATH_INDEX = Boolean.parseBoolean(props.getProperty(
+						"path-index", "false").trim());
+				PATH_INDEX_EXPECTED_PATHS = Long.parseLong(props.getProperty(
+						"path-index-expected-paths", "10000000").trim());
+				PATH_INDEX_FPP = Double.parseDouble(props.getProperty(
+						"path-index-fpp", "0.01").trim());
+				PATH_INDEX_THREADS = Integer.parseInt(props.getProperty(
+						"path-index-threads", "8").trim());
+				PATH_INDEX_REFRESH_MS = Long.parseLong(props.getProperty(
+						"path-index-refresh", "86400").trim()) * 1000;
+				PATH_INDEX_MAX_STALENESS_MS = Long.parseLong(props.getProperty(
+						"path-index-max-staleness", "0").trim()) * 1000;
+				PATH_INDEX_GRACE_MS = Long.parseLong(props.getProperty(
+						"path-index-grace", "5").trim()) * 1000;
+				PATH_INDEX_DIR = props.getProperty(
+						"path-index-dir",
+						System.getProperty("java.io.tmpdir") + File.separator
+								+ "hdfsoverhttp-path-index").trim();
+
+				HOT_PATHS_SIZE = Integer.parseInt(props.getProperty(
+						"hot-paths-size", "100").trim());
+				HOT_PATHS_SKETCH_WIDTH = Integer.parseInt(props.getProperty(
+						"hot-paths-sketch-width", "16384").trim());
+				HOT_PATHS_PATH = props.getProperty("hot-paths-path", "")
+						.trim();
+				HOT_PATHS_FILE = props.getProperty(
+						"hot-paths-file",
+						System.getProperty("java.io.tmpdir") + File.separator
+								+ "hdfsoverhttp-hot-paths").trim();
+				HOT_PATHS_SNAPSHOT_INTERVAL_MS = Long.parseLong(props
+						.getProperty("hot-paths-snapshot-interval", "300")
+						.trim()) * 1000;
+				HOT_PATHS_WARMUP_BYTES = Integer.parseInt(props.getProperty(
+						"hot-paths-warmup-bytes", "1048576").trim());
+				Tunables.init(props, getConfFile(context));
+
 			} catch (IOException e) {
 				log.error(CONF_FILE + " doesn't exist", e);
 			} catch (Exception e) {
 				log.error(e);
 			}
+			initialized = true;
+		}
+	}
+
+	/**
+	 * @return true if init is done, it is called by GatewayStartup before
+	 *         the first request
+	 */
+	static boolean isInitialized() {
+		return initialized;
+	}
+
+	/**
+	 * @param context
+	 * @return the config file, or null if it is packed in the war
+	 */
+	static private File getConfFile(ServletContext context) {
+		String path = context.getInitParameter(CONF_FILE);
+		if (path == null) {
+			path = context.getRealPath("/WEB-INF/conf/" + CONF_FILE);
+		}
+		return path != null ? new File(path) : null;
+	}
+
+	/**
+	 * get a parameter which isn't read by init, like the settings of a mount
+	 * 
+	 * @param name
+	 * @param defaultValue
+	 * @return trimmed value or defaultValue
+	 */
+	static public String getProperty(String name, String defaultValue) {
+		String value = props == null ? null : props.getProperty(name);
+		return value == null ? defaultValue : value.trim();
+	}
+
+	/**
+	 * remove the trailing separator of a directory, the top directory
+	 * becomes ""
+	 * 
+	 * @param dir
+	 * @return normalized directory
+	 */
+	static String normalizeDir(String dir) {
+		dir = dir.trim();
+		if (dir.equals(Path.SEPARATOR)) {
+			return "";
+		} else if (dir.endsWith(Path.SEPARATOR)) {
+			return dir.substring(0, dir.length() - 1);
+		}
+		return dir;
+	}
+
+	/**
+	 * get the Hadoop client properties(dfs.*, fs.*, ipc.*, hadoop.*) of the
+	 * config file
+	 * 
+	 * @return property name and value
+	 */
+	static public Map<String, String> getHadoopProperties() {
+		Map<String, String> hadoopProps = new HashMap<String, String>();
+		if (props == null) {
+			return hadoopProps;
+		}
+		for (String name : props.stringPropertyNames()) {
+			if (name.startsWith("dfs.") || name.startsWith("fs.")
+					|| name.startsWith("ipc.") || name.startsWith("hadoop.")) {
+				hadoopProps.put(name, props.getProperty(name).trim());
+			}
 		}
+		return hadoopProps;
 	}
 
 	/**
-	 * load configure file
+	 * load configure file, the init parameter hdfs-over-http.conf of the
+	 * context is its path outside of the webapp
 	 * 
 	 * @param context
 	 * @return object of property
@@ -87,9 +355,16 @@ public class SysConfig {
 	static private Properties getProps(ServletContext context)
 			throws IOException {
 		Properties props = new Properties();
-		InputStream inputStream = context.getResourceAsStream("/WEB-INF/conf/"
-				+ CONF_FILE);
-		props.load(inputStream);
+		String path = context.getInitParameter(CONF_FILE);
+		InputStream inputStream = path != null ? new FileInputStream(path)
+				: context.getResourceAsStream("/WEB-INF/conf/" + CONF_FILE);
+		try {
+			props.load(inputStream);
+		} finally {
+			if (inputStream != null) {
+				inputStream.close();
+			}
+		}
 		return props;
 	}
 
@@ -0,0 +1,431 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.log4j.Logger;
+
+/**
+ * Server side tail and grep of text files.
+ *
+ * Tail reads the file backwards from its end in chunks. Grep splits a large
+ * file at block boundaries and scans the parts in parallel; the matches of
+ * every part are queued in a bounded queue and sent in file order, so the
+ * matches of the first part are streamed while the next parts are scanned.
+ *
+ * A filter is bounded by a deadline, by the number of filters running at
+ * the same time and by the size of the shared thread pool, and the regular
+ * expression is evaluated against the same deadline so a pathological
+ * pattern can't run forever.
+ */
+public class TextFilter {
+
+	static Logger log = Logger.getLogger(TextFilter.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int TAIL_BUFFER_SIZE = 64 * 1024;
+	private static final int CHUNK_SIZE = 32 * 1024;
+	private static final long CHUNK_FLUSH_MS = 200;
+	private static final int QUEUE_CHUNKS = 32;
+	private static final int MAX_LINE_LENGTH = 1024 * 1024;
+	private static final byte[] END = new byte[0];
+
+	private static ExecutorService scanners = null;
+	private static Permits running = null;
+
+	/**
+	 * thrown when a filter runs out of its time budget
+	 */
+	static class BudgetExceededException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BudgetExceededException() {
+			super("filter time limit exceeded");
+		}
+	}
+
+	private final FileSystem dfs;
+	private final FileStatus fileStatus;
+	private final long deadline;
+	private volatile boolean cancelled = false;
+
+	private TextFilter(FileSystem dfs, FileStatus fileStatus) {
+		this.dfs = dfs;
+		this.fileStatus = fileStatus;
+		this.deadline = System.currentTimeMillis()
+				+ Tunables.get().filterTimeLimitMs;
+	}
+
+	private static synchronized ExecutorService getScanners() {
+		if (scanners == null) {
+			scanners = ThreadPools.newFixedPool("grep",
+					SysConfig.FILTER_THREADS);
+		}
+		return scanners;
+	}
+
+	/**
+	 * take a slot of the running filters
+	 *
+	 * @return false if too many filters are running
+	 */
+	static boolean acquire() {
+		return getRunning().tryAcquire();
+	}
+
+	private static synchronized Permits getRunning() {
+		if (running == null) {
+			running = new Permits(Tunables.get().filterMaxConcurrent);
+		}
+		return running;
+	}
+
+	/**
+	 * apply the limit of running filters of changed tunables
+	 */
+	static void tune(Tunables tunables) {
+		getRunning().setLimit(tunables.filterMaxConcurrent);
+	}
+
+	/**
+	 * release a slot taken by acquire
+	 */
+	static void release() {
+		running.release();
+	}
+
+	/**
+	 * find the offset of the last lines of a file by reading it backwards
+	 *
+	 * @param dfs
+	 * @param fileStatus
+	 * @param lines
+	 *            the number of lines
+	 * @return offset of the first of the last lines
+	 * @throws IOException
+	 */
+	static long findTailOffset(FileSystem dfs, FileStatus fileStatus,
+			long lines) throws IOException {
+		TextFilter filter = new TextFilter(dfs, fileStatus);
+		long length = fileStatus.getLen();
+		if (lines <= 0) {
+			return length;
+		}
+		byte[] buffer = new byte[TAIL_BUFFER_SIZE];
+		long pos = length;
+		long newlines = 0;
+		Metrics.OPEN.incrementAndGet();
+		FSDataInputStream is = dfs.open(fileStatus.getPath());
+		try {
+			while (pos > 0) {
+				filter.checkDeadline();
+				int n = (int) Math.min(buffer.length, pos);
+				pos -= n;
+				is.readFully(pos, buffer, 0, n);
+				for (int i = n - 1; i >= 0; i--) {
+					// the newline ending the last line doesn't start a line
+					if (buffer[i] == '\n' && pos + i != length - 1
+							&& ++newlines == lines) {
+						return pos + i + 1;
+					}
+				}
+			}
+		} finally {
+			is.close();
+		}
+		return 0;
+	}
+
+	/**
+	 * send the lines of a file which match a regular expression
+	 *
+	 * @param dfs
+	 * @param fileStatus
+	 * @param pattern
+	 * @param ostream
+	 * @throws IOException
+	 *             if the file can't be read
+	 * @throws BudgetExceededException
+	 *             if the time limit has passed
+	 */
+	static void grep(FileSystem dfs, FileStatus fileStatus, Pattern pattern,
+			OutputStream ostream) throws IOException {
+		new TextFilter(dfs, fileStatus).grep(pattern, ostream);
+	}
+
+	private void grep(Pattern pattern, OutputStream ostream)
+			throws IOException {
+		long length = fileStatus.getLen();
+		long partSize = length;
+		if (length >= SysConfig.GREP_PARALLEL_MIN_SIZE) {
+			partSize = Math.max(fileStatus.getBlockSize(), 1);
+		}
+		int parts = (int) Math.max(1, (length + partSize - 1) / partSize);
+		int window = Math.max(1, SysConfig.FILTER_THREADS);
+		Part[] scans = new Part[parts];
+		int submitted = 0;
+		try {
+			for (int k = 0; k < parts; k++) {
+				// keep at most window parts scanning ahead of the writer
+				while (submitted < parts && submitted < k + window) {
+					long start = submitted * partSize;
+					scans[submitted] = new Part(pattern, start, Math.min(
+							length, start + partSize));
+					getScanners().execute(scans[submitted]);
+					submitted++;
+				}
+				Part part = scans[k];
+				while (true) {
+					checkDeadline();
+					byte[] chunk = part.queue.poll(100, TimeUnit.MILLISECONDS);
+					if (chunk == END) {
+						break;
+					}
+					if (chunk != null) {
+						try {
+							ostream.write(chunk);
+							ostream.flush();
+						} catch (IOException e) {
+							Metrics.CLIENT_ABORTS.incrementAndGet();
+							log.info("write file "
+									+ fileStatus.getPath()
+									+ " be aborted \n"
+									+ "ClientAbortException:  java.net.SocketException: ",
+									e);
+							return;
+						}
+					}
+				}
+				if (part.error != null) {
+					throw part.error;
+				}
+				scans[k] = null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} finally {
+			cancelled = true;
+		}
+	}
+
+	private void checkDeadline() {
+		if (cancelled || System.currentTimeMillis() > deadline) {
+			throw new BudgetExceededException();
+		}
+	}
+
+	/**
+	 * a part of the file scanned by a thread of the pool, it owns the lines
+	 * starting in [start, end)
+	 */
+	private class Part implements Runnable {
+		private final Matcher matcher;
+		private final long start;
+		private final long end;
+		private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(
+				QUEUE_CHUNKS);
+		private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(
+				CHUNK_SIZE);
+		private long lastFlush = System.currentTimeMillis();
+		private volatile IOException error;
+
+		Part(Pattern pattern, long start, long end) {
+			this.matcher = pattern.matcher("");
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public void run() {
+			try {
+				scan();
+				flush();
+			} catch (IOException e) {
+				error = e;
+			} catch (BudgetExceededException e) {
+				// the writer reports it
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				try {
+					put(END);
+				} catch (BudgetExceededException e) {
+					// the writer is gone
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		private void scan() throws IOException, InterruptedException {
+			Metrics.OPEN.incrementAndGet();
+			FSDataInputStream is = dfs.open(fileStatus.getPath());
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				byte[] line = new byte[256];
+				int lineLength = 0;
+				boolean skipping = false;
+				long pos = start;
+				long lineStart = start;
+				if (start > 0) {
+					// the line running over start belongs to the previous
+					// part, skip up to the newline before the first own line
+					is.seek(start - 1);
+					pos = start - 1;
+					skipping = true;
+				}
+				int bytesToRead;
+				while ((bytesToRead = is.read(buffer)) != -1) {
+					checkDeadline();
+					int from = 0;
+					for (int i = 0; i < bytesToRead; i++) {
+						if (buffer[i] != '\n') {
+							continue;
+						}
+						if (skipping) {
+							skipping = false;
+						} else if (lineLength == 0) {
+							match(buffer, from, i - from);
+						} else {
+							line = append(line, lineLength, buffer, from, i
+									- from);
+							lineLength = Math.min(lineLength + i - from,
+									MAX_LINE_LENGTH);
+							match(line, 0, lineLength);
+						}
+						lineLength = 0;
+						from = i + 1;
+						lineStart = pos + i + 1;
+						if (lineStart >= end) {
+							return;
+						}
+					}
+					if (!skipping && from < bytesToRead) {
+						line = append(line, lineLength, buffer, from,
+								bytesToRead - from);
+						lineLength = Math.min(lineLength + bytesToRead - from,
+								MAX_LINE_LENGTH);
+					}
+					pos += bytesToRead;
+					if (System.currentTimeMillis() - lastFlush > CHUNK_FLUSH_MS) {
+						flush();
+					}
+				}
+				// the last line of the file without a newline
+				if (!skipping && lineLength > 0) {
+					match(line, 0, lineLength);
+				}
+			} finally {
+				is.close();
+			}
+		}
+
+		private byte[] append(byte[] line, int lineLength, byte[] b, int off,
+				int len) {
+			len = Math.min(len, MAX_LINE_LENGTH - lineLength);
+			if (len <= 0) {
+				return line;
+			}
+			if (lineLength + len > line.length) {
+				byte[] grown = new byte[Math.max(line.length * 2, lineLength
+						+ len)];
+				System.arraycopy(line, 0, grown, 0, lineLength);
+				line = grown;
+			}
+			System.arraycopy(b, off, line, lineLength, len);
+			return line;
+		}
+
+		private void match(byte[] b, int off, int len)
+				throws InterruptedException {
+			String text = new String(b, off, len, UTF8);
+			if (matcher.reset(new DeadlineCharSequence(text)).find()) {
+				chunk.write(b, off, len);
+				chunk.write('\n');
+				if (chunk.size() >= CHUNK_SIZE) {
+					flush();
+				}
+			}
+		}
+
+		private void flush() throws InterruptedException {
+			lastFlush = System.currentTimeMillis();
+			if (chunk.size() > 0) {
+				put(chunk.toByteArray());
+				chunk.reset();
+			}
+		}
+
+		private void put(byte[] b) throws InterruptedException {
+			while (!queue.offer(b, 100, TimeUnit.MILLISECONDS)) {
+				checkDeadline();
+			}
+		}
+	}
+
+	/**
+	 * a char sequence which stops the regular expression engine when the
+	 * deadline of the filter has passed
+	 */
+	private class DeadlineCharSequence implements CharSequence {
+		private final CharSequence inner;
+		private int count = 0;
+
+		DeadlineCharSequence(CharSequence inner) {
+			this.inner = inner;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if ((++count & 0xfffff) == 0) {
+				checkDeadline();
+			}
+			return inner.charAt(index);
+		}
+
+		@Override
+		public int length() {
+			return inner.length();
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new DeadlineCharSequence(inner.subSequence(start, end));
+		}
+
+		@Override
+		public String toString() {
+			return inner.toString();
+		}
+	}
+}
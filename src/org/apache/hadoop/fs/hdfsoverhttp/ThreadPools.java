@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Factory of the background thread pools of the gateway. All threads are
+ * daemon threads named after their pool, so they never keep the servlet
+ * container from shutting down.
+ *
+ * With virtual-threads on a Java 21 JVM the fixed pools of blocking HDFS
+ * work run on virtual threads, their size still bounds the work in flight
+ * but a blocked read no longer holds a platform thread. Virtual threads are
+ * found by reflection, so the classes still run on older JVMs.
+ */
+public class ThreadPools {
+
+	static Logger log = Logger.getLogger(ThreadPools.class);
+
+	/**
+	 * @return true if virtual-threads is on and the JVM has them
+	 */
+	static boolean isVirtual() {
+		return SysConfig.VIRTUAL_THREADS && VirtualThreads.SUPPORTED;
+	}
+
+	/**
+	 * create a thread factory of named virtual threads
+	 *
+	 * @param name
+	 * @return thread factory or null if the JVM has no virtual threads
+	 */
+	static ThreadFactory newVirtualThreadFactory(String name) {
+		if (!VirtualThreads.SUPPORTED) {
+			return null;
+		}
+		try {
+			Object builder = VirtualThreads.ofVirtual.invoke(null);
+			builder = VirtualThreads.name.invoke(builder, "hdfsoverhttp-"
+					+ name + "-", 1L);
+			return (ThreadFactory) VirtualThreads.factory.invoke(builder);
+		} catch (Exception e) {
+			log.warn("create virtual threads of " + name + " error", e);
+			return null;
+		}
+	}
+
+	/**
+	 * create an executor which starts a virtual thread for each task
+	 *
+	 * @param name
+	 * @return executor or null if the JVM has no virtual threads
+	 */
+	static ExecutorService newVirtualExecutor(String name) {
+		ThreadFactory factory = newVirtualThreadFactory(name);
+		if (factory == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) VirtualThreads.newThreadPerTaskExecutor
+					.invoke(null, factory);
+		} catch (Exception e) {
+			log.warn("create virtual executor of " + name + " error", e);
+			return null;
+		}
+	}
+
+	/**
+	 * create a thread factory of named daemon threads
+	 *
+	 * @param name
+	 * @return thread factory
+	 */
+	static ThreadFactory newThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "hdfsoverhttp-" + name + "-"
+						+ count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * create a thread pool of fixed size, idle threads are released. The
+	 * threads are virtual in the virtual thread mode.
+	 *
+	 * @param name
+	 * @param size
+	 * @return thread pool
+	 */
+	static ExecutorService newFixedPool(String name, int size) {
+		ThreadFactory factory = isVirtual() ? newVirtualThreadFactory(name)
+				: null;
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60L,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				factory != null ? factory : newThreadFactory(name));
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * change the size of a pool of newFixedPool, the running tasks aren't
+	 * interrupted
+	 *
+	 * @param pool
+	 * @param size
+	 */
+	static void resize(ExecutorService pool, int size) {
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) pool;
+		if (size > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(size);
+			executor.setCorePoolSize(size);
+		} else {
+			executor.setCorePoolSize(size);
+			executor.setMaximumPoolSize(size);
+		}
+	}
+
+	/**
+	 * create a scheduled thread pool
+	 *
+	 * @param name
+	 * @param size
+	 * @return scheduled thread pool
+	 */
+	static ScheduledExecutorService newScheduledPool(String name, int size) {
+		ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(
+				size, newThreadFactory(name));
+		pool.setRemoveOnCancelPolicy(true);
+		return pool;
+	}
+
+	/**
+	 * the methods of the virtual threads of Java 21
+	 */
+	private static class VirtualThreads {
+		static final boolean SUPPORTED;
+		static Method ofVirtual;
+		static Method name;
+		static Method factory;
+		static Method newThreadPerTaskExecutor;
+
+		static {
+			boolean supported = false;
+			try {
+				Class<?> builder = Class
+						.forName("java.lang.Thread$Builder$OfVirtual");
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				name = builder.getMethod("name", String.class, long.class);
+				factory = builder.getMethod("factory");
+				newThreadPerTaskExecutor = Executors.class.getMethod(
+						"newThreadPerTaskExecutor", ThreadFactory.class);
+				supported = true;
+			} catch (Exception e) {
+				// before Java 21
+			}
+			SUPPORTED = supported;
+		}
+	}
+}
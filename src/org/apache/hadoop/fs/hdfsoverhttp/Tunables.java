@@ -0,0 +1,447 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The settings which can be changed while the gateway runs: the copy
+ * buffers, the capacity of the checksum caches, the limits of concurrent
+ * requests, broadcasts, filters and followers, the read-ahead ring of a
+ * broadcast, the thresholds of the parking of slow clients, the time
+ * limits and the caches of the end users and their permissions.
+ *
+ * A Tunables is an immutable snapshot of them, replaced as a whole when
+ * the config file changes or an attribute of the hdfsoverhttp:type=Tunables
+ * MBean is set. A download reads the snapshot once when it starts, so it
+ * runs to its end with the values it started with, and the limits are
+ * resized without taking a slot from a running request. A value set by
+ * JMX lasts until the config file changes.
+ */
+public class Tunables implements DynamicMBean {
+
+	static Logger log = Logger.getLogger(Tunables.class);
+
+	/**
+	 * the keys of the config file which are tunable
+	 */
+	static final String[] KEYS = { "buffer-size", "pread-buffer-size",
+			"max-concurrent", "checksum-cache-size", "filter-max-concurrent",
+			"follow-max", "broadcast-max", "broadcast-min-size",
+			"broadcast-ring-chunks", "park-ratio", "park-after-ms",
+			"park-window-size", "park-memory-budget", "slow-read-threshold-ms",
+			"slow-request-ms", "filter-time-limit", "follow-idle-timeout",
+			"follow-poll-min-ms", "follow-poll-max-ms", "user-cache-size",
+			"user-idle-timeout", "permission-cache-size",
+			"permission-cache-ttl" };
+
+	private static volatile Tunables current = new Tunables(new Properties());
+	private static File watched = null;
+	private static long lastModified = 0;
+
+	final int bufferSize;
+	final int preadBufferSize;
+	final int maxConcurrent;
+	final int checksumCacheSize;
+	final int filterMaxConcurrent;
+	final int followMax;
+	final int broadcastMax;
+	final long broadcastMinSize;
+	final int broadcastRingChunks;
+	final long parkRatio;
+	final long parkAfterMs;
+	final int parkWindowSize;
+	final long parkMemoryBudget;
+	final long slowReadThresholdMs;
+	final long slowRequestMs;
+	final long filterTimeLimitMs;
+	final long followIdleTimeoutMs;
+	final long followPollMinMs;
+	final long followPollMaxMs;
+	final int userCacheSize;
+	final long userIdleTimeoutMs;
+	final int permissionCacheSize;
+	final long permissionCacheTtlMs;
+	// the whole config file, for the settings of the mounts
+	private final Properties props;
+
+	/**
+	 * @param props
+	 *            the config file
+	 * @throws NumberFormatException
+	 *             if a value isn't a number
+	 */
+	private Tunables(Properties props) {
+		this.props = props;
+		bufferSize = (int) get(props, "buffer-size", 2048);
+		preadBufferSize = (int) get(props, "pread-buffer-size", 262144);
+		maxConcurrent = (int) get(props, "max-concurrent", 256);
+		checksumCacheSize = (int) get(props, "checksum-cache-size", 10000);
+		filterMaxConcurrent = (int) get(props, "filter-max-concurrent", 4);
+		followMax = (int) get(props, "follow-max", 1000);
+		broadcastMax = (int) get(props, "broadcast-max", 16);
+		broadcastMinSize = get(props, "broadcast-min-size", 1048576);
+		broadcastRingChunks = (int) get(props, "broadcast-ring-chunks", 64);
+		parkRatio = get(props, "park-ratio", 20);
+		parkAfterMs = get(props, "park-after-ms", 10000);
+		parkWindowSize = (int) get(props, "park-window-size", 1048576);
+		parkMemoryBudget = get(props, "park-memory-budget", 268435456);
+		slowReadThresholdMs = get(props, "slow-read-threshold-ms", 1000);
+		slowRequestMs = get(props, "slow-request-ms", 10000);
+		filterTimeLimitMs = get(props, "filter-time-limit", 60) * 1000;
+		followIdleTimeoutMs = get(props, "follow-idle-timeout", 300) * 1000;
+		followPollMinMs = get(props, "follow-poll-min-ms", 250);
+		followPollMaxMs = get(props, "follow-poll-max-ms", 10000);
+		userCacheSize = (int) get(props, "user-cache-size", 256);
+		userIdleTimeoutMs = get(props, "user-idle-timeout", 600) * 1000;
+		permissionCacheSize = (int) get(props, "permission-cache-size", 10000);
+		permissionCacheTtlMs = get(props, "permission-cache-ttl", 60) * 1000;
+		if (bufferSize <= 0 || preadBufferSize <= 0 || maxConcurrent < 0
+				|| checksumCacheSize < 0 || filterMaxConcurrent < 0
+				|| broadcastMax <= 0 || parkWindowSize <= 0
+				|| userCacheSize <= 0 || permissionCacheSize < 0) {
+			throw new NumberFormatException("a size or a limit is negative");
+		}
+		// the settings of the mounts are parsed when they are applied, so
+		// check them before the snapshot can be installed
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith("mount.") && isTunable(key)
+					&& Integer.parseInt(props.getProperty(key).trim()) < 0) {
+				throw new NumberFormatException(key + " is negative");
+			}
+		}
+	}
+
+	private static long get(Properties props, String key, long defaultValue) {
+		String value = props.getProperty(key);
+		return value == null ? defaultValue : Long.parseLong(value.trim());
+	}
+
+	/**
+	 * @return the current snapshot
+	 */
+	static Tunables get() {
+		return current;
+	}
+
+	/**
+	 * @param mount
+	 *            the name of a mount
+	 * @param key
+	 * @param defaultValue
+	 * @return the setting of a mount
+	 */
+	int getMountInt(String mount, String key, int defaultValue) {
+		String value = props.getProperty("mount." + mount + "." + key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * take the first snapshot, called by SysConfig.init
+	 *
+	 * @param props
+	 *            the config file
+	 * @param file
+	 *            the config file to watch, or null if it isn't a file
+	 */
+	static synchronized void init(Properties props, File file) {
+		try {
+			current = new Tunables(props);
+		} catch (NumberFormatException e) {
+			log.error("invalid tunable setting, the defaults are used", e);
+		}
+		watched = file;
+		lastModified = file != null ? file.lastModified() : 0;
+		try {
+			// the MBean reads and replaces the current snapshot
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new Tunables(new Properties()),
+					new ObjectName("hdfsoverhttp:type=Tunables"));
+		} catch (Exception e) {
+			log.warn("register mbean of tunables error", e);
+		}
+	}
+
+	/**
+	 * check the config file every interval, it is reloaded when it is
+	 * modified
+	 *
+	 * @param intervalMs
+	 *            0 turns the check off
+	 */
+	static synchronized void watch(long intervalMs) {
+		if (watched == null || intervalMs <= 0) {
+			return;
+		}
+		log.info("reload the tunables of " + watched + " when it changes");
+		ThreadPools.newScheduledPool("conf-watch", 1).scheduleWithFixedDelay(
+				new Runnable() {
+					@Override
+					public void run() {
+						checkFile();
+					}
+				}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized void checkFile() {
+		long modified = watched.lastModified();
+		if (modified == lastModified) {
+			return;
+		}
+		lastModified = modified;
+		reload();
+	}
+
+	/**
+	 * read the config file again and apply its tunables
+	 *
+	 * @return false if it can't be read or has an invalid value
+	 */
+	static synchronized boolean reload() {
+		if (watched == null) {
+			log.warn("the config file isn't a file, it can't be reloaded");
+			return false;
+		}
+		Properties props = new Properties();
+		try {
+			InputStream in = new FileInputStream(watched);
+			try {
+				props.load(in);
+			} finally {
+				in.close();
+			}
+			Tunables tunables = new Tunables(props);
+			warnRestart(current.props, props);
+			apply(tunables);
+			log.info("reloaded the tunables of " + watched);
+			return true;
+		} catch (IOException e) {
+			log.error("reload " + watched + " error", e);
+		} catch (NumberFormatException e) {
+			log.error("invalid tunable in " + watched + ", nothing changed", e);
+		}
+		return false;
+	}
+
+	/**
+	 * log the changed settings which only take effect after a restart
+	 */
+	private static void warnRestart(Properties before, Properties after) {
+		for (String key : after.stringPropertyNames()) {
+			if (!isTunable(key)
+					&& !after.getProperty(key).trim().equals(
+							before.getProperty(key, "").trim())) {
+				log.warn(key + " is changed, it takes effect after a restart");
+			}
+		}
+	}
+
+	private static boolean isTunable(String key) {
+		if (key.startsWith("mount.")) {
+			key = key.substring(key.lastIndexOf('.') + 1);
+			return key.equals("max-concurrent")
+					|| key.equals("checksum-cache-size");
+		}
+		for (String tunable : KEYS) {
+			if (tunable.equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * replace the snapshot and resize the limits and caches
+	 */
+	private static void apply(Tunables tunables) {
+		current = tunables;
+		if (Mount.isInitialized()) {
+			for (Mount mount : Mount.getMounts()) {
+				mount.tune(tunables);
+			}
+		}
+		TextFilter.tune(tunables);
+		Broadcast.tune(tunables);
+		Permissions.tune(tunables);
+	}
+
+	/**
+	 * set a tunable as if it was changed in the config file
+	 *
+	 * @return false if the key isn't tunable or the value is invalid
+	 */
+	static synchronized boolean set(String key, String value) {
+		if (!isTunable(key)) {
+			return false;
+		}
+		Properties props = new Properties();
+		props.putAll(current.props);
+		props.setProperty(key, value);
+		try {
+			apply(new Tunables(props));
+		} catch (NumberFormatException e) {
+			return false;
+		}
+		log.info("set " + key + " = " + value);
+		return true;
+	}
+
+	/**
+	 * @return the value of a key in the units of the config file
+	 */
+	private long value(String key) {
+		switch (key) {
+		case "buffer-size":
+			return bufferSize;
+		case "pread-buffer-size":
+			return preadBufferSize;
+		case "max-concurrent":
+			return maxConcurrent;
+		case "checksum-cache-size":
+			return checksumCacheSize;
+		case "filter-max-concurrent":
+			return filterMaxConcurrent;
+		case "follow-max":
+			return followMax;
+		case "broadcast-max":
+			return broadcastMax;
+		case "broadcast-min-size":
+			return broadcastMinSize;
+		case "broadcast-ring-chunks":
+			return broadcastRingChunks;
+		case "park-ratio":
+			return parkRatio;
+		case "park-after-ms":
+			return parkAfterMs;
+		case "park-window-size":
+			return parkWindowSize;
+		case "park-memory-budget":
+			return parkMemoryBudget;
+		case "slow-read-threshold-ms":
+			return slowReadThresholdMs;
+		case "slow-request-ms":
+			return slowRequestMs;
+		case "filter-time-limit":
+			return filterTimeLimitMs / 1000;
+		case "follow-idle-timeout":
+			return followIdleTimeoutMs / 1000;
+		case "follow-poll-min-ms":
+			return followPollMinMs;
+		case "follow-poll-max-ms":
+			return followPollMaxMs;
+		case "user-cache-size":
+			return userCacheSize;
+		case "user-idle-timeout":
+			return userIdleTimeoutMs / 1000;
+		case "permission-cache-size":
+			return permissionCacheSize;
+		case "permission-cache-ttl":
+			return permissionCacheTtlMs / 1000;
+		default:
+			throw new IllegalArgumentException(key);
+		}
+	}
+
+	@Override
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		try {
+			return current.value(attribute);
+		} catch (IllegalArgumentException e) {
+			throw new AttributeNotFoundException(attribute);
+		}
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException, InvalidAttributeValueException {
+		if (!isTunable(attribute.getName())) {
+			throw new AttributeNotFoundException(attribute.getName());
+		}
+		if (!set(attribute.getName(), String.valueOf(attribute.getValue()))) {
+			throw new InvalidAttributeValueException(attribute.getName()
+					+ " = " + attribute.getValue());
+		}
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (String name : attributes) {
+			try {
+				list.add(new Attribute(name, getAttribute(name)));
+			} catch (AttributeNotFoundException e) {
+				// an unknown name is left out
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		AttributeList set = new AttributeList();
+		for (Attribute attribute : attributes.asList()) {
+			if (set(attribute.getName(), String.valueOf(attribute.getValue()))) {
+				set.add(attribute);
+			}
+		}
+		return set;
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		if (actionName.equals("reload")) {
+			return reload();
+		}
+		throw new UnsupportedOperationException(actionName);
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[KEYS.length];
+		for (int i = 0; i < KEYS.length; i++) {
+			attributes[i] = new MBeanAttributeInfo(KEYS[i], "java.lang.Long",
+					KEYS[i] + " of the config file", true, true, false);
+		}
+		MBeanOperationInfo reload = new MBeanOperationInfo("reload",
+				"read the config file again", null, "boolean",
+				MBeanOperationInfo.ACTION);
+		return new MBeanInfo(Tunables.class.getName(),
+				"the settings changed while the gateway runs", attributes,
+				null, new MBeanOperationInfo[] { reload }, null);
+	}
+}
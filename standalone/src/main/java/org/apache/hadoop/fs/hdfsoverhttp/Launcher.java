@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.DispatcherType;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ErrorPageErrorHandler;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * Serves the gateway without a servlet container: FileDownloadServlet runs
+ * on the NIO connector of an embedded Jetty, without sessions, JSP or
+ * annotation scanning, and the icons are served from the jar.
+ *
+ * The only argument is the path of hdfs-over-http.conf, its http-* keys
+ * set the connector. The NameNode is connected in the background by
+ * GatewayStartup, so the server starts at once. With virtual-threads on
+ * a Java 21 JVM the requests are served by virtual threads instead of
+ * http-threads platform threads.
+ *
+ * java -jar hdfsoverhttp-standalone.jar /etc/hdfs-over-http.conf
+ */
+public class Launcher {
+
+	static Logger log = Logger.getLogger(Launcher.class);
+
+	/**
+	 * the directory of the static resources in the jar
+	 */
+	private static final String WEBAPP = "/webapp";
+
+	public static void main(String[] args) throws Exception {
+		long start = System.nanoTime();
+		if (args.length != 1) {
+			System.err.println("usage: java -jar hdfsoverhttp-standalone.jar "
+					+ "<hdfs-over-http.conf>");
+			System.exit(2);
+		}
+		File conf = new File(args[0]).getAbsoluteFile();
+		Server server = createServer(conf, load(conf));
+		server.start();
+		ServerConnector connector = (ServerConnector) server.getConnectors()[0];
+		log.info("serving " + conf + " on port " + connector.getLocalPort()
+				+ ", started in " + (System.nanoTime() - start) / 1000000
+				+ " ms");
+		server.join();
+	}
+
+	private static Properties load(File conf) throws IOException {
+		Properties props = new Properties();
+		InputStream in = new FileInputStream(conf);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		return props;
+	}
+
+	/**
+	 * @return a virtual thread per task in the virtual thread mode, else a
+	 *         pool of http-threads threads
+	 */
+	private static ThreadPool createThreadPool(Properties props) {
+		if (Boolean.parseBoolean(props.getProperty("virtual-threads",
+				"false").trim())) {
+			ExecutorService executor = ThreadPools.newVirtualExecutor("http");
+			if (executor != null) {
+				log.info("serving requests on virtual threads");
+				return new ExecutorThreadPool(executor);
+			}
+			log.warn("virtual-threads is on but the JVM has no virtual threads");
+		}
+		int threads = Integer.parseInt(props.getProperty("http-threads",
+				"200").trim());
+		QueuedThreadPool pool = new QueuedThreadPool(threads, Math.min(8,
+				threads));
+		pool.setName("http");
+		return pool;
+	}
+
+	/**
+	 * @param conf
+	 *            the path of hdfs-over-http.conf
+	 * @param props
+	 *            its contents
+	 * @return the server, not started
+	 */
+	static Server createServer(File conf, Properties props) {
+		Server server = new Server(createThreadPool(props));
+		ServerConnector connector = new ServerConnector(server);
+		String host = props.getProperty("http-host", "").trim();
+		connector.setHost(host.length() == 0 ? null : host);
+		connector.setPort(Integer.parseInt(props.getProperty("http-port",
+				"8080").trim()));
+		server.addConnector(connector);
+
+		ServletContextHandler context = new ServletContextHandler(
+				ServletContextHandler.NO_SESSIONS);
+		context.setContextPath(props.getProperty("http-context", "/").trim());
+		context.setBaseResource(Resource.newClassPathResource(WEBAPP));
+		// read by SysConfig instead of WEB-INF/conf
+		context.setInitParameter("hdfs-over-http.conf", conf.getPath());
+		context.addEventListener(new GatewayStartup());
+		context.addFilter(SendfileFilter.class, "/*",
+				EnumSet.of(DispatcherType.REQUEST));
+		ServletHolder download = context.addServlet(
+				FileDownloadServlet.class, "/*");
+		download.setAsyncSupported(true);
+		ServletHolder icons = context.addServlet(DefaultServlet.class,
+				"/.icons/*");
+		icons.setInitParameter("dirAllowed", "false");
+		context.addServlet(ErrorPageServlet.class, "/.errors/*");
+		ErrorPageErrorHandler errors = new ErrorPageErrorHandler();
+		errors.addErrorPage(404, "/.errors/404");
+		errors.addErrorPage(500, "/.errors/500");
+		context.setErrorHandler(errors);
+
+		server.setHandler(context);
+		server.setStopAtShutdown(true);
+		return server;
+	}
+}
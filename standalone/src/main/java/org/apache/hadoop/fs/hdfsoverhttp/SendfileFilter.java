@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.hdfsoverhttp;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * The sendfile of Tomcat's NIO connector for the embedded Jetty. The
+ * request is marked as supporting it, and the region of a local file the
+ * servlet leaves in the request attributes is written after the servlet
+ * from memory mapped buffers, so the bytes go from the page cache to the
+ * socket without being copied into the heap.
+ */
+public class SendfileFilter implements Filter {
+
+	private static final long MAP_SIZE = 64 * 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	@Override
+	public void init(FilterConfig filterConfig) {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response,
+			FilterChain chain) throws IOException, ServletException {
+		request.setAttribute(FileDownloadServlet.SENDFILE_SUPPORT,
+				Boolean.TRUE);
+		chain.doFilter(request, response);
+		String filename = (String) request
+				.getAttribute(FileDownloadServlet.SENDFILE_FILENAME);
+		if (filename == null || request.isAsyncStarted()) {
+			return;
+		}
+		long start = (Long) request
+				.getAttribute(FileDownloadServlet.SENDFILE_START);
+		long end = (Long) request
+				.getAttribute(FileDownloadServlet.SENDFILE_END);
+		ServletOutputStream out = response.getOutputStream();
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			for (long position = start; position < end; position += MAP_SIZE) {
+				MappedByteBuffer buffer = channel.map(
+						FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAP_SIZE, end - position));
+				if (out instanceof HttpOutput) {
+					((HttpOutput) out).write(buffer);
+				} else {
+					write(out, buffer);
+				}
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * write a buffer through a heap array, for a stream of another container
+	 */
+	private static void write(ServletOutputStream out, ByteBuffer buffer)
+			throws IOException {
+		byte[] chunk = new byte[BUFFER_SIZE];
+		while (buffer.hasRemaining()) {
+			int n = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, n);
+			out.write(chunk, 0, n);
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}